@@ -5,15 +5,23 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.util.Random;
+import enums.OperationType;
 import maps.Map2D;
+import maps.SearchStats;
 import utils.Rectangle;
 
 public class Benchmark {
+    private static final int NUMBER_OF_SEARCHES = 100; // Searches timed per configuration
+    private static final int WORKLOAD_PLACES = 1000000; // Places per dataset of the workload report
+    private static final int WORKLOAD_OPERATIONS = 200000; // Operations per mixed operation stream
+    private static final long WORKLOAD_SEED = 2658; // Seed of every dataset and stream, so runs are comparable
+
     public static void main(String[] args) {
+        benchmarkWorkloads();
         int[] numberOfNodes = new int[]{1000000,10000000,20000000,50000000,70000000,100000000};
         try (FileWriter writer = new FileWriter(new File(FileSystems.getDefault().getPath("src/","benchMark", "benchmark_results.csv").toString()).getCanonicalPath())) {
             // Write the header of the CSV file
-            writer.append("Depth,NodeCount,InitializationTime,MemoryUsage,SearchTime\n");
+            writer.append("Depth,NodeCount,InitializationTime,MemoryUsage,SearchTime,NodesVisited,PointsTested\n");
 
             for (int numberOfNode : numberOfNodes) {
                 System.out.println("##########################################################################");
@@ -33,11 +41,14 @@ public class Benchmark {
                     System.out.println("Depth: " + i + "; Capacity per node: " + String.format("%,d", Map2D.calculateIdealCapacity(numberOfNode, i)) + "; Initialization Time: " + initializationTime + "ms; Memory Usage: " + String.format("%,d", memoryUsage) + "MB");
 
                     // Benchmark search time
-                    double averageSearchTime = benchmarkSearchTime(qt);
-                    System.out.println("Average search time for 100 searches: " + String.format("%.2f", averageSearchTime) + "ms");
+                    SearchStats stats = new SearchStats();
+                    double averageSearchTime = benchmarkSearchTime(qt, stats);
+                    double averageNodesVisited = stats.getNodesVisited() / (double) NUMBER_OF_SEARCHES;
+                    double averagePointsTested = stats.getPointsTested() / (double) NUMBER_OF_SEARCHES;
+                    System.out.println("Average search time for 100 searches: " + String.format("%.2f", averageSearchTime) + "ms; Nodes visited: " + String.format("%.1f", averageNodesVisited) + "; Points tested: " + String.format("%.1f", averagePointsTested));
 
                     // Write data to CSV file
-                    writer.append(String.format("%d,%d,%d,%d,%.2f\n", i, numberOfNode, initializationTime, memoryUsage, averageSearchTime));
+                    writer.append(String.format("%d,%d,%d,%d,%.2f,%.1f,%.1f\n", i, numberOfNode, initializationTime, memoryUsage, averageSearchTime, averageNodesVisited, averagePointsTested));
                     writer.flush();  // Explicitly flush after each write operation
                 }
             }
@@ -46,12 +57,11 @@ public class Benchmark {
         }
     }
 
-    private static double benchmarkSearchTime(Map2D qt) {
+    private static double benchmarkSearchTime(Map2D qt, SearchStats stats) {
         Random rnd = new Random();
         long totalSearchTime = 0;
-        int numberOfSearches = 100;
 
-        for (int j = 0; j < numberOfSearches; j++) {
+        for (int j = 0; j < NUMBER_OF_SEARCHES; j++) {
             int x = rnd.nextInt(10000000);
             int y = rnd.nextInt(10000000);
             int width = rnd.nextInt(5000000) + 1000;
@@ -59,12 +69,71 @@ public class Benchmark {
             Rectangle searchRect = new Rectangle(x, y, width, height);
 
             long searchStart = System.currentTimeMillis();
-            qt.search(searchRect, null, null, 1000);
+            qt.search(searchRect, null, null, 1000, stats);
             long searchEnd = System.currentTimeMillis();
 
             totalSearchTime += (searchEnd - searchStart);
         }
 
-        return totalSearchTime / (double) numberOfSearches;
+        return totalSearchTime / (double) NUMBER_OF_SEARCHES;
+    }
+
+    /**
+     * Builds a map from each dataset shape, from uniform noise to clustered
+     * cities with skewed multi-service places and degenerate coordinates, and
+     * runs a read-heavy and a write-heavy operation stream on it. The average
+     * time of every operation type is printed and written to
+     * workload_results.csv.
+     */
+    private static void benchmarkWorkloads() {
+        Rectangle boundary = new Rectangle(10000000 / 2, 10000000 / 2, 10000000, 10000000);
+        ServiceDistribution skewed = Workloads.zipfServices(1.2, 0.3);
+        DatasetGenerator[] generators = {
+                Workloads.uniform(boundary, Workloads.singleService()),
+                Workloads.clustered(boundary, 40, 0.01, 0.05, Workloads.singleService()),
+                Workloads.clustered(boundary, 40, 0.01, 0.05, skewed),
+                Workloads.withDegenerates(Workloads.clustered(boundary, 40, 0.01, 0.05, skewed), boundary, 0.05, 0.05)
+        };
+        String[] names = { "uniform", "cities", "cities, skewed services", "cities, skewed services, duplicates and roads" };
+        String[] streams = { "read-heavy", "write-heavy" };
+        int[][] weights = { OperationStream.READ_HEAVY, OperationStream.WRITE_HEAVY };
+        OperationType[] types = OperationType.values();
+        try (FileWriter writer = new FileWriter(new File(FileSystems.getDefault().getPath("src/", "benchMark", "workload_results.csv").toString()).getCanonicalPath())) {
+            writer.append("Dataset,Stream,BuildTime,Depth");
+            for (OperationType type : types) {
+                writer.append(',').append(type.name());
+            }
+            writer.append('\n');
+            for (int g = 0; g < generators.length; g++) {
+                for (int s = 0; s < streams.length; s++) {
+                    Random rnd = new Random(WORKLOAD_SEED);
+                    Dataset data = generators[g].generate(WORKLOAD_PLACES, rnd);
+                    OperationStream stream = OperationStream.generate(data, boundary, weights[s], WORKLOAD_OPERATIONS, skewed, rnd);
+                    long startTime = System.nanoTime();
+                    // Quads adapt to the local density, since a fixed depth cannot fit clustered data
+                    Map2D qt = new Map2D(boundary, 64, 16, 16);
+                    qt.bulkLoad(data.xs, data.ys, data.services, data.size());
+                    double buildTime = (System.nanoTime() - startTime) / 1e6;
+                    int depth = qt.calculateDepth();
+
+                    long[] elapsed = new long[types.length];
+                    int[] executed = new int[types.length];
+                    stream.run(qt, elapsed, executed);
+                    System.out.println("------------------------------------");
+                    System.out.println("Workload: " + names[g] + ", " + streams[s] + "; Build Time: " + String.format("%.1f", buildTime) + "ms; Depth: " + depth);
+                    writer.append(String.format("\"%s\",%s,%.1f,%d", names[g], streams[s], buildTime, depth));
+                    for (OperationType type : types) {
+                        int t = type.ordinal();
+                        double average = executed[t] == 0 ? 0 : elapsed[t] / 1e3 / executed[t];
+                        System.out.println("  " + type + ": " + String.format("%,d", executed[t]) + " operations, " + String.format("%.2f", average) + "us average");
+                        writer.append(String.format(",%.2f", average));
+                    }
+                    writer.append('\n');
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
-}
\ No newline at end of file
+}
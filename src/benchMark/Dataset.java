@@ -0,0 +1,36 @@
+package benchMark;
+
+/**
+ * A generated set of places stored column-wise, ready for Map2D.bulkLoad.
+ */
+public final class Dataset {
+    public final String name; // Short description of how the places were generated
+    public final int[] xs; // X-coordinates of the places
+    public final int[] ys; // Y-coordinates of the places
+    public final int[] services; // Binary representation of the services of each place
+
+    /**
+     * Constructs a dataset over the given columns.
+     *
+     * @param name     A short description of how the places were generated.
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The binary representation of the services of each place.
+     */
+    public Dataset(String name, int[] xs, int[] ys, int[] services) {
+        this.name = name;
+        this.xs = xs;
+        this.ys = ys;
+        this.services = services;
+    }
+
+    /**
+     * Returns the number of places.
+     *
+     * @return The number of places.
+     *         Time Complexity: O(1).
+     */
+    public int size() {
+        return xs.length;
+    }
+}
@@ -0,0 +1,20 @@
+package benchMark;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Generates the places of a benchmark dataset. Implementations draw every
+ * random number from the generator they are given, so a dataset is fully
+ * determined by its seed.
+ */
+@FunctionalInterface
+public interface DatasetGenerator {
+    /**
+     * Generates a dataset.
+     *
+     * @param count The number of places.
+     * @param rnd   The generator to draw from.
+     * @return The generated places.
+     */
+    Dataset generate(int count, RandomGenerator rnd);
+}
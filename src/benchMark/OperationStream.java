@@ -0,0 +1,149 @@
+package benchMark;
+
+import java.util.random.RandomGenerator;
+import enums.OperationType;
+import enums.ServiceType;
+import maps.Map2D;
+import models.Place;
+import utils.Rectangle;
+
+/**
+ * A pre-generated sequence of mixed reads and writes against a map. Reads are
+ * centered on existing places, since users look where places are, and their
+ * rectangles range from a street to a whole district; writes add places next
+ * to existing ones and remove or edit existing ones. Generating the whole
+ * stream up front keeps the random generator out of the timings.
+ */
+public final class OperationStream {
+    // Weights of each operation type, by ordinal: mostly searches with a few writes
+    public static final int[] READ_HEAVY = { 60, 15, 10, 5, 5, 5 };
+    // Weights of each operation type, by ordinal: as many writes as reads
+    public static final int[] WRITE_HEAVY = { 25, 10, 15, 20, 15, 15 };
+    private static final OperationType[] TYPES = OperationType.values(); // Operation types by ordinal
+    private static final double MIN_QUERY_FRACTION = 0.0005; // Smallest query side, as a fraction of the bounds
+    private static final double MAX_QUERY_FRACTION = 0.02; // Largest query side, as a fraction of the bounds
+    private static final int NEAREST_K = 10; // Places asked for by a nearest-neighbour query
+    private static final int SEARCH_CAPACITY = 1000; // Places returned by a search at most
+    private final OperationType[] types; // Type of each operation
+    private final int[] xs, ys; // Point of each operation: query center, or place to change
+    private final int[] args; // Query side for searches and counts, new services for inserts and updates
+    private final int[] filters; // Service type ordinal filtered by a read, or -1 for any place
+
+    /**
+     * Constructs a stream over generated columns.
+     *
+     * @param types   The type of each operation.
+     * @param xs      The x-coordinate of each operation.
+     * @param ys      The y-coordinate of each operation.
+     * @param args    The query side or new services of each operation.
+     * @param filters The service type ordinal filtered by each read, or -1.
+     */
+    private OperationStream(OperationType[] types, int[] xs, int[] ys, int[] args, int[] filters) {
+        this.types = types;
+        this.xs = xs;
+        this.ys = ys;
+        this.args = args;
+        this.filters = filters;
+    }
+
+    /**
+     * Generates a stream of operations on the places of a dataset.
+     *
+     * @param data     The places the map was built from.
+     * @param bounds   The bounds of the map.
+     * @param weights  The relative frequency of each operation type, by
+     *                 ordinal.
+     * @param length   The number of operations.
+     * @param services The distribution of the services of inserted and edited
+     *                 places, also used to pick the service filtered by reads.
+     * @param rnd      The generator to draw from.
+     * @return The stream.
+     *         Time Complexity: O(length).
+     */
+    public static OperationStream generate(Dataset data, Rectangle bounds, int[] weights, int length,
+            ServiceDistribution services, RandomGenerator rnd) {
+        int totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+        int minX = bounds.x - bounds.halfWidth, maxX = bounds.x + bounds.halfWidth;
+        int minY = bounds.y - bounds.halfHeight, maxY = bounds.y + bounds.halfHeight;
+        double minSide = Math.max(1, MIN_QUERY_FRACTION * bounds.width);
+        double sideRatio = MAX_QUERY_FRACTION / MIN_QUERY_FRACTION;
+        OperationType[] types = new OperationType[length];
+        int[] xs = new int[length], ys = new int[length], args = new int[length], filters = new int[length];
+        for (int i = 0; i < length; i++) {
+            int pick = rnd.nextInt(totalWeight);
+            int ordinal = 0;
+            while (pick >= weights[ordinal]) {
+                pick -= weights[ordinal++];
+            }
+            types[i] = TYPES[ordinal];
+            int anchor = rnd.nextInt(data.size());
+            xs[i] = data.xs[anchor];
+            ys[i] = data.ys[anchor];
+            filters[i] = -1;
+            switch (types[i]) {
+                case SEARCH, COUNT, NEAREST -> {
+                    // Query sides are log-uniform, so small and large queries are equally common
+                    args[i] = (int) (minSide * Math.pow(sideRatio, rnd.nextDouble()));
+                    if (rnd.nextBoolean()) {
+                        filters[i] = Integer.numberOfTrailingZeros(services.sample(rnd));
+                    }
+                }
+                case INSERT -> {
+                    int jitter = (int) minSide;
+                    xs[i] = Math.max(minX, Math.min(maxX, xs[i] + rnd.nextInt(2 * jitter + 1) - jitter));
+                    ys[i] = Math.max(minY, Math.min(maxY, ys[i] + rnd.nextInt(2 * jitter + 1) - jitter));
+                    args[i] = services.sample(rnd);
+                }
+                case UPDATE -> args[i] = services.sample(rnd);
+                case REMOVE -> {
+                }
+            }
+        }
+        return new OperationStream(types, xs, ys, args, filters);
+    }
+
+    /**
+     * Returns the number of operations.
+     *
+     * @return The number of operations.
+     *         Time Complexity: O(1).
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * Runs every operation against a map, timing each one.
+     *
+     * @param map      The map to run the operations on.
+     * @param elapsed  Receives the total nanoseconds spent per operation type,
+     *                 by ordinal.
+     * @param executed Receives the number of operations run per operation
+     *                 type, by ordinal.
+     * @return A checksum of the results, so that no operation can be optimized
+     *         away.
+     *         Time Complexity: the sum of the costs of the operations.
+     */
+    public long run(Map2D map, long[] elapsed, int[] executed) {
+        long checksum = 0;
+        for (int i = 0; i < types.length; i++) {
+            ServiceType filter = filters[i] < 0 ? null : ServiceType.getServiceByIndex(filters[i]);
+            long start = System.nanoTime();
+            switch (types[i]) {
+                case SEARCH -> checksum += map.search(new Rectangle(xs[i], ys[i], args[i], args[i]), null, filter,
+                        SEARCH_CAPACITY).size();
+                case NEAREST -> checksum += map.nearest(xs[i], ys[i], filter, NEAREST_K).size();
+                case COUNT -> checksum += map.count(new Rectangle(xs[i], ys[i], args[i], args[i]), filter);
+                case INSERT -> checksum += map.insert(new Place(args[i], xs[i], ys[i])) ? 1 : 0;
+                case REMOVE -> checksum += map.remove(xs[i], ys[i]) != null ? 1 : 0;
+                case UPDATE -> checksum += map.updateServices(xs[i], ys[i], args[i]) ? 1 : 0;
+            }
+            elapsed[types[i].ordinal()] += System.nanoTime() - start;
+            executed[types[i].ordinal()]++;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,17 @@
+package benchMark;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Draws the set of services offered by a generated place.
+ */
+@FunctionalInterface
+public interface ServiceDistribution {
+    /**
+     * Draws a set of services.
+     *
+     * @param rnd The generator to draw from.
+     * @return The binary representation of the services.
+     */
+    int sample(RandomGenerator rnd);
+}
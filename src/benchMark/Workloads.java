@@ -0,0 +1,222 @@
+package benchMark;
+
+import java.util.random.RandomGenerator;
+import enums.ServiceType;
+import utils.Rectangle;
+
+/**
+ * Factory of the dataset generators and service distributions used by the
+ * benchmarks. Besides the uniform noise of Map2D.generateRandomData, it offers
+ * cities drawn as Gaussian clusters of Zipf-distributed sizes, services whose
+ * popularity follows a Zipf law with places offering several of them, and
+ * degenerate inputs: exact duplicates and places lined up along roads,
+ * including the lines where the root quad splits.
+ */
+public final class Workloads {
+    // Services from the most to the least common in a city
+    private static final ServiceType[] POPULARITY = { ServiceType.RESTAURANT, ServiceType.COFFEE, ServiceType.ATM,
+            ServiceType.HOTEL, ServiceType.GAS_STATION, ServiceType.HOSPITAL };
+    private static final int ROADS = 8; // Lines that collinear places are put on
+    private static final int MAX_ATTEMPTS = 16; // Gaussian draws tried before a place is clamped into the bounds
+
+    /**
+     * This class only has static methods.
+     */
+    private Workloads() {
+    }
+
+    /**
+     * Returns the distribution of Map2D.generateRandomData: exactly one
+     * service per place, each service equally likely.
+     *
+     * @return The distribution.
+     *         Time Complexity: O(1).
+     */
+    public static ServiceDistribution singleService() {
+        return ServiceType::randomizeServices;
+    }
+
+    /**
+     * Returns a distribution in which the k-th most popular service is drawn
+     * with a probability proportional to 1 / k^exponent, and a place offers
+     * one more service, drawn the same way, with the given probability each
+     * time.
+     *
+     * @param exponent         The skew of the popularity; 0 is uniform.
+     * @param extraProbability The probability of offering one more service.
+     * @return The distribution.
+     *         Time Complexity: O(1).
+     */
+    public static ServiceDistribution zipfServices(double exponent, double extraProbability) {
+        double[] cumulative = zipfCumulative(POPULARITY.length, exponent);
+        return rnd -> {
+            int services = POPULARITY[sampleIndex(cumulative, rnd)].getBinaryValue();
+            while (rnd.nextDouble() < extraProbability) {
+                services |= POPULARITY[sampleIndex(cumulative, rnd)].getBinaryValue();
+            }
+            return services;
+        };
+    }
+
+    /**
+     * Computes the cumulative probabilities of a Zipf law over n ranks.
+     *
+     * @param n        The number of ranks.
+     * @param exponent The skew of the law.
+     * @return The cumulative probability of each rank; the last one is 1.
+     *         Time Complexity: O(n).
+     */
+    private static double[] zipfCumulative(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int rank = 0; rank < n; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= total;
+        }
+        cumulative[n - 1] = 1;
+        return cumulative;
+    }
+
+    /**
+     * Draws a rank from cumulative probabilities by binary search.
+     *
+     * @param cumulative The cumulative probabilities.
+     * @param rnd        The generator to draw from.
+     * @return The drawn rank.
+     *         Time Complexity: O(log n).
+     */
+    private static int sampleIndex(double[] cumulative, RandomGenerator rnd) {
+        double u = rnd.nextDouble();
+        int lo = 0, hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] <= u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns a generator of places spread uniformly over the bounds.
+     *
+     * @param bounds   The area to fill.
+     * @param services The distribution of the services of each place.
+     * @return The generator.
+     *         Time Complexity: O(1); generating n places is O(n).
+     */
+    public static DatasetGenerator uniform(Rectangle bounds, ServiceDistribution services) {
+        return (count, rnd) -> {
+            int[] xs = new int[count], ys = new int[count], serviceBits = new int[count];
+            for (int i = 0; i < count; i++) {
+                xs[i] = bounds.x - bounds.halfWidth + rnd.nextInt(2 * bounds.halfWidth + 1);
+                ys[i] = bounds.y - bounds.halfHeight + rnd.nextInt(2 * bounds.halfHeight + 1);
+                serviceBits[i] = services.sample(rnd);
+            }
+            return new Dataset("uniform", xs, ys, serviceBits);
+        };
+    }
+
+    /**
+     * Returns a generator of cities: the places gather around random centers
+     * in Gaussian clusters, the number of places per city follows a Zipf law
+     * (a few large cities and many towns), and a small share of places is
+     * spread uniformly as countryside. Most of the bounds stay empty.
+     *
+     * @param bounds   The area to fill.
+     * @param cities   The number of cities.
+     * @param spread   The typical standard deviation of a city, as a fraction
+     *                 of the smaller side of the bounds.
+     * @param noise    The fraction of places spread uniformly.
+     * @param services The distribution of the services of each place.
+     * @return The generator.
+     *         Time Complexity: O(1); generating n places is O(n log c), where c
+     *         is the number of cities.
+     */
+    public static DatasetGenerator clustered(Rectangle bounds, int cities, double spread, double noise,
+            ServiceDistribution services) {
+        return (count, rnd) -> {
+            int minX = bounds.x - bounds.halfWidth, maxX = bounds.x + bounds.halfWidth;
+            int minY = bounds.y - bounds.halfHeight, maxY = bounds.y + bounds.halfHeight;
+            int[] centerXs = new int[cities], centerYs = new int[cities];
+            double[] sigmas = new double[cities];
+            for (int c = 0; c < cities; c++) {
+                centerXs[c] = minX + rnd.nextInt(maxX - minX + 1);
+                centerYs[c] = minY + rnd.nextInt(maxY - minY + 1);
+                sigmas[c] = spread * Math.min(bounds.width, bounds.height) * (0.25 + rnd.nextDouble());
+            }
+            double[] sizes = zipfCumulative(cities, 1);
+            int[] xs = new int[count], ys = new int[count], serviceBits = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (rnd.nextDouble() < noise) {
+                    xs[i] = minX + rnd.nextInt(maxX - minX + 1);
+                    ys[i] = minY + rnd.nextInt(maxY - minY + 1);
+                } else {
+                    int city = sampleIndex(sizes, rnd);
+                    long x, y;
+                    int attempts = 0;
+                    do {
+                        x = centerXs[city] + Math.round(rnd.nextGaussian() * sigmas[city]);
+                        y = centerYs[city] + Math.round(rnd.nextGaussian() * sigmas[city]);
+                    } while ((x < minX || x > maxX || y < minY || y > maxY) && ++attempts < MAX_ATTEMPTS);
+                    xs[i] = (int) Math.max(minX, Math.min(maxX, x));
+                    ys[i] = (int) Math.max(minY, Math.min(maxY, y));
+                }
+                serviceBits[i] = services.sample(rnd);
+            }
+            return new Dataset("clustered(" + cities + " cities)", xs, ys, serviceBits);
+        };
+    }
+
+    /**
+     * Returns a generator that adds degenerate input to the places of another
+     * one: a fraction of the places is moved onto a few horizontal and
+     * vertical roads, two of them on the center lines of the bounds where the
+     * root quad splits, and a fraction is moved onto the exact coordinates of
+     * an earlier place.
+     *
+     * @param base       The generator of the original places.
+     * @param bounds     The area of the places.
+     * @param duplicates The fraction of places that duplicate an earlier one.
+     * @param collinear  The fraction of places moved onto a road.
+     * @return The generator.
+     *         Time Complexity: O(1); generating n places adds O(n) to the base
+     *         generator.
+     */
+    public static DatasetGenerator withDegenerates(DatasetGenerator base, Rectangle bounds, double duplicates,
+            double collinear) {
+        return (count, rnd) -> {
+            Dataset dataset = base.generate(count, rnd);
+            int[] xs = dataset.xs, ys = dataset.ys;
+            int minX = bounds.x - bounds.halfWidth, minY = bounds.y - bounds.halfHeight;
+            int[] roads = new int[ROADS]; // Even roads are horizontal (a fixed y), odd roads vertical (a fixed x)
+            roads[0] = bounds.y;
+            roads[1] = bounds.x;
+            for (int r = 2; r < ROADS; r++) {
+                roads[r] = r % 2 == 0 ? minY + rnd.nextInt(2 * bounds.halfHeight + 1)
+                        : minX + rnd.nextInt(2 * bounds.halfWidth + 1);
+            }
+            for (int i = 0; i < count; i++) {
+                double u = rnd.nextDouble();
+                if (u < collinear) {
+                    int road = rnd.nextInt(ROADS);
+                    if (road % 2 == 0) {
+                        ys[i] = roads[road];
+                    } else {
+                        xs[i] = roads[road];
+                    }
+                } else if (u < collinear + duplicates && i > 0) {
+                    int earlier = rnd.nextInt(i);
+                    xs[i] = xs[earlier];
+                    ys[i] = ys[earlier];
+                }
+            }
+            return new Dataset(dataset.name + " with duplicates and roads", xs, ys, dataset.services);
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package benchMark.jmh;
+
+import java.util.Random;
+import enums.ServiceType;
+import maps.Map2D;
+import utils.Rectangle;
+
+/**
+ * Seeded places and queries shared by the JMH benchmarks, so every fork and
+ * every configuration measures the same data.
+ */
+final class BenchmarkData {
+    static final int WORLD_SIZE = 10000000; // Width and height of the benchmark map, as in Benchmark
+    static final Rectangle BOUNDS = new Rectangle(WORLD_SIZE / 2, WORLD_SIZE / 2, WORLD_SIZE, WORLD_SIZE);
+    static final int QUERIES = 1024; // Queries prepared per trial and used in turn, a power of two
+    final int count; // Number of places
+    final int[] xs, ys, services; // Places, column-wise
+
+    /**
+     * Generates places spread uniformly over the map, each offering one
+     * random service.
+     *
+     * @param count The number of places.
+     * @param seed  The seed of the generator.
+     *              Time Complexity: O(count).
+     */
+    BenchmarkData(int count, long seed) {
+        Random rnd = new Random(seed);
+        this.count = count;
+        xs = new int[count];
+        ys = new int[count];
+        services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(WORLD_SIZE);
+            ys[i] = rnd.nextInt(WORLD_SIZE);
+            services[i] = ServiceType.randomizeServices(rnd);
+        }
+    }
+
+    /**
+     * Computes the bucket size that gives a tree of the places the requested
+     * depth, as Benchmark does.
+     *
+     * @param depth The desired depth of the tree.
+     * @return The capacity per quad, at least 1.
+     *         Time Complexity: O(1).
+     */
+    int capacityFor(int depth) {
+        return Math.max(1, Map2D.calculateIdealCapacity(count, depth));
+    }
+
+    /**
+     * Builds a map holding every place.
+     *
+     * @param depth The desired depth of the tree.
+     * @return The map.
+     *         Time Complexity: O(n log n).
+     */
+    Map2D build(int depth) {
+        Map2D map = new Map2D(BOUNDS, capacityFor(depth));
+        map.bulkLoad(xs, ys, services, count);
+        return map;
+    }
+
+    /**
+     * Generates square query rectangles of one size centered anywhere on the
+     * map.
+     *
+     * @param size The width and height of the rectangles.
+     * @param seed The seed of the generator.
+     * @return QUERIES rectangles.
+     *         Time Complexity: O(QUERIES).
+     */
+    static Rectangle[] queries(int size, long seed) {
+        Random rnd = new Random(seed);
+        Rectangle[] queries = new Rectangle[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = new Rectangle(rnd.nextInt(WORLD_SIZE), rnd.nextInt(WORLD_SIZE), size, size);
+        }
+        return queries;
+    }
+}
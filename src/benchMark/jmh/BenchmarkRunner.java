@@ -0,0 +1,28 @@
+package benchMark.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of the maps with the GC profiler, which adds the
+ * allocation rate and the bytes allocated per operation to every result, and
+ * writes the results to src/benchMark/jmh_results.csv.
+ * An optional argument is a regular expression selecting the benchmarks to run,
+ * for example "SearchBenchmark".
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackageName() + ".*Benchmark";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.CSV)
+                .result("src/benchMark/jmh_results.csv")
+                .build();
+        new Runner(options).run();
+    }
+}
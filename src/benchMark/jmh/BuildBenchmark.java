@@ -0,0 +1,59 @@
+package benchMark.jmh;
+
+import java.util.concurrent.TimeUnit;
+import maps.Map2D;
+import models.Place;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building a whole map, once with bulkLoad and once by inserting the
+ * places one at a time. Each build is timed as a single shot, since a build is
+ * far too long to be repeated inside one measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class BuildBenchmark {
+    @Param({ "100000", "1000000", "10000000" })
+    int nodeCount; // Number of places in the map
+
+    @Param({ "4", "6" })
+    int depth; // Desired depth of the tree, which sets the capacity per quad
+
+    private BenchmarkData data; // Places to build from
+
+    @Setup(Level.Trial)
+    public void generate() {
+        data = new BenchmarkData(nodeCount, 42);
+    }
+
+    @Benchmark
+    public Map2D bulkBuild() {
+        Map2D map = new Map2D(BenchmarkData.BOUNDS, data.capacityFor(depth));
+        map.bulkLoad(data.xs, data.ys, data.services, data.count);
+        return map;
+    }
+
+    @Benchmark
+    public Map2D insertBuild() {
+        Map2D map = new Map2D(BenchmarkData.BOUNDS, data.capacityFor(depth));
+        for (int i = 0; i < data.count; i++) {
+            map.insert(new Place(data.services[i], data.xs[i], data.ys[i]));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,100 @@
+package benchMark.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import enums.ServiceType;
+import maps.Map2D;
+import models.Place;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures inserting, removing and editing single places in a built map.
+ * Inserts and removals change the size of the map, so they run in batches of
+ * BATCH operations timed as one shot on a map rebuilt before every iteration;
+ * the reported time divided by BATCH is the cost of one operation. Edits keep
+ * the map unchanged in size and are measured as an average time.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class MutationBenchmark {
+    static final int BATCH = 50000; // Operations per timed batch, at most half of the smallest map
+
+    @Param({ "100000", "1000000", "10000000" })
+    int nodeCount; // Number of places in the map
+
+    @Param({ "4", "6" })
+    int depth; // Desired depth of the tree, which sets the capacity per quad
+
+    private BenchmarkData data; // Places of the map
+    private int[] order; // Shuffled indexes of the places, in the order they are removed or edited
+    private Place[] extra; // New places, in the order they are inserted
+    private Map2D map; // Map changed by the benchmark
+    private int next; // Number of operations of the current iteration
+
+    @Setup(Level.Trial)
+    public void generate() {
+        data = new BenchmarkData(nodeCount, 42);
+        Random rnd = new Random(9);
+        order = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            order[i] = i;
+        }
+        for (int i = nodeCount - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        extra = new Place[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            extra[i] = new Place(ServiceType.randomizeServices(rnd), rnd.nextInt(BenchmarkData.WORLD_SIZE),
+                    rnd.nextInt(BenchmarkData.WORLD_SIZE));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void build() {
+        map = data.build(depth);
+        next = 0;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public boolean insert() {
+        return map.insert(extra[next++]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public Place remove() {
+        int i = order[next++];
+        return map.remove(data.xs[i], data.ys[i]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public boolean edit() {
+        int i = order[next++ % nodeCount];
+        return map.updateServices(data.xs[i], data.ys[i], data.services[i] ^ ServiceType.ATM.getBinaryValue());
+    }
+}
@@ -0,0 +1,60 @@
+package benchMark.jmh;
+
+import java.util.concurrent.TimeUnit;
+import maps.Map2D;
+import models.Place;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * Measures range searches of several rectangle sizes and result limits (K) on
+ * a map built once per trial. The queries are prepared in advance and used in
+ * turn, so the benchmark never measures the random generator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class SearchBenchmark {
+    @Param({ "100000", "1000000", "10000000" })
+    int nodeCount; // Number of places in the map
+
+    @Param({ "4", "6" })
+    int depth; // Desired depth of the tree, which sets the capacity per quad
+
+    @Param({ "10000", "100000", "1000000" })
+    int rectangleSize; // Width and height of the query rectangles
+
+    @Param({ "10", "1000", "100000" })
+    int k; // Maximum number of places returned per search
+
+    private Map2D map; // Map searched
+    private Rectangle[] queries; // Query rectangles used in turn
+    private int next; // Index of the next query
+
+    @Setup(Level.Trial)
+    public void build() {
+        map = new BenchmarkData(nodeCount, 42).build(depth);
+        queries = BenchmarkData.queries(rectangleSize, 7);
+    }
+
+    @Benchmark
+    public ArrayList<Place> search() {
+        Rectangle range = queries[next++ & (BenchmarkData.QUERIES - 1)];
+        return map.search(range, null, null, k);
+    }
+}
@@ -0,0 +1,17 @@
+package enums;
+
+/**
+ * Enum representing how strongly a logged change is guaranteed to survive a
+ * crash before the change is acknowledged to the caller.
+ */
+public enum Durability {
+    // The log is handed to the operating system but never forced to disk: a
+    // process crash loses nothing, a power failure may lose recent changes.
+    NONE,
+    // The log is forced to disk by a background thread every few milliseconds:
+    // writers never wait, and at most one interval of changes can be lost.
+    BATCH,
+    // Every writer waits until its change is forced to disk; writers that arrive
+    // together share one forced write (group commit).
+    SYNC
+}
@@ -0,0 +1,12 @@
+package enums;
+
+/**
+ * Enum representing how a set of services is matched against the services of
+ * a place.
+ */
+public enum MatchMode {
+    // The place must offer every service in the set, e.g. restaurant AND ATM.
+    ALL,
+    // The place must offer at least one service in the set, e.g. hotel OR gas station.
+    ANY
+}
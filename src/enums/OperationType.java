@@ -0,0 +1,20 @@
+package enums;
+
+/**
+ * Enum representing the kinds of operation on a map, as found in a benchmark
+ * operation stream or in a request to the map server.
+ */
+public enum OperationType {
+    // A range search returning the matching places.
+    SEARCH,
+    // A search for the places closest to a point.
+    NEAREST,
+    // A count of the matching places in a range.
+    COUNT,
+    // A new place is added.
+    INSERT,
+    // A place is removed.
+    REMOVE,
+    // The services of a place are replaced.
+    UPDATE
+}
@@ -1,5 +1,6 @@
 package enums;
 import java.util.Random;
+import java.util.random.RandomGenerator;
 
 import gui.GUI;
 import utils.ArrayList;
@@ -50,7 +51,17 @@ public enum ServiceType {
      * @return The binary representation of a random set of services.
      */
     public static int randomizeServices() {
-        int randomIndex = RANDOM.nextInt(NUMBER_OF_SERVICES); // There are 6 service types
+        return randomizeServices(RANDOM);
+    }
+
+    /**
+     * Randomly generates an integer representing a set of services using the
+     * given generator, so that each thread can use its own generator.
+     * @param random The generator to draw from.
+     * @return The binary representation of a random set of services.
+     */
+    public static int randomizeServices(RandomGenerator random) {
+        int randomIndex = random.nextInt(NUMBER_OF_SERVICES); // There are 6 service types
         return switch (randomIndex) {
             case 0 -> ServiceType.HOTEL.getBinaryValue();
             case 1 -> ServiceType.COFFEE.getBinaryValue();
@@ -22,6 +22,7 @@ public class GUI {
         System.out.print("Enter the number of place to initialize the quad tree: ");
         int numPlace = sc.nextInt();
         qt = Map2D.initialize(numPlace);
+        qt.enableMetrics();
         while (true) {
             displayOperations();
             String choice = sc.next();
@@ -39,6 +40,12 @@ public class GUI {
                     editPlace(sc);
                     break;
                 case "5":
+                    findNearestPlaces(sc);
+                    break;
+                case "6":
+                    System.out.print(qt.getMetrics());
+                    break;
+                case "7":
                     sc.close();
                     return;
                 default:
@@ -58,7 +65,9 @@ public class GUI {
         System.out.println("2. Remove a place");
         System.out.println("3. Search for a place");
         System.out.println("4. Edit a place");
-        System.out.println("5. Exit");
+        System.out.println("5. Find nearest places");
+        System.out.println("6. Show metrics");
+        System.out.println("7. Exit");
         printLineSeparator();
         System.out.print("Enter your choice: ");
     }
@@ -140,10 +149,41 @@ public class GUI {
         ServiceType serviceType = ServiceType.getServiceByIndex(index);
         System.out.println(
                 "Searching for places within the rectangle: x=" + x + ", y=" + y + ", w=" + w*2 + ", h=" + h*2);
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
         ArrayList<Place> places = qt.search(new Rectangle(x, y, w * 2, h * 2), null, serviceType, capac);
-        long endTime = System.currentTimeMillis();
-        System.out.println("Time taken: " + (endTime - startTime) + " ms");
+        long endTime = System.nanoTime();
+        System.out.println("Time taken: " + String.format("%.3f", (endTime - startTime) / 1e6) + " ms");
+        System.out.println("Number of places found: " + places.size());
+        for (int i = 0; i < places.size(); i++) {
+            System.out.println(places.get(i));
+        }
+    }
+
+    /**
+     * Finds the places nearest to a point that offer a service in the QuadTree.
+     * @param sc Scanner, the scanner to read user input.
+     * Time Complexity: O(log n + k) on average, where k is the number of places requested.
+    */
+    private static void findNearestPlaces(Scanner sc) {
+        System.out.print("Please enter the x coordinate: ");
+        int x = sc.nextInt();
+        System.out.print("Please enter the y coordinate: ");
+        int y = sc.nextInt();
+        System.out.print("Please enter the number of places (max = 50): ");
+        int k = sc.nextInt();
+        if (k > 50) {
+            System.out.println("Number of places cannot be greater than 50");
+            return;
+        }
+        ServiceType.getAllServices();
+        System.out.print("Choose service for searching: ");
+        int index = sc.nextInt();
+        printLineSeparator();
+        ServiceType serviceType = ServiceType.getServiceByIndex(index);
+        long startTime = System.nanoTime();
+        ArrayList<Place> places = qt.nearest(x, y, serviceType, k);
+        long endTime = System.nanoTime();
+        System.out.println("Time taken: " + String.format("%.3f", (endTime - startTime) / 1e6) + " ms");
         System.out.println("Number of places found: " + places.size());
         for (int i = 0; i < places.size(); i++) {
             System.out.println(places.get(i));
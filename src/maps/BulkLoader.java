@@ -0,0 +1,545 @@
+package maps;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import utils.Rectangle;
+
+/**
+ * Builds a packed quad-tree from a whole batch of points in one pass.
+ * The points are sorted along a Z-order (Morton) curve whose digits follow the
+ * exact subdivision of the target tree, so every subtree owns one contiguous run
+ * of the sorted batch. The tree is then assembled by cutting those runs into
+ * quadrants and copying each leaf's run straight into its column arrays.
+ * Keys only encode the levels a uniform batch would need; a run that is still
+ * too large at the last encoded level is re-keyed relative to its own quad.
+ * With a parallelism above one, encoding, sorting and building all run as
+ * ForkJoinPool tasks: the batch is partitioned by its top Morton digit and every
+ * large subtree is built by its own task.
+ */
+final class BulkLoader {
+    private static final int MAX_KEY_LEVELS = 24; // Deepest level encoded in a sort key
+    private static final int EXTRA_KEY_LEVELS = 2; // Levels encoded beyond the uniform estimate
+    private static final int RADIX_BITS = 8; // Key bits consumed by one radix sort pass
+    private static final int SMALL_RUN = 64; // Runs shorter than this are sorted by comparison
+    private static final int CHUNKS_PER_THREAD = 4; // Slices of the batch handed to each worker
+    private static final int PARALLEL_RUN = 1 << 16; // Runs shorter than this are built by one task
+
+    private BulkLoader() {
+    }
+
+    /**
+     * Loads a batch of points into an empty, undivided quad.
+     *
+     * @param root     The quad to build under. It must hold no points.
+     * @param xs       The x-coordinates of the points.
+     * @param ys       The y-coordinates of the points.
+     * @param services The binary representation of the services of the points.
+     * @param count    The number of points to read from the arrays.
+     * @return The number of points that were inside the bounds and loaded.
+     *         Time Complexity: O(n log n), where n is the number of points, for
+     *         the sort; building the tree is O(n + m), where m is the number of
+     *         quads created.
+     */
+    static int load(Map2D root, int[] xs, int[] ys, int[] services, int count) {
+        int indexBits = indexBits(count);
+        int levels = keyLevels(count, root.CAPACITY, indexBits);
+        long[] keys = new long[count];
+        int loaded = encode(root.BOUNDS, xs, ys, keys, 0, count, levels, indexBits);
+        sortByCode(keys, 0, loaded, indexBits + 2 * levels, indexBits);
+        build(root, keys, 0, loaded, 0, levels, indexBits, xs, ys, services);
+        return loaded;
+    }
+
+    /**
+     * Loads a batch of points into an empty, undivided quad using a ForkJoinPool
+     * with the given parallelism.
+     *
+     * @param root        The quad to build under. It must hold no points.
+     * @param xs          The x-coordinates of the points.
+     * @param ys          The y-coordinates of the points.
+     * @param services    The binary representation of the services of the points.
+     * @param count       The number of points to read from the arrays.
+     * @param parallelism The number of worker threads; 1 or less loads on the
+     *                    calling thread.
+     * @return The number of points that were inside the bounds and loaded.
+     *         Time Complexity: O(n log n / p) on p workers, where n is the number
+     *         of points.
+     */
+    static int load(Map2D root, int[] xs, int[] ys, int[] services, int count, int parallelism) {
+        if (parallelism <= 1) {
+            return load(root, xs, ys, services, count);
+        }
+        int indexBits = indexBits(count);
+        int levels = keyLevels(count, root.CAPACITY, indexBits);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            long[] keys = new long[count];
+            int loaded = encode(pool, root.BOUNDS, xs, ys, keys, count, levels, indexBits);
+            keys = sortByCode(pool, keys, loaded, indexBits + 2 * levels, indexBits);
+            pool.invoke(new BuildTask(root, keys, 0, loaded, 0, levels, indexBits, xs, ys, services));
+            return loaded;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Computes how many low bits of a key hold the index of its point.
+     *
+     * @param count The number of points in the batch.
+     * @return The number of index bits.
+     *         Time Complexity: O(1).
+     */
+    static int indexBits(int count) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(count - 1, 1)));
+    }
+
+    /**
+     * Estimates how many levels a key must encode for a run to fit in leaves of
+     * the given capacity, assuming the points are spread evenly.
+     *
+     * @param count     The number of points in the run.
+     * @param capacity  The capacity of a quad.
+     * @param indexBits The number of low bits reserved for the point index.
+     * @return The number of levels to encode.
+     *         Time Complexity: O(log count).
+     */
+    static int keyLevels(int count, int capacity, int indexBits) {
+        int levels = EXTRA_KEY_LEVELS;
+        long cells = Math.max(capacity, 1);
+        while (cells < count) {
+            cells *= 4;
+            levels++;
+        }
+        return Math.min(levels, Math.min(MAX_KEY_LEVELS, (63 - indexBits) / 2));
+    }
+
+    /**
+     * Computes the sort key of every point inside the bounds, packing the Morton
+     * code above the point's index so that sorting the keys also sorts the points.
+     *
+     * @param bounds    The bounds of the root quad.
+     * @param xs        The x-coordinates of the points.
+     * @param ys        The y-coordinates of the points.
+     * @param keys      The array receiving the packed keys.
+     * @param from      The first point to encode.
+     * @param to        One past the last point to encode.
+     * @param levels    The number of quad-tree levels encoded in each key.
+     * @param indexBits The number of low bits reserved for the point index.
+     * @return The number of keys written; points outside the bounds are skipped.
+     *         Time Complexity: O(n * levels).
+     */
+    static int encode(Rectangle bounds, int[] xs, int[] ys, long[] keys, int from, int to, int levels,
+            int indexBits) {
+        int written = from;
+        for (int i = from; i < to; i++) {
+            if (bounds.isContains(xs[i], ys[i])) {
+                keys[written++] = (mortonCode(bounds, xs[i], ys[i], levels) << indexBits) | i;
+            }
+        }
+        return written - from;
+    }
+
+    /**
+     * Computes the sort keys of a batch in parallel slices and compacts them to
+     * the front of the key array.
+     *
+     * @param pool      The pool running the slices.
+     * @param bounds    The bounds of the root quad.
+     * @param xs        The x-coordinates of the points.
+     * @param ys        The y-coordinates of the points.
+     * @param keys      The array receiving the packed keys.
+     * @param count     The number of points to encode.
+     * @param levels    The number of quad-tree levels encoded in each key.
+     * @param indexBits The number of low bits reserved for the point index.
+     * @return The number of keys written; points outside the bounds are skipped.
+     *         Time Complexity: O(n * levels / p) on p workers.
+     */
+    static int encode(ForkJoinPool pool, Rectangle bounds, int[] xs, int[] ys, long[] keys, int count, int levels,
+            int indexBits) {
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        int chunkSize = (count + chunks - 1) / chunks;
+        int[] written = new int[chunks];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[chunks];
+        for (int c = 0; c < chunks; c++) {
+            int chunk = c;
+            int from = Math.min(count, c * chunkSize);
+            int to = Math.min(count, from + chunkSize);
+            tasks[c] = ForkJoinTask.adapt(() -> {
+                written[chunk] = encode(bounds, xs, ys, keys, from, to, levels, indexBits);
+            });
+        }
+        invokeAll(pool, tasks);
+
+        // Slices skip the points outside the bounds, so close the gaps between them
+        int loaded = 0;
+        for (int c = 0; c < chunks; c++) {
+            System.arraycopy(keys, Math.min(count, c * chunkSize), keys, loaded, written[c]);
+            loaded += written[c];
+        }
+        return loaded;
+    }
+
+    /**
+     * Computes the Z-order code of a point by following the quadrants it falls in
+     * from the root bounds down the given number of levels.
+     *
+     * @param bounds The bounds of the root quad.
+     * @param x      The x-coordinate of the point.
+     * @param y      The y-coordinate of the point.
+     * @param levels The number of levels to descend.
+     * @return The code, two bits per level with the root's quadrant highest.
+     *         Time Complexity: O(levels).
+     */
+    static long mortonCode(Rectangle bounds, int x, int y, int levels) {
+        long code = 0;
+        int cx = bounds.x, cy = bounds.y;
+        int hw = bounds.halfWidth, hh = bounds.halfHeight;
+        for (int level = 0; level < levels; level++) {
+            // 1 when the point is right of (or below) the centre, computed without branching
+            int right = (int) (((long) cx - 1 - x) >>> 63);
+            int lower = (int) (((long) cy - 1 - y) >>> 63);
+            code = (code << 2) | (lower << 1) | right;
+            hw = (hw + 1) / 2;
+            hh = (hh + 1) / 2;
+            cx += (2 * right - 1) * hw;
+            cy += (2 * lower - 1) * hh;
+        }
+        return code;
+    }
+
+    /**
+     * Builds the subtree of a quad from its run of sorted keys.
+     *
+     * @param node      The quad owning the run.
+     * @param keys      The sorted packed keys.
+     * @param lo        The first key of the run.
+     * @param hi        One past the last key of the run.
+     * @param level     The depth of the quad below the root.
+     * @param levels    The number of levels encoded in each key.
+     * @param indexBits The number of low bits reserved for the point index.
+     * @param xs        The x-coordinates of the batch.
+     * @param ys        The y-coordinates of the batch.
+     * @param services  The services of the batch.
+     *                  Time Complexity: O(k + q log k), where k is the length of
+     *                  the run and q the number of quads built under it.
+     */
+    static void build(Map2D node, long[] keys, int lo, int hi, int level, int levels, int indexBits, int[] xs,
+            int[] ys, int[] services) {
+        if (isLeaf(node, hi - lo)) {
+            fillLeaf(node, keys, lo, hi, indexBits, xs, ys, services);
+            return;
+        }
+        if (level == levels) {
+            // The run is still too large at the last encoded level: re-key it from this quad down
+            levels = rekey(node, keys, lo, hi, indexBits, xs, ys);
+            level = 0;
+        }
+        node.subdivide();
+        int[] bounds = splitRun(keys, lo, hi, level, levels, indexBits);
+        Map2D[] children = { node.topLeft, node.topRight, node.lowerLeft, node.lowerRight };
+        for (int q = 0; q < 4; q++) {
+            build(children[q], keys, bounds[q], bounds[q + 1], level + 1, levels, indexBits, xs, ys, services);
+        }
+        node.summarize();
+    }
+
+    /**
+     * Checks whether a run should be stored in the quad instead of split further.
+     *
+     * @param node   The quad owning the run.
+     * @param length The number of points in the run.
+     * @return true if the quad should become a leaf.
+     *         Time Complexity: O(1).
+     */
+    static boolean isLeaf(Map2D node, int length) {
+        return length <= node.CAPACITY || !node.canSubdivide();
+    }
+
+    /**
+     * Replaces the keys of a run with Morton codes relative to the given quad and
+     * sorts the run again.
+     *
+     * @param node      The quad owning the run.
+     * @param keys      The packed keys.
+     * @param lo        The first key of the run.
+     * @param hi        One past the last key of the run.
+     * @param indexBits The number of low bits reserved for the point index.
+     * @param xs        The x-coordinates of the batch.
+     * @param ys        The y-coordinates of the batch.
+     * @return The number of levels encoded in the new keys.
+     *         Time Complexity: O(k log k), where k is the length of the run.
+     */
+    static int rekey(Map2D node, long[] keys, int lo, int hi, int indexBits, int[] xs, int[] ys) {
+        int levels = keyLevels(hi - lo, node.CAPACITY, indexBits);
+        long indexMask = (1L << indexBits) - 1;
+        for (int i = lo; i < hi; i++) {
+            int source = (int) (keys[i] & indexMask);
+            keys[i] = (mortonCode(node.BOUNDS, xs[source], ys[source], levels) << indexBits) | source;
+        }
+        sortByCode(keys, lo, hi, indexBits + 2 * levels, indexBits);
+        return levels;
+    }
+
+    /**
+     * Sorts a run of keys by their Morton code with an in-place MSD radix sort
+     * (American flag sort). The index bits below the code are not sorted, since
+     * the order of points inside one leaf does not matter.
+     *
+     * @param keys    The packed keys.
+     * @param lo      The first key of the run.
+     * @param hi      One past the last key of the run.
+     * @param highBit One past the highest key bit that still has to be sorted.
+     * @param lowBit  The lowest bit of the Morton code.
+     *                Time Complexity: O(k * b / RADIX_BITS), where k is the length
+     *                of the run and b the number of code bits.
+     */
+    static void sortByCode(long[] keys, int lo, int hi, int highBit, int lowBit) {
+        if (highBit <= lowBit || hi - lo < 2) {
+            return;
+        }
+        if (hi - lo < SMALL_RUN) {
+            Arrays.sort(keys, lo, hi);
+            return;
+        }
+        int bits = Math.min(RADIX_BITS, highBit - lowBit);
+        int shift = highBit - bits;
+        int mask = (1 << bits) - 1;
+
+        // Count the keys in each bucket and compute where each bucket starts
+        int[] ends = new int[mask + 1];
+        for (int i = lo; i < hi; i++) {
+            ends[(int) (keys[i] >>> shift) & mask]++;
+        }
+        int[] next = new int[mask + 1];
+        int position = lo;
+        for (int bucket = 0; bucket <= mask; bucket++) {
+            next[bucket] = position;
+            position += ends[bucket];
+            ends[bucket] = position;
+        }
+
+        // Swap every key into its bucket in place
+        for (int bucket = 0; bucket <= mask; bucket++) {
+            while (next[bucket] < ends[bucket]) {
+                long key = keys[next[bucket]];
+                int digit = (int) (key >>> shift) & mask;
+                while (digit != bucket) {
+                    long displaced = keys[next[digit]];
+                    keys[next[digit]++] = key;
+                    key = displaced;
+                    digit = (int) (key >>> shift) & mask;
+                }
+                keys[next[bucket]++] = key;
+            }
+        }
+
+        int start = lo;
+        for (int bucket = 0; bucket <= mask; bucket++) {
+            sortByCode(keys, start, ends[bucket], shift, lowBit);
+            start = ends[bucket];
+        }
+    }
+
+    /**
+     * Sorts keys by their Morton code in parallel. The top radix digit is counted
+     * and scattered by parallel slices into a new array, and every bucket is then
+     * sorted by its own task.
+     *
+     * @param pool    The pool running the tasks.
+     * @param keys    The packed keys.
+     * @param count   The number of keys to sort.
+     * @param highBit One past the highest bit of the Morton code.
+     * @param lowBit  The lowest bit of the Morton code.
+     * @return The array holding the sorted keys, which may be a new array.
+     *         Time Complexity: O(n * b / (RADIX_BITS * p)) on p workers, where b
+     *         is the number of code bits.
+     */
+    static long[] sortByCode(ForkJoinPool pool, long[] keys, int count, int highBit, int lowBit) {
+        if (highBit <= lowBit || count < PARALLEL_RUN) {
+            sortByCode(keys, 0, count, highBit, lowBit);
+            return keys;
+        }
+        int bits = Math.min(RADIX_BITS, highBit - lowBit);
+        int shift = highBit - bits;
+        int mask = (1 << bits) - 1;
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        int chunkSize = (count + chunks - 1) / chunks;
+
+        // Count the keys of every slice in each bucket
+        int[][] offsets = new int[chunks][mask + 1];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[chunks];
+        for (int c = 0; c < chunks; c++) {
+            int[] counts = offsets[c];
+            int from = Math.min(count, c * chunkSize);
+            int to = Math.min(count, from + chunkSize);
+            tasks[c] = ForkJoinTask.adapt(() -> {
+                for (int i = from; i < to; i++) {
+                    counts[(int) (keys[i] >>> shift) & mask]++;
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+
+        // Turn the counts into the position where each slice writes each bucket
+        int[] ends = new int[mask + 1];
+        int position = 0;
+        for (int bucket = 0; bucket <= mask; bucket++) {
+            for (int c = 0; c < chunks; c++) {
+                int bucketCount = offsets[c][bucket];
+                offsets[c][bucket] = position;
+                position += bucketCount;
+            }
+            ends[bucket] = position;
+        }
+
+        long[] sorted = new long[count];
+        for (int c = 0; c < chunks; c++) {
+            int[] next = offsets[c];
+            int from = Math.min(count, c * chunkSize);
+            int to = Math.min(count, from + chunkSize);
+            tasks[c] = ForkJoinTask.adapt(() -> {
+                for (int i = from; i < to; i++) {
+                    sorted[next[(int) (keys[i] >>> shift) & mask]++] = keys[i];
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+
+        ForkJoinTask<?>[] bucketTasks = new ForkJoinTask<?>[mask + 1];
+        for (int bucket = 0; bucket <= mask; bucket++) {
+            int from = bucket == 0 ? 0 : ends[bucket - 1];
+            int to = ends[bucket];
+            bucketTasks[bucket] = ForkJoinTask.adapt(() -> sortByCode(sorted, from, to, shift, lowBit));
+        }
+        invokeAll(pool, bucketTasks);
+        return sorted;
+    }
+
+    /**
+     * Runs a set of tasks in the pool and waits for all of them.
+     *
+     * @param pool  The pool running the tasks.
+     * @param tasks The tasks to run.
+     *              Time Complexity: O(1) besides the tasks themselves.
+     */
+    static void invokeAll(ForkJoinPool pool, ForkJoinTask<?>[] tasks) {
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    /**
+     * Cuts a sorted run into the four contiguous runs of the children.
+     *
+     * @param keys      The sorted packed keys.
+     * @param lo        The first key of the run.
+     * @param hi        One past the last key of the run.
+     * @param level     The depth of the quad owning the run.
+     * @param levels    The number of levels encoded in each key.
+     * @param indexBits The number of low bits reserved for the point index.
+     * @return Five offsets; child q owns the keys between offsets q and q + 1.
+     *         Time Complexity: O(log k), where k is the length of the run.
+     */
+    static int[] splitRun(long[] keys, int lo, int hi, int level, int levels, int indexBits) {
+        int shift = indexBits + 2 * (levels - 1 - level);
+        int[] bounds = new int[5];
+        bounds[0] = lo;
+        bounds[4] = hi;
+        for (int q = 1; q < 4; q++) {
+            int left = bounds[q - 1], right = hi;
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if ((int) ((keys[mid] >>> shift) & 3) < q) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            bounds[q] = left;
+        }
+        return bounds;
+    }
+
+    /**
+     * Copies a run of points into the column arrays of a leaf quad.
+     *
+     * @param node      The leaf quad.
+     * @param keys      The sorted packed keys.
+     * @param lo        The first key of the run.
+     * @param hi        One past the last key of the run.
+     * @param indexBits The number of low bits reserved for the point index.
+     * @param xs        The x-coordinates of the batch.
+     * @param ys        The y-coordinates of the batch.
+     * @param services  The services of the batch.
+     *                  Time Complexity: O(k), where k is the length of the run.
+     */
+    static void fillLeaf(Map2D node, long[] keys, int lo, int hi, int indexBits, int[] xs, int[] ys,
+            int[] services) {
+        int length = hi - lo;
+        long indexMask = (1L << indexBits) - 1;
+        int[] leafXs = new int[length];
+        int[] leafYs = new int[length];
+        int[] leafServices = new int[length];
+        for (int i = 0; i < length; i++) {
+            int source = (int) (keys[lo + i] & indexMask);
+            leafXs[i] = xs[source];
+            leafYs[i] = ys[source];
+            leafServices[i] = services[source];
+        }
+        node.xs = leafXs;
+        node.ys = leafYs;
+        node.services = leafServices;
+        node.size = length;
+        node.summarize();
+    }
+
+    /**
+     * Builds the subtree of a quad as a fork-join task. The four children of a
+     * large run are built by separate tasks; small runs are built sequentially.
+     */
+    private static final class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // RecursiveAction is Serializable
+        private final Map2D node;
+        private final long[] keys;
+        private final int lo, hi, level, levels, indexBits;
+        private final int[] xs, ys, services;
+
+        BuildTask(Map2D node, long[] keys, int lo, int hi, int level, int levels, int indexBits, int[] xs, int[] ys,
+                int[] services) {
+            this.node = node;
+            this.keys = keys;
+            this.lo = lo;
+            this.hi = hi;
+            this.level = level;
+            this.levels = levels;
+            this.indexBits = indexBits;
+            this.xs = xs;
+            this.ys = ys;
+            this.services = services;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < PARALLEL_RUN || isLeaf(node, hi - lo)) {
+                build(node, keys, lo, hi, level, levels, indexBits, xs, ys, services);
+                return;
+            }
+            int childLevel = level, childLevels = levels;
+            if (childLevel == childLevels) {
+                childLevels = rekey(node, keys, lo, hi, indexBits, xs, ys);
+                childLevel = 0;
+            }
+            node.subdivide();
+            int[] bounds = splitRun(keys, lo, hi, childLevel, childLevels, indexBits);
+            Map2D[] children = { node.topLeft, node.topRight, node.lowerLeft, node.lowerRight };
+            BuildTask[] tasks = new BuildTask[4];
+            for (int q = 0; q < 4; q++) {
+                tasks[q] = new BuildTask(children[q], keys, bounds[q], bounds[q + 1], childLevel + 1, childLevels,
+                        indexBits, xs, ys, services);
+            }
+            invokeAll(tasks);
+            node.summarize();
+        }
+    }
+}
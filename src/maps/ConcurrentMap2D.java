@@ -0,0 +1,310 @@
+package maps;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import enums.ServiceType;
+import models.Place;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * A thread-safe map that splits its bounds into a fixed grid of stripes, each
+ * stripe being its own quad-tree guarded by its own read-write lock.
+ * The stripes are the quads of a complete quad-tree of a chosen number of levels,
+ * built with the same geometry and routing rule as Map2D, so a place always
+ * belongs to exactly one stripe.
+ * Writes lock only the stripe of the place they change, and searches read-lock
+ * one stripe at a time, so work in different regions runs in parallel and no
+ * lock is ever shared by the whole map. Because no thread holds two locks at
+ * once, the locks cannot deadlock. Each stripe is read atomically, but a search
+ * over many stripes is not an atomic snapshot of the whole map.
+ */
+public class ConcurrentMap2D {
+    private static final int DEFAULT_STRIPE_LEVELS = 2; // Levels of the stripe grid by default: 4 x 4 stripes
+    private static final int INITIAL_RESULT_CAPACITY = 16; // Initial size of the result lists of search and nearest
+    final Rectangle BOUNDS; // Spatial bounds of the whole map
+    final int STRIPE_LEVELS; // Number of times the bounds are split into quadrants to form the stripes
+    final Rectangle[] REGIONS; // Complete quad-tree of regions in heap order, used to route places; children of i are 4i + 1 to 4i + 4
+    final int FIRST_STRIPE; // Position of the first stripe region in REGIONS
+    final Map2D[] STRIPES; // Quad-tree of each stripe
+    final ReentrantReadWriteLock[] LOCKS; // Lock of each stripe
+
+    /**
+     * Constructs a concurrent map with the default 4 x 4 stripe grid.
+     *
+     * @param bounds   The spatial bounds of the map.
+     * @param capacity The maximum number of points per quad of each stripe.
+     */
+    public ConcurrentMap2D(Rectangle bounds, int capacity) {
+        this(bounds, capacity, DEFAULT_STRIPE_LEVELS);
+    }
+
+    /**
+     * Constructs a concurrent map whose bounds are split into 4^stripeLevels
+     * stripes.
+     *
+     * @param bounds       The spatial bounds of the map.
+     * @param capacity     The maximum number of points per quad of each stripe.
+     * @param stripeLevels The number of levels of the stripe grid, from 0 (one
+     *                     stripe) to 6.
+     *                     Time Complexity: O(4^l), where l is the number of levels.
+     */
+    public ConcurrentMap2D(Rectangle bounds, int capacity, int stripeLevels) {
+        if (stripeLevels < 0 || stripeLevels > 6) {
+            throw new IllegalArgumentException("Stripe levels must be between 0 and 6: " + stripeLevels);
+        }
+        this.BOUNDS = bounds;
+        this.STRIPE_LEVELS = stripeLevels;
+        int stripeCount = 1 << (2 * stripeLevels);
+        this.FIRST_STRIPE = (stripeCount - 1) / 3;
+        this.REGIONS = new Rectangle[FIRST_STRIPE + stripeCount];
+        this.STRIPES = new Map2D[stripeCount];
+        this.LOCKS = new ReentrantReadWriteLock[stripeCount];
+
+        REGIONS[0] = bounds;
+        String[] quadrants = { "topLeft", "topRight", "lowerLeft", "lowerRight" };
+        for (int i = 0; i < FIRST_STRIPE; i++) {
+            for (int quadrant = 0; quadrant < 4; quadrant++) {
+                REGIONS[4 * i + 1 + quadrant] = REGIONS[i].subdivide(quadrants[quadrant]);
+            }
+        }
+        for (int stripe = 0; stripe < stripeCount; stripe++) {
+            STRIPES[stripe] = new Map2D(REGIONS[FIRST_STRIPE + stripe], capacity);
+            LOCKS[stripe] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Finds the stripe a coordinate belongs to, following the same routing rule
+     * as Map2D.
+     *
+     * @param x The x-coordinate.
+     * @param y The y-coordinate.
+     * @return The stripe of the coordinate.
+     *         Time Complexity: O(l), where l is the number of stripe levels.
+     */
+    private int stripeOf(int x, int y) {
+        int region = 0;
+        while (region < FIRST_STRIPE) {
+            Rectangle bounds = REGIONS[region];
+            int quadrant = (y < bounds.y ? 0 : 2) + (x < bounds.x ? 0 : 1);
+            region = 4 * region + 1 + quadrant;
+        }
+        return region - FIRST_STRIPE;
+    }
+
+    /**
+     * Returns the number of stripes of this map.
+     *
+     * @return The number of stripes.
+     *         Time Complexity: O(1).
+     */
+    public int stripeCount() {
+        return STRIPES.length;
+    }
+
+    /**
+     * Counts the places in the whole map.
+     *
+     * @return The number of places.
+     *         Time Complexity: O(s), where s is the number of stripes.
+     */
+    public int countChildren() {
+        int count = 0;
+        for (int stripe = 0; stripe < STRIPES.length; stripe++) {
+            LOCKS[stripe].readLock().lock();
+            try {
+                count += STRIPES[stripe].countChildren();
+            } finally {
+                LOCKS[stripe].readLock().unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Inserts a place, locking only the stripe it belongs to.
+     *
+     * @param place The place to insert.
+     * @return true if the place was inserted, false if it is out of bounds.
+     *         Time Complexity: O(log n), where n is the number of places in the
+     *         stripe.
+     */
+    public boolean insert(Place place) {
+        if (!BOUNDS.isContains(place.x, place.y)) {
+            return false;
+        }
+        int stripe = stripeOf(place.x, place.y);
+        LOCKS[stripe].writeLock().lock();
+        try {
+            return STRIPES[stripe].insert(place);
+        } finally {
+            LOCKS[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a place at a specified location, locking only its stripe.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return true if a place was removed, false otherwise.
+     *         Time Complexity: O(d), where d is the depth of the quad holding the
+     *         place.
+     */
+    public boolean removePlace(int x, int y) {
+        if (!BOUNDS.isContains(x, y)) {
+            return false;
+        }
+        int stripe = stripeOf(x, y);
+        LOCKS[stripe].writeLock().lock();
+        try {
+            return STRIPES[stripe].removePlace(x, y);
+        } finally {
+            LOCKS[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a place at a specified location without reporting it, locking
+     * only its stripe.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return The removed place, or null if there is no place at the location.
+     *         Time Complexity: O(d), where d is the depth of the quad holding the
+     *         place.
+     */
+    public Place remove(int x, int y) {
+        if (!BOUNDS.isContains(x, y)) {
+            return null;
+        }
+        int stripe = stripeOf(x, y);
+        LOCKS[stripe].writeLock().lock();
+        try {
+            return STRIPES[stripe].remove(x, y);
+        } finally {
+            LOCKS[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the services of the place at a specified location, locking only
+     * its stripe.
+     *
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The new binary representation of the services.
+     * @return true if the place was found and updated, false otherwise.
+     *         Time Complexity: O(d), where d is the depth of the quad holding the
+     *         place.
+     */
+    public boolean updateServices(int x, int y, int service) {
+        if (!BOUNDS.isContains(x, y)) {
+            return false;
+        }
+        int stripe = stripeOf(x, y);
+        LOCKS[stripe].writeLock().lock();
+        try {
+            return STRIPES[stripe].updateServices(x, y, service);
+        } finally {
+            LOCKS[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Searches for places within a specified range that match a given service
+     * type. Each stripe intersecting the range is searched by its own Map2D
+     * under its read lock, one at a time, adding to the same list.
+     *
+     * @param range       The area to search within.
+     * @param found       The list of found places, or null for a new list.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param capacity    The maximum number of places to return.
+     * @return The list of places that match the criteria.
+     *         Time Complexity: O(s + log n + m), where s is the number of stripes
+     *         and m the number of points tested.
+     */
+    public ArrayList<Place> search(Rectangle range, ArrayList<Place> found, ServiceType serviceType, int capacity) {
+        if (found == null) {
+            found = new ArrayList<>(Math.min(capacity, INITIAL_RESULT_CAPACITY));
+        }
+        for (int stripe = 0; stripe < STRIPES.length && found.size() < capacity; stripe++) {
+            if (!range.isIntersects(STRIPES[stripe].BOUNDS)) {
+                continue; // Skip the lock of a stripe the search would not enter
+            }
+            LOCKS[stripe].readLock().lock();
+            try {
+                STRIPES[stripe].search(range, found, serviceType, capacity);
+            } finally {
+                LOCKS[stripe].readLock().unlock();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Counts the places within a specified range that offer a given service, as
+     * the sum of the counts of the stripes intersecting the range.
+     *
+     * @param range       The area to count within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @return The number of matching places.
+     *         Time Complexity: O(s + b * k), where s is the number of stripes, b
+     *         the number of quads crossing the edge of the range and k the number
+     *         of points per quad.
+     */
+    public int count(Rectangle range, ServiceType serviceType) {
+        int count = 0;
+        for (int stripe = 0; stripe < STRIPES.length; stripe++) {
+            if (!range.isIntersects(STRIPES[stripe].BOUNDS)) {
+                continue;
+            }
+            LOCKS[stripe].readLock().lock();
+            try {
+                count += STRIPES[stripe].count(range, serviceType);
+            } finally {
+                LOCKS[stripe].readLock().unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the k places closest to a point that offer a given service. Stripes
+     * are visited from the nearest to the farthest and the search stops once the
+     * next stripe is farther away than the k-th best place found so far.
+     *
+     * @param x           The x-coordinate of the point.
+     * @param y           The y-coordinate of the point.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param k           The maximum number of places to return.
+     * @return The closest places, ordered from nearest to farthest.
+     *         Time Complexity: O(s log s + v * (log n + k) log k), where s is the
+     *         number of stripes and v the number of stripes visited.
+     */
+    public ArrayList<Place> nearest(int x, int y, ServiceType serviceType, int k) {
+        if (k <= 0) {
+            return new ArrayList<>(1);
+        }
+        // Stripes are offered as if every service were in them; each stripe's own nearest filters its places
+        NearestSearch<Integer> search = new NearestSearch<>(x, y, 0, k, INITIAL_RESULT_CAPACITY);
+        for (int stripe = 0; stripe < STRIPES.length; stripe++) {
+            search.offerNode(stripe, STRIPES[stripe].BOUNDS, 0);
+        }
+        for (Integer stripe = search.nextNode(); stripe != null; stripe = search.nextNode()) {
+            ArrayList<Place> candidates;
+            LOCKS[stripe].readLock().lock();
+            try {
+                candidates = STRIPES[stripe].nearest(x, y, serviceType, k);
+            } finally {
+                LOCKS[stripe].readLock().unlock();
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                if (!search.offerPlace(candidates.get(i))) {
+                    break; // The candidates are ordered, so the rest are farther still
+                }
+            }
+        }
+        return search.result();
+    }
+}
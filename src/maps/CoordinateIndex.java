@@ -0,0 +1,276 @@
+package maps;
+
+/**
+ * An open-addressing hash table from a coordinate pair to the quad and slot that
+ * store the place at that coordinate. Keys are the coordinates packed into one
+ * long (x in the high half, y in the low half) and all entries live in parallel
+ * primitive arrays, so lookups never allocate or box.
+ * Collisions are resolved by linear probing and deletions shift the following
+ * entries back, so the table never holds tombstones.
+ * When several places share one coordinate, only one of them is indexed and its
+ * entry is flagged so that a removal knows to look for the others.
+ */
+final class CoordinateIndex {
+    private static final int INITIAL_CAPACITY = 16; // Initial number of table slots, a power of two
+    private static final int DUPLICATE = 1 << 31; // Flag in a slot value: other places share this coordinate
+    private long[] keys; // Packed coordinates of the entries
+    private Map2D[] quads; // Quad holding the place of each entry, or null for a free table slot
+    private int[] slots; // Slot of the place in its quad, possibly flagged as DUPLICATE
+    private int size; // Number of entries in the table
+
+    /**
+     * Constructs an empty index.
+     */
+    CoordinateIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Packs a coordinate pair into one key.
+     * @param x The x-coordinate.
+     * @param y The y-coordinate.
+     * @return The packed key.
+     * Time Complexity: O(1).
+     */
+    static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * Returns the number of coordinates in the index.
+     * @return The number of entries.
+     * Time Complexity: O(1).
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the table position of a coordinate.
+     * @param x The x-coordinate.
+     * @param y The y-coordinate.
+     * @return The position of the entry, or -1 if the coordinate is not indexed.
+     * Time Complexity: O(1) expected.
+     */
+    int find(int x, int y) {
+        long key = key(x, y);
+        int mask = keys.length - 1;
+        for (int position = hash(key) & mask; quads[position] != null; position = (position + 1) & mask) {
+            if (keys[position] == key) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the quad of the entry at a table position.
+     * @param position A position returned by find.
+     * @return The quad holding the place.
+     * Time Complexity: O(1).
+     */
+    Map2D quadAt(int position) {
+        return quads[position];
+    }
+
+    /**
+     * Returns the slot of the entry at a table position.
+     * @param position A position returned by find.
+     * @return The slot of the place in its quad.
+     * Time Complexity: O(1).
+     */
+    int slotAt(int position) {
+        return slots[position] & ~DUPLICATE;
+    }
+
+    /**
+     * Checks whether other places may share the coordinate of an entry.
+     * @param position A position returned by find.
+     * @return true if the entry is flagged as having duplicates.
+     * Time Complexity: O(1).
+     */
+    boolean hasDuplicatesAt(int position) {
+        return (slots[position] & DUPLICATE) != 0;
+    }
+
+    /**
+     * Indexes the place stored in a slot of a quad. If the coordinate is already
+     * indexed, the existing entry is kept and flagged as having duplicates.
+     * @param x    The x-coordinate of the place.
+     * @param y    The y-coordinate of the place.
+     * @param quad The quad holding the place.
+     * @param slot The slot of the place in the quad.
+     * Time Complexity: O(1) amortized.
+     */
+    void put(int x, int y, Map2D quad, int slot) {
+        if ((size + 1) * 4L > keys.length * 3L) {
+            resize(keys.length * 2);
+        }
+        long key = key(x, y);
+        int mask = keys.length - 1;
+        int position = hash(key) & mask;
+        while (quads[position] != null) {
+            if (keys[position] == key) {
+                slots[position] |= DUPLICATE;
+                return;
+            }
+            position = (position + 1) & mask;
+        }
+        keys[position] = key;
+        quads[position] = quad;
+        slots[position] = slot;
+        size++;
+    }
+
+    /**
+     * Flags the entry of a coordinate as having duplicates.
+     * @param x The x-coordinate.
+     * @param y The y-coordinate.
+     * Time Complexity: O(1) expected.
+     */
+    void markDuplicate(int x, int y) {
+        int position = find(x, y);
+        if (position >= 0) {
+            slots[position] |= DUPLICATE;
+        }
+    }
+
+    /**
+     * Records that a place moved to another slot of the same quad. Entries that
+     * refer to a different quad or slot (another place at the same coordinate)
+     * are left untouched.
+     * @param x    The x-coordinate of the place.
+     * @param y    The y-coordinate of the place.
+     * @param quad The quad holding the place.
+     * @param from The old slot of the place.
+     * @param to   The new slot of the place.
+     * Time Complexity: O(1) expected.
+     */
+    void move(int x, int y, Map2D quad, int from, int to) {
+        int position = find(x, y);
+        if (position >= 0 && quads[position] == quad && slotAt(position) == from) {
+            slots[position] = (slots[position] & DUPLICATE) | to;
+        }
+    }
+
+    /**
+     * Records that a place moved to another quad. Entries that refer to a
+     * different quad or slot are left untouched.
+     * @param x        The x-coordinate of the place.
+     * @param y        The y-coordinate of the place.
+     * @param fromQuad The old quad of the place.
+     * @param fromSlot The old slot of the place.
+     * @param toQuad   The new quad of the place.
+     * @param toSlot   The new slot of the place.
+     * Time Complexity: O(1) expected.
+     */
+    void move(int x, int y, Map2D fromQuad, int fromSlot, Map2D toQuad, int toSlot) {
+        int position = find(x, y);
+        if (position >= 0 && quads[position] == fromQuad && slotAt(position) == fromSlot) {
+            quads[position] = toQuad;
+            slots[position] = (slots[position] & DUPLICATE) | toSlot;
+        }
+    }
+
+    /**
+     * Removes the entry at a table position, shifting back the entries that
+     * probed past it.
+     * @param position A position returned by find.
+     * Time Complexity: O(1) expected.
+     */
+    void removeAt(int position) {
+        int mask = keys.length - 1;
+        int hole = position;
+        int next = (hole + 1) & mask;
+        while (quads[next] != null) {
+            int home = hash(keys[next]) & mask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                quads[hole] = quads[next];
+                slots[hole] = slots[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        quads[hole] = null;
+        size--;
+    }
+
+    /**
+     * Grows the table so that it can hold the given number of entries without
+     * resizing.
+     * @param expected The number of entries expected.
+     * Time Complexity: O(n) if the table grows.
+     */
+    void ensureCapacity(int expected) {
+        long needed = expected * 4L / 3 + 1;
+        int capacity = keys.length;
+        while (capacity < needed && capacity < (1 << 30)) {
+            capacity *= 2;
+        }
+        if (capacity > keys.length) {
+            resize(capacity);
+        }
+    }
+
+    /**
+     * Removes every entry.
+     * Time Complexity: O(c), where c is the table capacity.
+     */
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Replaces the table with empty arrays of the given capacity.
+     * @param capacity The number of table slots, a power of two.
+     * Time Complexity: O(capacity).
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        quads = new Map2D[capacity];
+        slots = new int[capacity];
+        size = 0;
+    }
+
+    /**
+     * Moves every entry into a table of the given capacity.
+     * @param capacity The new number of table slots, a power of two.
+     * Time Complexity: O(n + capacity).
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Map2D[] oldQuads = quads;
+        int[] oldSlots = slots;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldQuads[i] != null) {
+                int position = hash(oldKeys[i]) & mask;
+                while (quads[position] != null) {
+                    position = (position + 1) & mask;
+                }
+                keys[position] = oldKeys[i];
+                quads[position] = oldQuads[i];
+                slots[position] = oldSlots[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Scrambles a packed key so that nearby coordinates spread over the table.
+     * @param key The packed key.
+     * @return The hash of the key.
+     * Time Complexity: O(1).
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
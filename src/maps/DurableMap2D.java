@@ -0,0 +1,369 @@
+package maps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import enums.Durability;
+import enums.ServiceType;
+import models.Place;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * A Map2D whose changes survive a restart. The map lives in a directory holding
+ * a snapshot written by Map2D.save and a write-ahead log of every change made
+ * since that snapshot.
+ * Opening the directory loads the snapshot and replays the log on top of it.
+ * Every insert, removal or service update is appended to the log and then
+ * applied in memory, so a change the log refuses is never visible; how long the
+ * caller waits for the change to reach the disk depends on the durability
+ * level. A SYNC writer applies its change before waiting, so readers can see
+ * it for a moment before it is durable.
+ * If the log fails, the map in memory may hold a change that the disk does not,
+ * or one that the disk holds although the caller was told it failed, so the map
+ * stops: every later write, read or checkpoint is refused until the directory
+ * is opened again, which recovers exactly what the log holds.
+ * A checkpoint saves a new snapshot and empties the log,
+ * which keeps recovery short. The snapshot records the generation of the log it
+ * covers, so a log that a crash left behind after its snapshot was published is
+ * not replayed on top of it.
+ * All methods are synchronized, except that SYNC writers wait for the disk
+ * outside the lock, so concurrent writers share one forced write.
+ */
+public class DurableMap2D implements AutoCloseable {
+    private static final String SNAPSHOT_FILE = "map.bin"; // Name of the snapshot in the directory
+    private static final String LOG_FILE = "map.wal"; // Name of the write-ahead log in the directory
+    private final Path snapshotPath; // Snapshot of the map
+    private final Path logPath; // Log of the changes since the snapshot
+    private final Durability durability; // How long writers wait for the disk
+    private final Map2D map; // The map in memory, guarded by this
+    private final WriteAheadLog log; // Log of the changes since the snapshot
+    private IOException failure; // First error of the log, after which the map is refused; guarded by this
+
+    /**
+     * Constructs a durable map over a recovered map and an open log.
+     *
+     * @param directory  The directory holding the files of the map.
+     * @param map        The recovered map.
+     * @param log        The open log.
+     * @param durability How long writers wait for the disk.
+     */
+    private DurableMap2D(Path directory, Map2D map, WriteAheadLog log, Durability durability) {
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.logPath = directory.resolve(LOG_FILE);
+        this.map = map;
+        this.log = log;
+        this.durability = durability;
+    }
+
+    /**
+     * Opens the durable map stored in a directory, recovering every change
+     * logged before the last shutdown or crash. An empty or missing directory
+     * starts a new, empty map.
+     *
+     * @param directory  The directory holding the files of the map.
+     * @param bounds     The bounds of a new map; ignored if a snapshot exists.
+     * @param capacity   The capacity per quad of a new map; ignored if a
+     *                   snapshot exists.
+     * @param durability How long writers wait for the disk.
+     * @return The recovered map.
+     * @throws IOException If the files cannot be read or written.
+     *                     Time Complexity: O(n + r log n), where n is the number
+     *                     of places in the snapshot and r the number of logged
+     *                     changes.
+     */
+    public static DurableMap2D open(Path directory, Rectangle bounds, int capacity, Durability durability)
+            throws IOException {
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        Path logFile = directory.resolve(LOG_FILE);
+        Map2D map;
+        long covered = -1; // Last log generation the snapshot holds
+        if (Files.exists(snapshot)) {
+            covered = MapFile.readLogGeneration(snapshot);
+            map = Map2D.load(snapshot);
+        } else {
+            map = new Map2D(bounds, capacity);
+        }
+        long validBytes = WriteAheadLog.replay(logFile, map, covered);
+        WriteAheadLog log = new WriteAheadLog(logFile, validBytes, covered + 1, durability);
+        return new DurableMap2D(directory, map, log, durability);
+    }
+
+    /**
+     * Logs the insertion of a place and inserts it.
+     *
+     * @param place The place to insert.
+     * @return true if the place was inserted, false if it is out of bounds.
+     * @throws IOException If the log cannot be written, or could not be before;
+     *                     the map is then refused until it is opened again.
+     *                     Time Complexity: O(log n), plus one forced write for
+     *                     SYNC.
+     */
+    public boolean insert(Place place) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            if (!map.BOUNDS.isContains(place.x, place.y)) {
+                return false;
+            }
+            sequence = append(WriteAheadLog.INSERT, place.x, place.y, place.service);
+            map.insert(place);
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    /**
+     * Logs the removal of a place at a specified location and removes it.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return true if a place was removed, false otherwise.
+     * @throws IOException If the log cannot be written, or could not be before;
+     *                     the map is then refused until it is opened again.
+     *                     Time Complexity: O(d), plus one forced write for SYNC.
+     */
+    public boolean removePlace(int x, int y) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            if (map.INDEX.find(x, y) < 0) {
+                return false;
+            }
+            sequence = append(WriteAheadLog.REMOVE, x, y, 0);
+            map.remove(x, y);
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    /**
+     * Replaces the services of the place at a specified location and logs the
+     * change. This is the change made by an interactive edit.
+     *
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The new binary representation of the services.
+     * @return true if the place was found and updated, false otherwise.
+     * @throws IOException If the log cannot be written, or could not be before;
+     *                     the map is then refused until it is opened again.
+     *                     Time Complexity: O(d), plus one forced write for SYNC.
+     */
+    public boolean updateServices(int x, int y, int service) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            if (map.INDEX.find(x, y) < 0) {
+                return false;
+            }
+            sequence = append(WriteAheadLog.UPDATE, x, y, service);
+            map.updateServices(x, y, service);
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    /**
+     * Appends a change to the log, stopping the map if the log refuses it.
+     * The caller holds the lock of this map.
+     *
+     * @param operation The kind of change.
+     * @param x         The x-coordinate of the place.
+     * @param y         The y-coordinate of the place.
+     * @param service   The binary representation of the services, if any.
+     * @return The sequence number of the change.
+     * @throws IOException If the log cannot be written.
+     *                     Time Complexity: O(1) amortized.
+     */
+    private long append(int operation, int x, int y, int service) throws IOException {
+        try {
+            return log.append(operation, x, y, service);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a logged change to reach the disk if the durability level asks
+     * for it, stopping the map if it does not.
+     *
+     * @param sequence The sequence number of the change.
+     * @throws IOException If the log cannot be written.
+     *                     Time Complexity: O(1) plus one forced write for SYNC.
+     */
+    private void awaitDurable(long sequence) throws IOException {
+        if (durability == Durability.SYNC) {
+            try {
+                log.awaitDurable(sequence);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops the map after an error of the log, keeping the first one.
+     *
+     * @param e The error.
+     *          Time Complexity: O(1).
+     */
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Refuses a write or checkpoint once the log has failed. The caller holds
+     * the lock of this map.
+     *
+     * @throws IOException If the log has failed.
+     *                     Time Complexity: O(1).
+     */
+    private void checkWritable() throws IOException {
+        if (failure != null) {
+            throw new IOException("The map stopped after its log failed; open it again", failure);
+        }
+    }
+
+    /**
+     * Refuses a read once the log has failed, since the map in memory may no
+     * longer match the disk. The caller holds the lock of this map.
+     *
+     * @throws IllegalStateException If the log has failed.
+     *                               Time Complexity: O(1).
+     */
+    private void checkReadable() {
+        if (failure != null) {
+            throw new IllegalStateException("The map stopped after its log failed; open it again", failure);
+        }
+    }
+
+    /**
+     * Counts the places in the map.
+     *
+     * @return The number of places.
+     * @throws IllegalStateException If the map stopped after its log failed.
+     *                               Time Complexity: O(1).
+     */
+    public synchronized int countChildren() {
+        checkReadable();
+        return map.countChildren();
+    }
+
+    /**
+     * Searches for places within a specified range that match a given service
+     * type.
+     *
+     * @param range       The area to search within.
+     * @param found       The list of found places, or null for a new list.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param capacity    The maximum number of places to return.
+     * @return The list of places that match the criteria.
+     * @throws IllegalStateException If the map stopped after its log failed.
+     *                               Time Complexity: O(log n + m), as for Map2D.search.
+     */
+    public synchronized ArrayList<Place> search(Rectangle range, ArrayList<Place> found, ServiceType serviceType,
+            int capacity) {
+        checkReadable();
+        return map.search(range, found, serviceType, capacity);
+    }
+
+    /**
+     * Counts the places within a specified range that offer a given service.
+     *
+     * @param range       The area to count within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @return The number of matching places.
+     * @throws IllegalStateException If the map stopped after its log failed.
+     *                               Time Complexity: O(b * k), as for Map2D.count.
+     */
+    public synchronized int count(Rectangle range, ServiceType serviceType) {
+        checkReadable();
+        return map.count(range, serviceType);
+    }
+
+    /**
+     * Finds the k places closest to a point that offer a given service.
+     *
+     * @param x           The x-coordinate of the point.
+     * @param y           The y-coordinate of the point.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param k           The maximum number of places to return.
+     * @return The closest places, ordered from nearest to farthest.
+     * @throws IllegalStateException If the map stopped after its log failed.
+     *                               Time Complexity: O((m + k) log m), as for Map2D.nearest.
+     */
+    public synchronized ArrayList<Place> nearest(int x, int y, ServiceType serviceType, int k) {
+        checkReadable();
+        return map.nearest(x, y, serviceType, k);
+    }
+
+    /**
+     * Forces every logged change to disk, whatever the durability level.
+     *
+     * @throws IOException If the log cannot be written.
+     *                     Time Complexity: O(b) plus one forced write.
+     */
+    public void sync() throws IOException {
+        try {
+            log.sync();
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Saves a new snapshot of the map and empties the log. The snapshot is
+     * written to a temporary file and moved into place, so a crash before the
+     * move leaves the previous snapshot and the full log behind. The snapshot
+     * covers the current generation of the log, which is then restarted with
+     * the next one, so a crash after the move leaves a log that recovery skips.
+     *
+     * @throws IOException If the files cannot be written, or the map stopped
+     *                     after its log failed.
+     *                     Time Complexity: O(n + q), where n is the number of
+     *                     places and q the number of quads.
+     */
+    public synchronized void checkpoint() throws IOException {
+        checkWritable();
+        Path temporary = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try {
+            log.sync();
+            MapFile.save(map, temporary, log.generation());
+            Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.truncate();
+        } catch (IOException e) {
+            fail(e); // The snapshot and the log may no longer agree with the map
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the size of the log, which is the work left for recovery.
+     *
+     * @return The size of the logged changes in bytes, without the header
+     *         numbering the log.
+     * @throws IOException If the size cannot be read.
+     *                     Time Complexity: O(1).
+     */
+    public long logSize() throws IOException {
+        return Files.exists(logPath) ? Math.max(Files.size(logPath) - log.headerBytes(), 0) : 0;
+    }
+
+    /**
+     * Forces every logged change to disk and closes the log.
+     *
+     * @throws IOException If the log cannot be written.
+     *                     Time Complexity: O(b) plus one forced write.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
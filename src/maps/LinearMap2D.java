@@ -0,0 +1,498 @@
+package maps;
+
+import enums.ServiceType;
+import models.Place;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * A pointer-free quad-tree stored as flat arrays. The bounds are cut into a
+ * fixed grid of 2^LEVELS x 2^LEVELS cells, and every cell is named by its Morton
+ * code, which interleaves the bits of its column and row. The digits of a code,
+ * two bits per level, follow the quadrant order of Map2D (top-left, top-right,
+ * lower-left, lower-right), so the cells of any quad have consecutive codes and
+ * the bounds of a quad are computed from its code instead of being stored.
+ * The quads of every level form a complete quad-tree in heap order: the root is
+ * at 0 and the children of quad i are at 4i + 1 to 4i + 4. For each quad the
+ * tree keeps only the number of places below it and the union of their
+ * services, so the whole tree is two int arrays.
+ * Places are stored column-wise and grouped by cell in Morton order, with the
+ * cell of code c owning the slots from START[c] to START[c + 1]. Part of those
+ * slots are left free (slack), so an insert usually writes in place; when its
+ * cell is full, the neighbouring cells are shifted by one slot each towards the
+ * nearest free slot, and only when no slot is left is the layout rebuilt with
+ * new slack. A quad lying inside a search range is answered by scanning one
+ * contiguous run of slots.
+ */
+public class LinearMap2D {
+    private static final int MAX_LEVELS = 12; // Deepest grid allowed: 4096 x 4096 cells
+    private static final int SLACK_SHIFT = 2; // A rebuilt layout has a quarter of its places as free slots
+    private static final int MIN_SLACK = 64; // Fewest free slots left by a rebuilt layout
+    private static final int INITIAL_RESULT_CAPACITY = 16; // Initial length of a search result list
+    final Rectangle BOUNDS; // Spatial bounds of the map
+    final int LEVELS; // Number of times the bounds are split into quadrants to form the cells
+    private final int MIN_X, MIN_Y; // Smallest coordinates inside the bounds
+    private final int CELL_WIDTH, CELL_HEIGHT; // Size of a cell in coordinate units
+    private final int CELLS; // Number of cells, 4^LEVELS
+    private final int FIRST_CELL; // Position of the quad of the first cell in the heap arrays
+    private final int[] COUNTS; // Number of places under each quad, in heap order
+    private final int[] MASKS; // Union of the services of the places under each quad, in heap order
+    private final int[] START; // First slot of each cell; START[CELLS] is the number of slots
+    private int[] xs, ys, services; // Places grouped by cell, with free slots after each cell
+    private int size; // Total number of places
+
+    /**
+     * Constructs an empty map over a grid of the given depth.
+     *
+     * @param bounds The spatial bounds of the map.
+     * @param levels The number of times the bounds are split into quadrants;
+     *               the grid has 4^levels cells.
+     * @throws IllegalArgumentException If levels is outside 0 to 12.
+     */
+    public LinearMap2D(Rectangle bounds, int levels) {
+        if (levels < 0 || levels > MAX_LEVELS) {
+            throw new IllegalArgumentException("Levels must be between 0 and " + MAX_LEVELS + ": " + levels);
+        }
+        this.BOUNDS = bounds;
+        this.LEVELS = levels;
+        this.MIN_X = bounds.x - bounds.halfWidth;
+        this.MIN_Y = bounds.y - bounds.halfHeight;
+        long side = 1L << levels;
+        this.CELL_WIDTH = (int) Math.max(1, (2L * bounds.halfWidth + side) / side);
+        this.CELL_HEIGHT = (int) Math.max(1, (2L * bounds.halfHeight + side) / side);
+        this.CELLS = 1 << (2 * levels);
+        this.FIRST_CELL = (CELLS - 1) / 3;
+        this.COUNTS = new int[FIRST_CELL + CELLS];
+        this.MASKS = new int[FIRST_CELL + CELLS];
+        this.START = new int[CELLS + 1];
+        relayout(0);
+    }
+
+    /**
+     * Chooses the grid depth for an expected number of places, so that a cell
+     * holds about the given number of places.
+     *
+     * @param expectedPlaces The number of places expected.
+     * @param placesPerCell  The number of places wanted per cell.
+     * @return The number of levels, at most 12.
+     *         Time Complexity: O(1).
+     */
+    public static int levelsFor(int expectedPlaces, int placesPerCell) {
+        int levels = 0;
+        long cells = 1;
+        while (levels < MAX_LEVELS && cells * Math.max(1, placesPerCell) < expectedPlaces) {
+            levels++;
+            cells *= 4;
+        }
+        return levels;
+    }
+
+    /**
+     * Spreads the low 16 bits of a value to the even bits of the result.
+     *
+     * @param value The value to spread.
+     * @return The spread value.
+     *         Time Complexity: O(1).
+     */
+    private static int spread(int value) {
+        value &= 0xFFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        return (value | (value << 1)) & 0x55555555;
+    }
+
+    /**
+     * Gathers the even bits of a value into its low 16 bits; the inverse of
+     * spread.
+     *
+     * @param code The value to compact.
+     * @return The compacted value.
+     *         Time Complexity: O(1).
+     */
+    private static int compact(int code) {
+        code &= 0x55555555;
+        code = (code | (code >>> 1)) & 0x33333333;
+        code = (code | (code >>> 2)) & 0x0F0F0F0F;
+        code = (code | (code >>> 4)) & 0x00FF00FF;
+        return (code | (code >>> 8)) & 0x0000FFFF;
+    }
+
+    /**
+     * Computes the Morton code of the cell holding a point inside the bounds.
+     *
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The code of the cell.
+     *         Time Complexity: O(1).
+     */
+    private int cellOf(int x, int y) {
+        int column = (int) (((long) x - MIN_X) / CELL_WIDTH);
+        int row = (int) (((long) y - MIN_Y) / CELL_HEIGHT);
+        return spread(column) | (spread(row) << 1);
+    }
+
+    /**
+     * Returns the number of places in a cell.
+     *
+     * @param cell The code of the cell.
+     * @return The number of places.
+     *         Time Complexity: O(1).
+     */
+    private int countOf(int cell) {
+        return COUNTS[FIRST_CELL + cell];
+    }
+
+    /**
+     * Counts the places in the map.
+     *
+     * @return The number of places.
+     *         Time Complexity: O(1).
+     */
+    public int countChildren() {
+        return size;
+    }
+
+    /**
+     * Inserts a place into the map.
+     *
+     * @param place The place to insert.
+     * @return true if the place was inserted, false if it is out of bounds.
+     *         Time Complexity: O(LEVELS) amortized, plus the distance to the
+     *         nearest free slot when its cell is full.
+     */
+    public boolean insert(Place place) {
+        if (!BOUNDS.isContains(place.x, place.y)) {
+            return false;
+        }
+        int cell = cellOf(place.x, place.y);
+        openSlot(cell);
+        int slot = START[cell] + countOf(cell);
+        xs[slot] = place.x;
+        ys[slot] = place.y;
+        services[slot] = place.service;
+        for (int quad = FIRST_CELL + cell;; quad = (quad - 1) >> 2) {
+            COUNTS[quad]++;
+            MASKS[quad] |= place.service;
+            if (quad == 0) {
+                break;
+            }
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a place at a specified location.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return true if a place was removed, false otherwise.
+     *         Time Complexity: O(k + LEVELS), where k is the number of places in
+     *         the cell of the location.
+     */
+    public boolean removePlace(int x, int y) {
+        if (!BOUNDS.isContains(x, y)) {
+            return false;
+        }
+        int cell = cellOf(x, y);
+        int first = START[cell];
+        int last = first + countOf(cell) - 1;
+        for (int slot = first; slot <= last; slot++) {
+            if (xs[slot] == x && ys[slot] == y) {
+                // The order inside a cell does not matter, so the last place fills the gap
+                xs[slot] = xs[last];
+                ys[slot] = ys[last];
+                services[slot] = services[last];
+                removeFromQuads(cell);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Updates the counts and service unions on the path of a cell that lost a
+     * place.
+     *
+     * @param cell The code of the cell.
+     *             Time Complexity: O(k + LEVELS), where k is the number of places
+     *             in the cell.
+     */
+    private void removeFromQuads(int cell) {
+        int quad = FIRST_CELL + cell;
+        COUNTS[quad]--;
+        int mask = 0;
+        for (int slot = START[cell], end = slot + COUNTS[quad]; slot < end; slot++) {
+            mask |= services[slot];
+        }
+        MASKS[quad] = mask;
+        while (quad != 0) {
+            quad = (quad - 1) >> 2;
+            COUNTS[quad]--;
+            int child = 4 * quad + 1;
+            MASKS[quad] = MASKS[child] | MASKS[child + 1] | MASKS[child + 2] | MASKS[child + 3];
+        }
+    }
+
+    /**
+     * Makes sure that the slot after the last place of a cell is free, taking
+     * it from the nearest cell with a free slot or rebuilding the layout when
+     * there is none. Cells are searched outwards in both directions at once, so
+     * the fewest places are moved.
+     *
+     * @param cell The code of the cell.
+     *             Time Complexity: O(1) if the cell has a free slot, O(d) when
+     *             the nearest free slot is d cells away, O(n + CELLS) when the
+     *             layout is rebuilt.
+     */
+    private void openSlot(int cell) {
+        if (hasFreeSlot(cell)) {
+            return;
+        }
+        for (int distance = 1; cell + distance < CELLS || cell - distance >= 0; distance++) {
+            int right = cell + distance;
+            if (right < CELLS && hasFreeSlot(right)) {
+                // Move the first place of every cell in between to its end, one slot to the right
+                for (int k = right; k > cell; k--) {
+                    moveSlot(START[k], START[k] + countOf(k));
+                    START[k]++;
+                }
+                return;
+            }
+            int left = cell - distance;
+            if (left >= 0 && hasFreeSlot(left)) {
+                // Move the last place of every cell in between in front of its start, one slot to the left
+                for (int k = left + 1; k <= cell; k++) {
+                    moveSlot(START[k] + countOf(k) - 1, START[k] - 1);
+                    START[k]--;
+                }
+                return;
+            }
+        }
+        relayout(size + 1);
+        openSlot(cell);
+    }
+
+    /**
+     * Checks whether a cell has a free slot after its last place.
+     *
+     * @param cell The code of the cell.
+     * @return true if the cell has a free slot.
+     *         Time Complexity: O(1).
+     */
+    private boolean hasFreeSlot(int cell) {
+        return START[cell] + countOf(cell) < START[cell + 1];
+    }
+
+    /**
+     * Copies the place in one slot to another.
+     *
+     * @param from The slot to copy from.
+     * @param to   The slot to copy to.
+     *             Time Complexity: O(1).
+     */
+    private void moveSlot(int from, int to) {
+        xs[to] = xs[from];
+        ys[to] = ys[from];
+        services[to] = services[from];
+    }
+
+    /**
+     * Rebuilds the slot arrays with fresh slack, shared among the cells in
+     * proportion to their number of places (or evenly in an empty map).
+     *
+     * @param expected The number of places the layout must have room for.
+     *                 Time Complexity: O(n + CELLS), where n is the number of
+     *                 places.
+     */
+    private void relayout(int expected) {
+        long slack = Math.max(MIN_SLACK, expected >> SLACK_SHIFT);
+        int total = (int) Math.min(Integer.MAX_VALUE - 8, expected + slack);
+        slack = total - expected;
+        int[] newStart = new int[CELLS + 1];
+        long before = 0; // Places in the cells before the current one
+        for (int cell = 0; cell < CELLS; cell++) {
+            long share = size == 0 ? slack * cell / CELLS : slack * before / size;
+            newStart[cell] = (int) (before + share);
+            before += countOf(cell);
+        }
+        newStart[CELLS] = total;
+        int[] newXs = new int[total];
+        int[] newYs = new int[total];
+        int[] newServices = new int[total];
+        if (xs != null) {
+            for (int cell = 0; cell < CELLS; cell++) {
+                int count = countOf(cell);
+                System.arraycopy(xs, START[cell], newXs, newStart[cell], count);
+                System.arraycopy(ys, START[cell], newYs, newStart[cell], count);
+                System.arraycopy(services, START[cell], newServices, newStart[cell], count);
+            }
+        }
+        System.arraycopy(newStart, 0, START, 0, CELLS + 1);
+        xs = newXs;
+        ys = newYs;
+        services = newServices;
+    }
+
+    /**
+     * Loads a whole batch of places at once. When the map is empty, the places
+     * are grouped by cell with a counting sort and the quad summaries are built
+     * bottom-up in one pass. Otherwise the places are inserted one by one.
+     *
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The binary representation of the services of the places.
+     * @param count    The number of places to read from the arrays.
+     * @return The number of places that were loaded; places outside the bounds
+     *         are skipped.
+     *         Time Complexity: O(n + CELLS), where n is the number of places.
+     */
+    public int bulkLoad(int[] xs, int[] ys, int[] services, int count) {
+        if (size != 0) {
+            int loaded = 0;
+            for (int i = 0; i < count; i++) {
+                if (insert(new Place(services[i], xs[i], ys[i]))) {
+                    loaded++;
+                }
+            }
+            return loaded;
+        }
+        int[] cells = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (BOUNDS.isContains(xs[i], ys[i])) {
+                cells[i] = cellOf(xs[i], ys[i]);
+                COUNTS[FIRST_CELL + cells[i]]++;
+                size++;
+            } else {
+                cells[i] = -1;
+            }
+        }
+        this.xs = null; // Nothing to copy from the empty layout
+        relayout(size);
+        int[] next = new int[CELLS];
+        System.arraycopy(START, 0, next, 0, CELLS);
+        for (int i = 0; i < count; i++) {
+            int cell = cells[i];
+            if (cell >= 0) {
+                int slot = next[cell]++;
+                this.xs[slot] = xs[i];
+                this.ys[slot] = ys[i];
+                this.services[slot] = services[i];
+                MASKS[FIRST_CELL + cell] |= services[i];
+            }
+        }
+        for (int quad = FIRST_CELL - 1; quad >= 0; quad--) {
+            int child = 4 * quad + 1;
+            COUNTS[quad] = COUNTS[child] + COUNTS[child + 1] + COUNTS[child + 2] + COUNTS[child + 3];
+            MASKS[quad] = MASKS[child] | MASKS[child + 1] | MASKS[child + 2] | MASKS[child + 3];
+        }
+        return size;
+    }
+
+    /**
+     * Searches for places within a specified range that match a given service
+     * type.
+     *
+     * @param range       The area to search within.
+     * @param found       The list of found places, or null for a new list.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param capacity    The maximum number of places to return.
+     * @return The list of places that match the criteria.
+     *         Time Complexity: O(LEVELS * b + m), where b is the number of quads
+     *         crossing the border of the range and m the number of places
+     *         tested.
+     */
+    public ArrayList<Place> search(Rectangle range, ArrayList<Place> found, ServiceType serviceType, int capacity) {
+        if (found == null) {
+            found = new ArrayList<>(Math.max(0, Math.min(capacity, INITIAL_RESULT_CAPACITY)));
+        }
+        visit(range, serviceType == null ? 0 : serviceType.getBinaryValue(), found, capacity);
+        return found;
+    }
+
+    /**
+     * Counts the places within a specified range that offer a given service.
+     * Quads inside the range are counted from their summary without reading
+     * their places when no service is asked for.
+     *
+     * @param range       The area to count within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @return The number of matching places.
+     *         Time Complexity: O(LEVELS * b + m), as for search.
+     */
+    public int count(Rectangle range, ServiceType serviceType) {
+        return visit(range, serviceType == null ? 0 : serviceType.getBinaryValue(), null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Walks the quads that intersect a range depth-first with an explicit
+     * stack, in the quadrant order of Map2D, and either collects or counts the
+     * matching places.
+     *
+     * @param range      The area to search within.
+     * @param serviceBit The service bits a place must offer.
+     * @param found      The list to add the places to, or null to only count
+     *                   them.
+     * @param capacity   The maximum number of places to collect.
+     * @return The number of matching places seen.
+     *         Time Complexity: O(LEVELS * b + m), as for search.
+     */
+    private int visit(Rectangle range, int serviceBit, ArrayList<Place> found, int capacity) {
+        long minX = (long) range.x - range.halfWidth, maxX = (long) range.x + range.halfWidth;
+        long minY = (long) range.y - range.halfHeight, maxY = (long) range.y + range.halfHeight;
+        int[] quads = new int[3 * LEVELS + 1];
+        int[] levels = new int[quads.length];
+        int depth = 0;
+        quads[depth] = 0;
+        levels[depth++] = 0;
+        int matches = 0;
+        while (depth > 0 && (found == null || found.size() < capacity)) {
+            int quad = quads[--depth];
+            int level = levels[depth];
+            if (COUNTS[quad] == 0 || (MASKS[quad] & serviceBit) != serviceBit) {
+                continue; // No place under this quad can match
+            }
+            int code = quad - (((1 << (2 * level)) - 1) / 3);
+            int shift = LEVELS - level;
+            long quadMinX = MIN_X + ((long) compact(code) << shift) * CELL_WIDTH;
+            long quadMinY = MIN_Y + ((long) compact(code >>> 1) << shift) * CELL_HEIGHT;
+            long quadMaxX = quadMinX + ((long) CELL_WIDTH << shift) - 1;
+            long quadMaxY = quadMinY + ((long) CELL_HEIGHT << shift) - 1;
+            if (quadMaxX < minX || quadMinX > maxX || quadMaxY < minY || quadMinY > maxY) {
+                continue;
+            }
+            boolean inside = minX <= quadMinX && quadMaxX <= maxX && minY <= quadMinY && quadMaxY <= maxY;
+            if (inside && found == null && serviceBit == 0) {
+                matches += COUNTS[quad];
+            } else if (inside || level == LEVELS) {
+                // The cells of the quad are consecutive, so their places form one run of slots
+                int firstCell = code << (2 * shift);
+                int lastCell = firstCell + (1 << (2 * shift)) - 1;
+                for (int cell = firstCell; cell <= lastCell; cell++) {
+                    for (int slot = START[cell], end = slot + countOf(cell); slot < end; slot++) {
+                        if ((services[slot] & serviceBit) != serviceBit
+                                || (!inside && !range.isContains(xs[slot], ys[slot]))) {
+                            continue;
+                        }
+                        matches++;
+                        if (found != null) {
+                            found.insert(new Place(services[slot], xs[slot], ys[slot]));
+                            if (found.size() >= capacity) {
+                                return matches;
+                            }
+                        }
+                    }
+                }
+            } else {
+                // Pushed in reverse so that the top-left child is visited first
+                for (int child = 4 * quad + 4; child > 4 * quad; child--) {
+                    quads[depth] = child;
+                    levels[depth++] = level + 1;
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -1,8 +1,14 @@
 package maps;
 
-import utils.List;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.random.RandomGenerator;
+import enums.MatchMode;
 import enums.ServiceType;
 import gui.GUI;
 import models.Place;
@@ -15,33 +21,116 @@ import utils.Rectangle;
  * It supports operations such as insertion, search, edit, and removal of places
  * within a defined 2D space.
  * Each node of the quad-tree can either be a leaf node with a list of places or
- * an internal node with four children nodes.
+ * an internal node with four children nodes. Places are stored column-wise as
+ * parallel int arrays of x, y and service bits; Place objects are only created
+ * when results are handed back to the caller.
  * This structure is particularly useful for applications that require rapid
  * spatial searches such as maps and simulation systems.
  */
 public class Map2D {
-    private final int CAPACITY; // Maximum number of points per quad
-    public List<Place> points; // Points in this quad
-    private boolean isDivided; // Flag to check if the quad is already divided
-    private final Rectangle BOUNDS; // Spatial bounds of this quad
-    private Map2D topLeft, topRight, lowerLeft, lowerRight; // Children quads
+    private static final int INITIAL_POINT_CAPACITY = 16; // Starting length of the point arrays of a quad
+    private static final int SERVICE_TYPES = ServiceType.values().length; // Number of service types counted per quad
+    private static final int KNOWN_SERVICES = (1 << SERVICE_TYPES) - 1; // Bits of all known service types
+    static final int DEPTH_LIMIT = 32; // Quads stop splitting at 3 x 3 units, so int bounds never nest deeper
+    private static final int DEFAULT_BUCKET_SIZE = 64; // Points per quad before it splits, used by initialize
+    private static final int DEFAULT_MAX_DEPTH = 16; // Deepest level initialize lets quads split to
+    private static final int DEFAULT_MERGE_THRESHOLD = DEFAULT_BUCKET_SIZE / 4; // Subtree size initialize merges at
+    private static final int[] NO_POINTS = new int[0]; // Column arrays of quads whose points were pushed down
+    static final int SAMPLE_SIZE = 8; // Places kept per service type in the tile sample of every divided quad
+    private static final int ANY_ROW = SERVICE_TYPES; // Row of the tile sample drawn from every place
+    private static final int SAMPLE_ROWS = SERVICE_TYPES + 1; // One row per service type, plus the any-place row
+    final int CAPACITY; // Maximum number of points per quad
+    final int MAX_DEPTH; // Deepest level at which quads of this tree may still split
+    final int MERGE_THRESHOLD; // Divided quads whose subtree shrinks to this many places are merged back
+    final int DEPTH; // Level of this quad, 0 for the root
+    int[] xs, ys, services; // Points in this quad, stored column-wise (x, y, service bits)
+    int size; // Number of points in this quad
+    boolean isDivided; // Flag to check if the quad is already divided
+    final Rectangle BOUNDS; // Spatial bounds of this quad
+    Map2D topLeft, topRight, lowerLeft, lowerRight; // Children quads
+    final Map2D parent; // Parent quad, or null for the root
+    int subtreeServices; // OR of the service bits of every place in this quad and its children
+    int subtreeSize; // Number of places in this quad and its children
+    final int[] serviceCounts = new int[SERVICE_TYPES]; // Places offering each service type in this subtree
+    long[] sample; // Tile sample: per row, the packed coordinates of the lowest-priority places, or null if empty or a leaf
+    int[] sampleServices; // Service bits of each place of the tile sample
+    int[] sampleSizes; // Number of places in each row of the tile sample, allocated with it
+    final CoordinateIndex INDEX; // Index from coordinates to quad slots, shared by every quad of one tree
+    int modCount; // Number of changes made through this quad, checked by search cursors
+    private Map2DMetrics metrics; // Telemetry of the operations on this quad, or null when disabled
 
     /**
      * Constructor initializes the quad-tree with specified spatial bounds and
-     * capacity.
+     * capacity. Quads split whenever they are full, down to the smallest size
+     * that can still be divided, and never merge back.
      * 
      * @param BOUNDS   The spatial bounds of this quad.
      * @param CAPACITY The maximum number of points this quad can hold before
      *                 subdividing.
      */
     public Map2D(Rectangle bounds, int capacity) {
+        this(bounds, capacity, DEPTH_LIMIT, 0, null);
+    }
+
+    /**
+     * Constructs a quad-tree that adapts to the density of its places: a quad
+     * splits once it holds more than bucketSize places, as long as it is less
+     * than maxDepth levels deep, and a divided quad merges its subtree back into
+     * one quad when removals leave it with at most mergeThreshold places.
+     * Keeping the merge threshold below the bucket size stops a quad from
+     * splitting and merging again on every other change.
+     * 
+     * @param bounds         The spatial bounds of the tree.
+     * @param bucketSize     The number of places a quad holds before it splits.
+     * @param maxDepth       The deepest level at which quads may still split.
+     * @param mergeThreshold The subtree size at which a divided quad merges, or
+     *                       0 to never merge.
+     * @throws IllegalArgumentException If the bucket size is not positive, the
+     *                                  depth is out of range, or the merge
+     *                                  threshold is not below the bucket size.
+     */
+    public Map2D(Rectangle bounds, int bucketSize, int maxDepth, int mergeThreshold) {
+        this(bounds, bucketSize, maxDepth, mergeThreshold, null);
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("Bucket size must be positive: " + bucketSize);
+        }
+        if (maxDepth < 0 || maxDepth > DEPTH_LIMIT) {
+            throw new IllegalArgumentException("Max depth must be between 0 and " + DEPTH_LIMIT + ": " + maxDepth);
+        }
+        if (mergeThreshold < 0 || mergeThreshold >= bucketSize) {
+            throw new IllegalArgumentException(
+                    "Merge threshold must be between 0 and the bucket size: " + mergeThreshold);
+        }
+    }
+
+    /**
+     * Constructs a quad of a tree. A root quad creates the coordinate index of the
+     * tree; child quads share the index of their parent.
+     * 
+     * @param bounds         The spatial bounds of this quad.
+     * @param capacity       The maximum number of points this quad can hold
+     *                       before subdividing.
+     * @param maxDepth       The deepest level at which quads may still split.
+     * @param mergeThreshold The subtree size at which a divided quad merges.
+     * @param parent         The parent quad, or null for a root.
+     */
+    Map2D(Rectangle bounds, int capacity, int maxDepth, int mergeThreshold, Map2D parent) {
         this.BOUNDS = bounds;
         this.CAPACITY = capacity;
-        points = new ArrayList<>(capacity);
+        this.MAX_DEPTH = maxDepth;
+        this.MERGE_THRESHOLD = mergeThreshold;
+        this.parent = parent;
+        this.DEPTH = parent == null ? 0 : parent.DEPTH + 1;
+        this.INDEX = parent == null ? new CoordinateIndex() : parent.INDEX;
+        int initialLength = Math.min(capacity, INITIAL_POINT_CAPACITY);
+        xs = new int[initialLength];
+        ys = new int[initialLength];
+        services = new int[initialLength];
     }
 
     /**
-     * Initializes a quad-tree with a specified number of random places.
+     * Initializes a quad-tree with a specified number of random places, building
+     * it on every available processor.
      * 
      * @param numberOfPlace The number of places to generate and insert.
      * @return The initialized quad-tree.
@@ -49,18 +138,31 @@ public class Map2D {
      *         insertion in the tree.
      */
     public static Map2D initialize(int numberOfPlace) {
+        return initialize(numberOfPlace, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initializes a quad-tree with a specified number of random places.
+     * 
+     * @param numberOfPlace The number of places to generate and insert.
+     * @param parallelism   The number of worker threads used to build the tree.
+     * @return The initialized quad-tree.
+     *         Time Complexity: O(n log n / p) on p workers, where n is the number
+     *         of places.
+     */
+    public static Map2D initialize(int numberOfPlace, int parallelism) {
         // create a map size 10000000 x 10000000 (10 million)
         Rectangle boundary = new Rectangle(10000000 / 2, 10000000 / 2, 10000000, 10000000);
-        int desiredDepth = 4; //You can change this number (do at your own risk). We highly recommend the depth will around 4-6
-        Map2D qt = new Map2D(boundary, calculateIdealCapacity(numberOfPlace, desiredDepth));
+        // Quads split and merge with the local density of places instead of at a fixed depth
+        Map2D qt = new Map2D(boundary, DEFAULT_BUCKET_SIZE, DEFAULT_MAX_DEPTH, DEFAULT_MERGE_THRESHOLD);
         Runtime runtime = Runtime.getRuntime();
-        long startTime = System.currentTimeMillis();
-        qt.generateRandomData(numberOfPlace);
-        long endTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
+        qt.generateRandomData(numberOfPlace, parallelism);
+        long endTime = System.nanoTime();
         System.out.println("Initializing successfully!");
         System.out.println("Number of children: " + qt.countChildren());
         System.out.println("Depth of the tree (index-0): " + (qt.calculateDepth()-1));
-        System.out.println("Time taken for initializing: " + (endTime - startTime) + " ms");
+        System.out.println("Time taken for initializing: " + (endTime - startTime) / 1000000 + " ms");
         long memoryUsed = (runtime.totalMemory() - runtime.freeMemory()) / 1024 / 1024; // Convert to megabytes
         System.out.println("Memory Used: " + memoryUsed + " MB");
         return qt;
@@ -70,24 +172,43 @@ public class Map2D {
      * Counts the total number of children nodes in the quad-tree.
      * 
      * @return The total number of children nodes.
-     *         Time Complexity: O(n), where n is the number of nodes in the
-     *         quad-tree.
+     *         Time Complexity: O(1).
      */
     public int countChildren() {
-        int count = 0; // This node itself is not counted as a child
-        count += points.size();
-        // Recursively count children of each divided part
-        if (isDivided) {
-            if (topLeft != null)
-                count += topLeft.countChildren();
-            if (topRight != null)
-                count += topRight.countChildren();
-            if (lowerLeft != null)
-                count += lowerLeft.countChildren();
-            if (lowerRight != null)
-                count += lowerRight.countChildren();
+        return subtreeSize; // Kept up to date by every insert, removal and bulk load
+    }
+
+    /**
+     * Starts collecting latency histograms and search work for the operations
+     * called on this map. Metrics are off by default, and then cost one null
+     * check per operation.
+     * 
+     * @return The metrics, kept if they were already enabled.
+     *         Time Complexity: O(1).
+     */
+    public Map2DMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new Map2DMetrics();
         }
-        return count;
+        return metrics;
+    }
+
+    /**
+     * Stops collecting metrics and drops those collected so far.
+     * Time Complexity: O(1).
+     */
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    /**
+     * Returns the metrics collected for this map.
+     * 
+     * @return The metrics, or null if they are disabled.
+     *         Time Complexity: O(1).
+     */
+    public Map2DMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -99,43 +220,535 @@ public class Map2D {
      *         quad-tree.
      */
     public boolean insert(Place place) {
+        Map2DMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return insertPlace(place);
+        }
+        long start = System.nanoTime();
+        boolean inserted = insertPlace(place);
+        metrics.INSERTS.record(System.nanoTime() - start);
+        return inserted;
+    }
+
+    /**
+     * Inserts a place into the quad-tree, walking down from this quad.
+     * 
+     * @param place The place to insert.
+     * @return true if the place was successfully inserted, false otherwise.
+     *         Time Complexity: O(log n), where n is the number of nodes in the
+     *         quad-tree.
+     */
+    private boolean insertPlace(Place place) {
         Map2D current = this;
 
         while (current != null) {
-            if (!current.BOUNDS.isContains(place)) {
+            if (!current.BOUNDS.isContains(place.x, place.y)) {
                 return false; // The place is out of the bounds of this quad
             }
+            current.subtreeSize++;
+            current.countServices(place.service, 1);
 
             if (!current.isDivided) {
-                if (current.points.size() < current.CAPACITY) {
-                    current.points.insert(place);
+                if (current.size < current.CAPACITY || !current.canSubdivide()) {
+                    current.addPoint(place.x, place.y, place.service);
+                    modCount++;
                     return true;
                 } else {
                     // Subdivide the current node if it's at capacity and not already divided
                     current.subdivide();
                 }
             }
+            current.offerSample(place.x, place.y, place.service);
 
             // Navigate to the appropriate child node after subdivision or if already
             // divided
-            current = current.navigateToChild(place, current);
+            current = current.navigateToChild(place.x, place.y, current);
+        }
+        return false;
+    }
+
+    /**
+     * Appends a point to the column arrays of this quad, growing them if needed.
+     * 
+     * @param x       The x-coordinate of the point.
+     * @param y       The y-coordinate of the point.
+     * @param service The binary representation of the services at the point.
+     *                Time Complexity: O(1) amortized.
+     */
+    private void addPoint(int x, int y, int service) {
+        if (size == xs.length) {
+            grow();
+        }
+        xs[size] = x;
+        ys[size] = y;
+        services[size] = service;
+        INDEX.put(x, y, this, size);
+        size++;
+    }
+
+    /**
+     * Enlarges the full column arrays of this quad, doubling them up to the
+     * capacity and adding one slot at a time beyond it.
+     * Time Complexity: O(k), where k is the number of points in this quad.
+     */
+    private void grow() {
+        int newLength = Math.max(size + 1, Math.min(CAPACITY, Math.max(size * 2, INITIAL_POINT_CAPACITY)));
+        int[] newXs = new int[newLength];
+        int[] newYs = new int[newLength];
+        int[] newServices = new int[newLength];
+        System.arraycopy(xs, 0, newXs, 0, size);
+        System.arraycopy(ys, 0, newYs, 0, size);
+        System.arraycopy(services, 0, newServices, 0, size);
+        xs = newXs;
+        ys = newYs;
+        services = newServices;
+    }
+
+    /**
+     * Removes the point at the given slot by moving the last point of this quad
+     * into it, and records the move in the coordinate index.
+     * 
+     * @param index The slot of the point to remove.
+     *              Time Complexity: O(1).
+     */
+    private void removePointAt(int index) {
+        int last = --size;
+        if (index != last) {
+            xs[index] = xs[last];
+            ys[index] = ys[last];
+            services[index] = services[last];
+            INDEX.move(xs[index], ys[index], this, last, index);
+        }
+    }
+
+    /**
+     * Finds the slot of the point with the given coordinates in this quad.
+     * 
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The slot of the point, or -1 if this quad does not hold it.
+     *         Time Complexity: O(k), where k is the number of points in this quad.
+     */
+    private int indexOf(int x, int y) {
+        for (int i = 0; i < size; i++) {
+            if (xs[i] == x && ys[i] == y) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the quad holding the point with the given coordinates.
+     * 
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return The quad holding the point, or null if the tree does not hold it.
+     *         Time Complexity: O(log n + k), where k is the number of points in the
+     *         quads on the path.
+     */
+    private Map2D findQuad(int x, int y) {
+        Map2D current = this;
+        while (current != null) {
+            if (current.indexOf(x, y) >= 0) {
+                return current;
+            }
+            current = current.isDivided ? navigateToChild(x, y, current) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Recomputes the size, per-service counts, service summary and tile sample
+     * of this quad from its own points and the summaries of its children.
+     * Time Complexity: O(k), where k is the number of points in this quad.
+     */
+    void summarize() {
+        subtreeSize = size;
+        for (int ordinal = 0; ordinal < SERVICE_TYPES; ordinal++) {
+            serviceCounts[ordinal] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            for (int bits = services[i] & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+                serviceCounts[Integer.numberOfTrailingZeros(bits)]++;
+            }
+        }
+        if (isDivided) {
+            Map2D[] children = { topLeft, topRight, lowerLeft, lowerRight };
+            for (Map2D child : children) {
+                subtreeSize += child.subtreeSize;
+                for (int ordinal = 0; ordinal < SERVICE_TYPES; ordinal++) {
+                    serviceCounts[ordinal] += child.serviceCounts[ordinal];
+                }
+            }
+        }
+        subtreeServices = 0;
+        for (int ordinal = 0; ordinal < SERVICE_TYPES; ordinal++) {
+            if (serviceCounts[ordinal] > 0) {
+                subtreeServices |= 1 << ordinal;
+            }
+        }
+        resample();
+    }
+
+    /**
+     * Packs the coordinates of a place into one long, as kept by tile samples.
+     * 
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return The packed coordinates.
+     *         Time Complexity: O(1).
+     */
+    private static long packSample(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Derives the sampling priority of a place from its packed coordinates. The
+     * priorities look random but never change, so the places of a subtree with
+     * the lowest priorities are a uniform sample of it that both children and
+     * parents agree on.
+     * 
+     * @param key The packed coordinates.
+     * @return The priority; lower priorities are sampled first.
+     *         Time Complexity: O(1).
+     */
+    private static long samplePriority(long key) {
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+
+    /**
+     * Checks whether one place comes before another in a tile sample, by
+     * priority and then by coordinates.
+     * 
+     * @param key      The packed coordinates of the first place.
+     * @param priority The priority of the first place.
+     * @param other    The packed coordinates of the second place.
+     * @return true if the first place comes first.
+     *         Time Complexity: O(1).
+     */
+    private static boolean precedes(long key, long priority, long other) {
+        int order = Long.compare(priority, samplePriority(other));
+        return order < 0 || (order == 0 && key < other);
+    }
+
+    /**
+     * Offers a place to every row of the tile sample of this quad it belongs to:
+     * the any-place row and the row of each of its services.
+     * 
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The binary representation of the services of the place.
+     *                Time Complexity: O(s * SAMPLE_SIZE), where s is the number
+     *                of services.
+     */
+    private void offerSample(int x, int y, int service) {
+        long key = packSample(x, y);
+        long priority = samplePriority(key);
+        offerSample(ANY_ROW, key, priority, service);
+        for (int bits = service & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+            offerSample(Integer.numberOfTrailingZeros(bits), key, priority, service);
+        }
+    }
+
+    /**
+     * Offers a place to one row of the tile sample of this quad. The row stays
+     * sorted by priority and keeps the SAMPLE_SIZE first places.
+     * 
+     * @param row      The row of the sample.
+     * @param key      The packed coordinates of the place.
+     * @param priority The priority of the place.
+     * @param service  The binary representation of the services of the place.
+     *                 Time Complexity: O(SAMPLE_SIZE).
+     */
+    private void offerSample(int row, long key, long priority, int service) {
+        if (sample == null) {
+            sample = new long[SAMPLE_ROWS * SAMPLE_SIZE];
+            sampleServices = new int[SAMPLE_ROWS * SAMPLE_SIZE];
+            sampleSizes = new int[SAMPLE_ROWS];
+        }
+        sampleSizes[row] = offerToRow(sample, sampleServices, row * SAMPLE_SIZE, sampleSizes[row], key, priority,
+                service);
+    }
+
+    /**
+     * Offers a place to a row of sampled places. The row stays sorted by
+     * priority and keeps the SAMPLE_SIZE first places.
+     * 
+     * @param keys     The packed coordinates of the sampled places.
+     * @param services The service bits of the sampled places.
+     * @param first    The index of the first place of the row.
+     * @param count    The number of places in the row.
+     * @param key      The packed coordinates of the place.
+     * @param priority The priority of the place.
+     * @param service  The binary representation of the services of the place.
+     * @return The new number of places in the row.
+     *         Time Complexity: O(SAMPLE_SIZE).
+     */
+    private static int offerToRow(long[] keys, int[] services, int first, int count, long key, long priority,
+            int service) {
+        int end = first + count;
+        if (count == SAMPLE_SIZE) {
+            if (!precedes(key, priority, keys[end - 1])) {
+                return count; // Every place of the row comes first
+            }
+            end--;
+        } else {
+            count++;
+        }
+        while (end > first && precedes(key, priority, keys[end - 1])) {
+            keys[end] = keys[end - 1];
+            services[end] = services[end - 1];
+            end--;
+        }
+        keys[end] = key;
+        services[end] = service;
+        return count;
+    }
+
+    /**
+     * Checks whether a row of the tile sample of this quad holds a place.
+     * 
+     * @param row The row of the sample.
+     * @param key The packed coordinates of the place.
+     * @return true if the row holds the place.
+     *         Time Complexity: O(SAMPLE_SIZE).
+     */
+    private boolean sampleHolds(int row, long key) {
+        if (sample == null) {
+            return false;
+        }
+        for (int i = row * SAMPLE_SIZE, end = i + sampleSizes[row]; i < end; i++) {
+            if (sample[i] == key) {
+                return true;
+            }
         }
         return false;
     }
 
     /**
-     * Navigates to the appropriate child quad-tree based on the place's location.
+     * Checks whether the tile sample of this quad holds a place in any of the
+     * rows the place belongs to.
+     * 
+     * @param key     The packed coordinates of the place.
+     * @param service The binary representation of the services of the place.
+     * @return true if the sample holds the place.
+     *         Time Complexity: O(s * SAMPLE_SIZE), where s is the number of
+     *         services.
+     */
+    private boolean sampleHoldsAny(long key, int service) {
+        if (sampleHolds(ANY_ROW, key)) {
+            return true;
+        }
+        for (int bits = service & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+            if (sampleHolds(Integer.numberOfTrailingZeros(bits), key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the tile sample of this quad from its own points and the samples
+     * of its children. Since every child keeps the first places of its subtree,
+     * the first places of this subtree are always among them. A leaf keeps no
+     * sample, so the points of a leaf child are offered instead.
+     * Time Complexity: O((k + SAMPLE_ROWS * SAMPLE_SIZE) * SAMPLE_SIZE), where k
+     * is the number of points in this quad and its leaf children.
+     */
+    private void resample() {
+        if (!isDivided || subtreeSize == 0) {
+            sample = null;
+            sampleServices = null;
+            sampleSizes = null;
+            return;
+        }
+        if (sampleSizes != null) {
+            for (int row = 0; row < SAMPLE_ROWS; row++) {
+                sampleSizes[row] = 0;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            offerSample(xs[i], ys[i], services[i]);
+        }
+        Map2D[] children = { topLeft, topRight, lowerLeft, lowerRight };
+        for (Map2D child : children) {
+            if (!child.isDivided) {
+                for (int i = 0; i < child.size; i++) {
+                    offerSample(child.xs[i], child.ys[i], child.services[i]);
+                }
+            } else if (child.sample != null) {
+                for (int row = 0; row < SAMPLE_ROWS; row++) {
+                    for (int i = row * SAMPLE_SIZE, end = i + child.sampleSizes[row]; i < end; i++) {
+                        offerSample(row, child.sample[i], samplePriority(child.sample[i]), child.sampleServices[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes one row of the tile sample of this leaf from its points, since
+     * leaves hold few enough points not to keep a sample.
+     * 
+     * @param serviceBit  The service bit of the row, or 0 for the any-place row.
+     * @param keys        Receives the packed coordinates of the sampled places,
+     *                    by priority.
+     * @param rowServices Receives the service bits of the sampled places.
+     * @return The number of sampled places.
+     *         Time Complexity: O(k * SAMPLE_SIZE), where k is the number of points
+     *         in this quad.
+     */
+    private int sampleLeaf(int serviceBit, long[] keys, int[] rowServices) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if ((services[i] & serviceBit) == serviceBit) {
+                long key = packSample(xs[i], ys[i]);
+                count = offerToRow(keys, rowServices, 0, count, key, samplePriority(key), services[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds a delta to the counts of every service in a set, updating the service
+     * summary of this quad only.
+     * 
+     * @param service The binary representation of the services to count.
+     * @param delta   The amount to add to each count.
+     *                Time Complexity: O(s), where s is the number of services.
+     */
+    private void countServices(int service, int delta) {
+        for (int bits = service & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+            int ordinal = Integer.numberOfTrailingZeros(bits);
+            serviceCounts[ordinal] += delta;
+            if (serviceCounts[ordinal] > 0) {
+                subtreeServices |= 1 << ordinal;
+            } else {
+                subtreeServices &= ~(1 << ordinal);
+            }
+        }
+    }
+
+    /**
+     * Updates the services of the place at the given location.
+     * 
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The new binary representation of the services of the place.
+     * @return true if the place was found and updated, false otherwise.
+     *         Time Complexity: O(d), where d is the depth of the quad holding the
+     *         place; the place itself is found through the coordinate index.
+     */
+    public boolean updateServices(int x, int y, int service) {
+        Map2DMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        int position = INDEX.find(x, y);
+        if (position < 0) {
+            if (metrics != null) {
+                metrics.EDITS.record(System.nanoTime() - start);
+            }
+            return false;
+        }
+        INDEX.quadAt(position).setServicesAt(INDEX.slotAt(position), service);
+        modCount++;
+        if (metrics != null) {
+            metrics.EDITS.record(System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the services of the point in a slot of this quad and keeps the
+     * service counts of this quad and its ancestors up to date.
+     * 
+     * @param slot    The slot of the point.
+     * @param service The new binary representation of the services of the point.
+     *                Time Complexity: O(d), where d is the depth of this quad.
+     */
+    private void setServicesAt(int slot, int service) {
+        int previous = services[slot];
+        services[slot] = service;
+        long key = packSample(xs[slot], ys[slot]);
+        long priority = samplePriority(key);
+        for (Map2D quad = this; quad != null; quad = quad.parent) {
+            quad.countServices(previous, -1);
+            quad.countServices(service, 1);
+            if (quad.isDivided) {
+                quad.updateSample(key, priority, previous, service);
+            }
+        }
+    }
+
+    /**
+     * Updates the tile sample of this quad after a place changed its services.
+     * The sample is rebuilt if the place leaves a row it was sampled in, so the
+     * children must already be up to date; otherwise the services are updated
+     * in the rows that keep the place, and the place is offered to the rows of
+     * its new services.
+     * 
+     * @param key      The packed coordinates of the place.
+     * @param priority The priority of the place.
+     * @param previous The services the place offered before.
+     * @param service  The services the place offers from now on.
+     *                 Time Complexity: O(s * SAMPLE_SIZE), or as for resample
+     *                 when the sample is rebuilt.
+     */
+    private void updateSample(long key, long priority, int previous, int service) {
+        for (int bits = previous & ~service & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+            if (sampleHolds(Integer.numberOfTrailingZeros(bits), key)) {
+                resample();
+                return;
+            }
+        }
+        relabelSample(ANY_ROW, key, previous, service);
+        for (int bits = previous & service & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+            relabelSample(Integer.numberOfTrailingZeros(bits), key, previous, service);
+        }
+        for (int bits = service & ~previous & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+            offerSample(Integer.numberOfTrailingZeros(bits), key, priority, service);
+        }
+    }
+
+    /**
+     * Replaces the services of a place in one row of the tile sample of this
+     * quad, if the row holds it. Of places sharing the coordinates, the first
+     * one with the old services is changed.
+     * 
+     * @param row      The row of the sample.
+     * @param key      The packed coordinates of the place.
+     * @param previous The services the place offered before.
+     * @param service  The services the place offers from now on.
+     *                 Time Complexity: O(SAMPLE_SIZE).
+     */
+    private void relabelSample(int row, long key, int previous, int service) {
+        if (sample == null) {
+            return;
+        }
+        for (int i = row * SAMPLE_SIZE, end = i + sampleSizes[row]; i < end; i++) {
+            if (sample[i] == key && sampleServices[i] == previous) {
+                sampleServices[i] = service;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Navigates to the appropriate child quad-tree based on the point's location.
      * 
-     * @param place   The place used to determine the appropriate child.
+     * @param x       The x-coordinate used to determine the appropriate child.
+     * @param y       The y-coordinate used to determine the appropriate child.
      * @param current The current node from which to navigate.
-     * @return The child quad-tree that contains the place.
+     * @return The child quad-tree that contains the point.
      *         Time Complexity: O(1).
      */
-    private Map2D navigateToChild(Place place, Map2D current) {
-        double midX = current.BOUNDS.x;
-        double midY = current.BOUNDS.y;
-        boolean isLeft = place.x < midX;
-        boolean isTop = place.y < midY;
+    private Map2D navigateToChild(int x, int y, Map2D current) {
+        int midX = current.BOUNDS.x;
+        int midY = current.BOUNDS.y;
+        boolean isLeft = x < midX;
+        boolean isTop = y < midY;
 
         if (isLeft && isTop) {
             return current.topLeft;
@@ -149,23 +762,97 @@ public class Map2D {
     }
 
     /**
-     * Subdivides the current quad-tree node into four children.
-     * Time Complexity: O(1).
+     * Checks whether this quad may be split into smaller quads.
+     * Quads at the maximum depth of the tree, and quads of at most 3 x 3 units
+     * that cannot shrink any further, keep every point they receive, even beyond
+     * their capacity.
+     * 
+     * @return true if this quad is above the maximum depth and subdividing would
+     *         produce smaller quads.
+     *         Time Complexity: O(1).
+     */
+    boolean canSubdivide() {
+        return DEPTH < MAX_DEPTH && (BOUNDS.halfWidth > 1 || BOUNDS.halfHeight > 1);
+    }
+
+    /**
+     * Subdivides the current quad-tree node into four children and pushes its
+     * points down into them, so that only leaves hold points and a search scans
+     * no bucket of an internal quad on its way down. A child that receives more
+     * points than its capacity is subdivided in turn.
+     * The half sizes of the children are rounded up so that the children always
+     * cover the whole parent, even when its half width or height is odd.
+     * Time Complexity: O(k), where k is the number of points in this quad.
      */
     public void subdivide() {
         // This method assumes that it is being called on a node that needs to be
         // subdivided.
-        int halfWidth = BOUNDS.width / 2;
-        int halfHeight = BOUNDS.height / 2;
+        int quarterWidth = (BOUNDS.halfWidth + 1) / 2;
+        int quarterHeight = (BOUNDS.halfHeight + 1) / 2;
+        int childWidth = quarterWidth * 2;
+        int childHeight = quarterHeight * 2;
         topLeft = new Map2D(
-                new Rectangle(BOUNDS.x - halfWidth / 2, BOUNDS.y - halfHeight / 2, halfWidth, halfHeight), CAPACITY);
+                new Rectangle(BOUNDS.x - quarterWidth, BOUNDS.y - quarterHeight, childWidth, childHeight), CAPACITY,
+                MAX_DEPTH, MERGE_THRESHOLD, this);
         topRight = new Map2D(
-                new Rectangle(BOUNDS.x + halfWidth / 2, BOUNDS.y - halfHeight / 2, halfWidth, halfHeight), CAPACITY);
+                new Rectangle(BOUNDS.x + quarterWidth, BOUNDS.y - quarterHeight, childWidth, childHeight), CAPACITY,
+                MAX_DEPTH, MERGE_THRESHOLD, this);
         lowerLeft = new Map2D(
-                new Rectangle(BOUNDS.x - halfWidth / 2, BOUNDS.y + halfHeight / 2, halfWidth, halfHeight), CAPACITY);
+                new Rectangle(BOUNDS.x - quarterWidth, BOUNDS.y + quarterHeight, childWidth, childHeight), CAPACITY,
+                MAX_DEPTH, MERGE_THRESHOLD, this);
         lowerRight = new Map2D(
-                new Rectangle(BOUNDS.x + halfWidth / 2, BOUNDS.y + halfHeight / 2, halfWidth, halfHeight), CAPACITY);
+                new Rectangle(BOUNDS.x + quarterWidth, BOUNDS.y + quarterHeight, childWidth, childHeight), CAPACITY,
+                MAX_DEPTH, MERGE_THRESHOLD, this);
         isDivided = true;
+        if (size > 0) {
+            pushDown();
+        }
+        resample(); // The points are now in leaves, which keep no sample
+    }
+
+    /**
+     * Moves the points of this quad into its children, recording the moves in
+     * the coordinate index. The subtree summary of this quad does not change.
+     * Time Complexity: O(k), where k is the number of points in this quad.
+     */
+    private void pushDown() {
+        for (int i = 0; i < size; i++) {
+            Map2D child = navigateToChild(xs[i], ys[i], this);
+            child.appendMoved(xs[i], ys[i], services[i], this, i);
+        }
+        size = 0;
+        xs = NO_POINTS;
+        ys = NO_POINTS;
+        services = NO_POINTS;
+        Map2D[] children = { topLeft, topRight, lowerLeft, lowerRight };
+        for (Map2D child : children) {
+            child.summarize();
+            if (child.size > child.CAPACITY && child.canSubdivide()) {
+                child.subdivide();
+            }
+        }
+    }
+
+    /**
+     * Appends a point that moves here from another quad, growing the column
+     * arrays if needed, and records the move in the coordinate index.
+     * 
+     * @param x        The x-coordinate of the point.
+     * @param y        The y-coordinate of the point.
+     * @param service  The binary representation of the services at the point.
+     * @param fromQuad The quad the point moves from.
+     * @param fromSlot The slot of the point in that quad.
+     *                 Time Complexity: O(1) amortized.
+     */
+    private void appendMoved(int x, int y, int service, Map2D fromQuad, int fromSlot) {
+        if (size == xs.length) {
+            grow();
+        }
+        xs[size] = x;
+        ys[size] = y;
+        services[size] = service;
+        INDEX.move(x, y, fromQuad, fromSlot, this, size);
+        size++;
     }
 
     /**
@@ -180,57 +867,445 @@ public class Map2D {
      *         quad-tree.
      */
     public ArrayList<Place> search(Rectangle range, ArrayList<Place> found, ServiceType serviceType, int capacity) {
+        return search(range, found, serviceType, capacity, null);
+    }
+
+    /**
+     * Searches for places within a specified range that match a given service type,
+     * recording the work done in the given stats. The traversal stops as soon as
+     * the result list holds capacity places.
+     * 
+     * @param range       The area to search within.
+     * @param found       The list of found places.
+     * @param serviceType The service type to filter by.
+     * @param capacity    The maximum number of places to return.
+     * @param stats       The stats to add the visited quads and tested points to,
+     *                    or null.
+     * @return The list of places that match the criteria.
+     *         Time Complexity: O(log n + m), where m is the number of points
+     *         tested before the limit is reached.
+     */
+    public ArrayList<Place> search(Rectangle range, ArrayList<Place> found, ServiceType serviceType, int capacity,
+            SearchStats stats) {
+        if (found == null) {
+            found = new ArrayList<>(Math.min(capacity, INITIAL_POINT_CAPACITY));
+        }
+        int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+        runSearch(range, found, serviceBit, false, capacity, stats);
+        return found;
+    }
+
+    /**
+     * Searches for places within a specified range that match a combination of
+     * services in one traversal, e.g. restaurant AND ATM or hotel OR gas station.
+     * The mask is tested directly against the service bits of each place, and
+     * whole subtrees are skipped using their service summaries.
+     * 
+     * @param range       The area to search within.
+     * @param found       The list of found places, or null for a new list.
+     * @param serviceMask The binary representation of the services to match; 0
+     *                    matches every place.
+     * @param mode        ALL to require every service of the mask, ANY to
+     *                    require at least one.
+     * @param capacity    The maximum number of places to return.
+     * @return The list of places that match the criteria.
+     *         Time Complexity: O(log n + m), where m is the number of points
+     *         tested before the limit is reached.
+     */
+    public ArrayList<Place> search(Rectangle range, ArrayList<Place> found, int serviceMask, MatchMode mode,
+            int capacity) {
         if (found == null) {
-            found = new ArrayList<>(capacity);
+            found = new ArrayList<>(Math.min(capacity, INITIAL_POINT_CAPACITY));
+        }
+        runSearch(range, found, serviceMask, mode == MatchMode.ANY && serviceMask != 0, capacity, null);
+        return found;
+    }
+
+    /**
+     * Runs a range search from this quad, counting the search and its results
+     * in the given stats and, when metrics are enabled, timing it.
+     * 
+     * @param range       The area to search within.
+     * @param found       The list to add the found places to.
+     * @param serviceMask The binary representation of the services to match.
+     * @param matchAny    Whether one service of the mask is enough.
+     * @param capacity    The maximum number of places to return.
+     * @param stats       The stats to record the work in, or null.
+     *                    Time Complexity: O(log n + m), as for collect.
+     */
+    private void runSearch(Rectangle range, ArrayList<Place> found, int serviceMask, boolean matchAny, int capacity,
+            SearchStats stats) {
+        int before = found.size();
+        Map2DMetrics metrics = this.metrics;
+        if (metrics == null) {
+            collect(range, found, serviceMask, matchAny, capacity, stats);
+        } else {
+            SearchStats query = metrics.QUERY;
+            query.reset();
+            long start = System.nanoTime();
+            collect(range, found, serviceMask, matchAny, capacity, query);
+            metrics.recordSearch(range, System.nanoTime() - start, found.size() - before);
+            if (stats != null) {
+                stats.nodesVisited += query.nodesVisited;
+                stats.pointsTested += query.pointsTested;
+            }
         }
-        if (!range.isIntersects(this.BOUNDS)) {
-            return found;
+        if (stats != null) {
+            stats.searches++;
+            stats.placesReturned += found.size() - before;
         }
+    }
 
-        for (int i = 0; i < this.points.size(); i++) {
-            Place p = this.points.get(i);
-            if (range.isContains(p) && (serviceType == null || p.hasService(serviceType))
-                    && found.size() < capacity) {
-                found.insert(p);
+    /**
+     * Adds the matching places of this quad and its children to the result list
+     * until it holds capacity places.
+     * 
+     * @param range       The area to search within.
+     * @param found       The list of found places.
+     * @param serviceMask The service bits to match.
+     * @param matchAny    true if a place must offer any bit of the mask, false if
+     *                    it must offer every bit.
+     * @param capacity    The maximum number of places to return.
+     * @param stats       The stats to record the work in, or null.
+     *                    Time Complexity: O(m), where m is the number of points
+     *                    tested in this subtree.
+     */
+    private void collect(Rectangle range, ArrayList<Place> found, int serviceMask, boolean matchAny, int capacity,
+            SearchStats stats) {
+        int offered = subtreeServices & serviceMask;
+        if (found.size() >= capacity || (matchAny ? offered == 0 : offered != serviceMask)
+                || !range.isIntersects(this.BOUNDS)) {
+            return; // Full, no place in this subtree offers the services, or out of range
+        }
+
+        int[] xs = this.xs, ys = this.ys, services = this.services;
+        int tested = 0;
+        while (tested < this.size && found.size() < capacity) {
+            int i = tested++;
+            int matched = services[i] & serviceMask;
+            if ((matchAny ? matched != 0 : matched == serviceMask) && range.isContains(xs[i], ys[i])) {
+                found.insert(new Place(services[i], xs[i], ys[i]));
             }
         }
+        if (stats != null) {
+            stats.nodesVisited++;
+            stats.pointsTested += tested;
+        }
 
         if (this.isDivided) {
-            if (this.topLeft != null) {
-                this.topLeft.search(range, found, serviceType, capacity);
-            }
-            if (this.topRight != null) {
-                this.topRight.search(range, found, serviceType, capacity);
+            this.topLeft.collect(range, found, serviceMask, matchAny, capacity, stats);
+            this.topRight.collect(range, found, serviceMask, matchAny, capacity, stats);
+            this.lowerLeft.collect(range, found, serviceMask, matchAny, capacity, stats);
+            this.lowerRight.collect(range, found, serviceMask, matchAny, capacity, stats);
+        }
+    }
+
+    /**
+     * Runs many range searches in one traversal of the tree. Each quad is
+     * entered once for the whole batch, carrying down only the queries that are
+     * not yet full and whose range and service it can satisfy, and each point is
+     * tested against those queries while it is in cache.
+     * 
+     * @param ranges       The areas to search within, one per query.
+     * @param serviceTypes The service type of each query, or null for any place;
+     *                     a null array means any place for every query.
+     * @param k            The maximum number of places to return per query.
+     * @return The results of each query, in the order of ranges; each list holds
+     *         the same places as a separate search would return.
+     * @throws IllegalArgumentException If there are not as many service types as
+     *                                  ranges.
+     *                                  Time Complexity: O(v * q + m), where v is
+     *                                  the number of visited quads, q the number
+     *                                  of queries and m the number of point tests.
+     */
+    public ArrayList<ArrayList<Place>> searchBatch(Rectangle[] ranges, ServiceType[] serviceTypes, int k) {
+        if (serviceTypes != null && serviceTypes.length != ranges.length) {
+            throw new IllegalArgumentException(
+                    "Expected " + ranges.length + " service types but got " + serviceTypes.length);
+        }
+        int queries = ranges.length;
+        int[] serviceBits = new int[queries];
+        ArrayList<ArrayList<Place>> results = new ArrayList<>(queries);
+        int[] active = new int[queries];
+        for (int q = 0; q < queries; q++) {
+            ServiceType serviceType = serviceTypes == null ? null : serviceTypes[q];
+            serviceBits[q] = serviceType == null ? 0 : serviceType.getBinaryValue();
+            results.insert(new ArrayList<>(Math.max(0, Math.min(k, INITIAL_POINT_CAPACITY))));
+            active[q] = q;
+        }
+        int[][] scratch = new int[DEPTH_LIMIT + 1][];
+        collectBatch(ranges, serviceBits, results, k, active, queries, scratch, 0);
+        return results;
+    }
+
+    /**
+     * Adds the matching points of this subtree to every active query of a batch.
+     * 
+     * @param ranges      The areas of the queries.
+     * @param serviceBits The service bits each query requires.
+     * @param results     The result list of each query.
+     * @param k           The maximum number of places per query.
+     * @param active      The queries still active at the parent quad.
+     * @param activeCount The number of entries of active to read.
+     * @param scratch     One reusable buffer of query numbers per depth.
+     * @param depth       The depth of this quad below the batch root.
+     *                    Time Complexity: O(q + k * q) for this quad, where q is
+     *                    the number of active queries and k the points in it.
+     */
+    private void collectBatch(Rectangle[] ranges, int[] serviceBits, ArrayList<ArrayList<Place>> results, int k,
+            int[] active, int activeCount, int[][] scratch, int depth) {
+        if (scratch[depth] == null || scratch[depth].length < activeCount) {
+            scratch[depth] = new int[activeCount];
+        }
+        int[] here = scratch[depth];
+        int hereCount = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int q = active[i];
+            if (results.get(q).size() < k && (subtreeServices & serviceBits[q]) == serviceBits[q]
+                    && ranges[q].isIntersects(BOUNDS)) {
+                here[hereCount++] = q;
             }
-            if (this.lowerLeft != null) {
-                this.lowerLeft.search(range, found, serviceType, capacity);
+        }
+        if (hereCount == 0) {
+            return; // No query needs anything from this subtree
+        }
+
+        for (int p = 0; p < size; p++) {
+            int x = xs[p], y = ys[p], service = services[p];
+            for (int i = 0; i < hereCount; i++) {
+                int q = here[i];
+                if ((service & serviceBits[q]) == serviceBits[q] && ranges[q].isContains(x, y)) {
+                    ArrayList<Place> found = results.get(q);
+                    if (found.size() < k) {
+                        found.insert(new Place(service, x, y));
+                    }
+                }
             }
-            if (this.lowerRight != null) {
-                this.lowerRight.search(range, found, serviceType, capacity);
+        }
+
+        if (isDivided) {
+            topLeft.collectBatch(ranges, serviceBits, results, k, here, hereCount, scratch, depth + 1);
+            topRight.collectBatch(ranges, serviceBits, results, k, here, hereCount, scratch, depth + 1);
+            lowerLeft.collectBatch(ranges, serviceBits, results, k, here, hereCount, scratch, depth + 1);
+            lowerRight.collectBatch(ranges, serviceBits, results, k, here, hereCount, scratch, depth + 1);
+        }
+    }
+
+    /**
+     * Opens a cursor that streams the places within a specified range that match
+     * a given service type, walking the tree only as far as the caller reads.
+     * 
+     * @param range       The area to search within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @return A cursor at the first matching place.
+     *         Time Complexity: O(1); each step costs the points it tests.
+     */
+    public SearchCursor cursor(Rectangle range, ServiceType serviceType) {
+        return cursor(range, serviceType, null);
+    }
+
+    /**
+     * Opens a cursor that continues a search from a page token, without walking
+     * the part of the tree already read.
+     * 
+     * @param range       The area to search within, as for the original search.
+     * @param serviceType The service type to filter by, as for the original
+     *                    search.
+     * @param pageToken   A token returned by SearchCursor.pageToken, or null to
+     *                    start from the beginning.
+     * @return A cursor at the first place after the token.
+     * @throws IllegalArgumentException If the token is malformed or names a quad
+     *                                  that no longer exists.
+     *                                  Time Complexity: O(d), where d is the depth
+     *                                  named by the token.
+     */
+    public SearchCursor cursor(Rectangle range, ServiceType serviceType, String pageToken) {
+        int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+        return new SearchCursor(this, range, serviceBit, pageToken);
+    }
+
+    /**
+     * Counts the places within a specified range that offer a given service.
+     * Quads lying fully inside the range contribute their stored counts directly;
+     * only quads crossing the edge of the range have their points scanned.
+     * 
+     * @param range       The area to count within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @return The number of matching places.
+     *         Time Complexity: O(b * k), where b is the number of quads crossing
+     *         the edge of the range and k the number of points per quad.
+     */
+    public int count(Rectangle range, ServiceType serviceType) {
+        int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+        if ((subtreeServices & serviceBit) != serviceBit || !range.isIntersects(BOUNDS)) {
+            return 0;
+        }
+        if (range.isContains(BOUNDS)) {
+            return serviceType == null ? subtreeSize : serviceCounts[Integer.numberOfTrailingZeros(serviceBit)];
+        }
+        int count = countPoints(range, xs, ys, services, size, serviceBit);
+        if (isDivided) {
+            count += topLeft.count(range, serviceType) + topRight.count(range, serviceType)
+                    + lowerLeft.count(range, serviceType) + lowerRight.count(range, serviceType);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the points within a range that offer the given services, for a
+     * quad of this tree or a node of a SnapshotMap2D.
+     *
+     * @param range      The area to count within.
+     * @param xs         The x-coordinates of the points.
+     * @param ys         The y-coordinates of the points.
+     * @param services   The services of the points.
+     * @param count      The number of points.
+     * @param serviceBit The service bits a point must offer.
+     * @return The number of matching points.
+     *         Time Complexity: O(c), where c is the number of points.
+     */
+    static int countPoints(Rectangle range, int[] xs, int[] ys, int[] services, int count, int serviceBit) {
+        int matching = 0;
+        for (int i = 0; i < count; i++) {
+            if (range.isContains(xs[i], ys[i]) && (services[i] & serviceBit) == serviceBit) {
+                matching++;
             }
-            return found;
         }
+        return matching;
+    }
 
+    /**
+     * Returns a preview of the places within a range for a zoomed-out view,
+     * read from the tile pyramid formed by the quads: the range is covered by
+     * the quads at the given zoom level, or by shallower leaves, and each of
+     * them contributes the places of its tile sample that lie within the range.
+     * Every divided quad keeps a sample of up to SAMPLE_SIZE places per service
+     * type, drawn uniformly from its whole subtree and kept up to date by every
+     * change, so no point below the zoom level is read. A leaf, which holds at
+     * most CAPACITY points, computes the same sample from its points.
+     * 
+     * @param range       The area of the view.
+     * @param serviceType The service type to show, or null for any place.
+     * @param zoom        The depth of the quads acting as tiles; 0 reads only
+     *                    the root.
+     * @return At most SAMPLE_SIZE places per tile.
+     *         Time Complexity: O(t * SAMPLE_SIZE), where t is the number of tiles
+     *         and of quads above them that meet the range, plus
+     *         O(CAPACITY * SAMPLE_SIZE) per leaf tile.
+     */
+    public ArrayList<Place> sample(Rectangle range, ServiceType serviceType, int zoom) {
+        ArrayList<Place> found = new ArrayList<>(INITIAL_POINT_CAPACITY);
+        int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+        int row = serviceType == null ? ANY_ROW : Integer.numberOfTrailingZeros(serviceBit);
+        collectSample(range, serviceBit, row, zoom, found, new long[SAMPLE_SIZE], new int[SAMPLE_SIZE]);
         return found;
     }
 
+    /**
+     * Adds the sampled places of the tiles of this subtree that meet a range to
+     * a result list.
+     * 
+     * @param range           The area of the view.
+     * @param serviceBit      The service bit to match, or 0 for any place.
+     * @param row             The row of the tile samples to read.
+     * @param zoom            The depth of the quads acting as tiles.
+     * @param found           The list of found places.
+     * @param scratchKeys     Scratch row for the sample of a leaf, of
+     *                        SAMPLE_SIZE places.
+     * @param scratchServices Scratch service bits for the sample of a leaf.
+     *                        Time Complexity: O(t * SAMPLE_SIZE), as for
+     *                        sample.
+     */
+    private void collectSample(Rectangle range, int serviceBit, int row, int zoom, ArrayList<Place> found,
+            long[] scratchKeys, int[] scratchServices) {
+        if (subtreeSize == 0 || (subtreeServices & serviceBit) != serviceBit || !range.isIntersects(BOUNDS)) {
+            return;
+        }
+        if (isDivided && DEPTH < zoom) {
+            topLeft.collectSample(range, serviceBit, row, zoom, found, scratchKeys, scratchServices);
+            topRight.collectSample(range, serviceBit, row, zoom, found, scratchKeys, scratchServices);
+            lowerLeft.collectSample(range, serviceBit, row, zoom, found, scratchKeys, scratchServices);
+            lowerRight.collectSample(range, serviceBit, row, zoom, found, scratchKeys, scratchServices);
+            return;
+        }
+        long[] rowKeys = sample;
+        int[] rowServices = sampleServices;
+        int first = row * SAMPLE_SIZE;
+        int count;
+        if (isDivided) {
+            count = sampleSizes[row];
+        } else {
+            rowKeys = scratchKeys;
+            rowServices = scratchServices;
+            first = 0;
+            count = sampleLeaf(serviceBit, scratchKeys, scratchServices);
+        }
+        for (int i = first, end = first + count; i < end; i++) {
+            int x = (int) (rowKeys[i] >> 32);
+            int y = (int) rowKeys[i];
+            if (range.isContains(x, y)) {
+                found.insert(new Place(rowServices[i], x, y));
+            }
+        }
+    }
+
+    /**
+     * Finds the k places closest to a point by Euclidean distance that offer a
+     * given service. Quads are visited best-first, ordered by the distance from
+     * the point to their bounds, and the search stops as soon as the closest
+     * unvisited quad is farther away than the k-th best place found so far.
+     * 
+     * @param x           The x-coordinate of the point.
+     * @param y           The y-coordinate of the point.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param k           The maximum number of places to return.
+     * @return The closest places, ordered from nearest to farthest.
+     *         Time Complexity: O((m + k) log m) for m visited quads; well-spread
+     *         data visits O(log n + k) quads.
+     */
+    public ArrayList<Place> nearest(int x, int y, ServiceType serviceType, int k) {
+        if (k <= 0) {
+            return new ArrayList<>(1);
+        }
+        int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+        NearestSearch<Map2D> search = new NearestSearch<>(x, y, serviceBit, k, subtreeSize);
+        search.offerNode(this, BOUNDS, subtreeServices);
+        for (Map2D quad = search.nextNode(); quad != null; quad = search.nextNode()) {
+            search.offerPoints(quad.xs, quad.ys, quad.services, quad.size);
+            if (quad.isDivided) {
+                search.offerNode(quad.topLeft, quad.topLeft.BOUNDS, quad.topLeft.subtreeServices);
+                search.offerNode(quad.topRight, quad.topRight.BOUNDS, quad.topRight.subtreeServices);
+                search.offerNode(quad.lowerLeft, quad.lowerLeft.BOUNDS, quad.lowerLeft.subtreeServices);
+                search.offerNode(quad.lowerRight, quad.lowerRight.BOUNDS, quad.lowerRight.subtreeServices);
+            }
+        }
+        return search.result();
+    }
+
     /**
      * Edits a place at a specified location.
      * 
      * @param x The x-coordinate of the place.
      * @param y The y-coordinate of the place.
      * @return The edited place, or null if no place was found.
-     *         Time Complexity: O(log n + k), where n is the number of nodes and k
-     *         is the number of operations to edit the place.
+     *         Time Complexity: O(d + k), where d is the depth of the quad holding
+     *         the place and k is the number of operations to edit the place.
      */
     public Place editPLace(int x, int y) {
-        ArrayList<Place> foundPlaces = search(new Rectangle(x, y, 0, 0), null, null, 1);
-        if (foundPlaces.size() == 0) {
+        Map2DMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        int position = INDEX.find(x, y);
+        if (position < 0) {
+            if (metrics != null) {
+                metrics.EDITS.record(System.nanoTime() - start);
+            }
             System.out.println("No place found!");
             return null;
         }
+        Map2D current = INDEX.quadAt(position);
+        int slot = INDEX.slotAt(position);
         Scanner sc = new Scanner(System.in);
-        Place placeToEdit = foundPlaces.get(0);
+        Place placeToEdit = new Place(current.services[slot], current.xs[slot], current.ys[slot]);
         System.out.println(placeToEdit);
         GUI.printLineSeparator();
         System.out.println("1. Add service");
@@ -265,6 +1340,13 @@ public class Map2D {
             default:
                 break;
         }
+        // Time only the write-back, not the time spent at the prompt
+        start = metrics == null ? 0 : System.nanoTime();
+        current.setServicesAt(slot, placeToEdit.service); // Write the edited services back to the quad
+        modCount++;
+        if (metrics != null) {
+            metrics.EDITS.record(System.nanoTime() - start);
+        }
         return placeToEdit;
     }
 
@@ -274,39 +1356,323 @@ public class Map2D {
      * @param x The x-coordinate of the place.
      * @param y The y-coordinate of the place.
      * @return true if the place was successfully removed, false otherwise.
-     *         Time Complexity: O(log n), where n is the number of nodes in the
-     *         quad-tree.
+     *         Time Complexity: O(d), where d is the depth of the quad holding the
+     *         place; the place itself is found through the coordinate index.
      */
     public boolean removePlace(int x, int y) {
-        // Check if the current node's bounds contain the point
-        Map2D current = this;
-        Place placeToRemove = null;
+        Place removed = remove(x, y);
+        if (removed == null) {
+            return false;
+        }
+        System.out.println("Removing place: " + removed);
+        return true;
+    }
 
-        // Traverse down the tree to find and remove the place in one go
-        while (current != null) {
-            for (int i = 0; i < current.points.size(); i++) {
-                if (current.points.get(i).compare(x, y)) {
-                    placeToRemove = current.points.get(i);
-                    break;
-                }
-            }
+    /**
+     * Removes a place at a specified location without reporting it. If the
+     * removal leaves a divided quad with at most MERGE_THRESHOLD places in its
+     * subtree, the highest such quad on the path is merged back into a leaf.
+     * 
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return The removed place, or null if there is no place at the location.
+     *         Time Complexity: O(d), where d is the depth of the quad holding the
+     *         place, plus O(MERGE_THRESHOLD) when a subtree is merged.
+     */
+    public Place remove(int x, int y) {
+        Map2DMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return removeIndexed(x, y);
+        }
+        long start = System.nanoTime();
+        Place removed = removeIndexed(x, y);
+        metrics.REMOVALS.record(System.nanoTime() - start);
+        return removed;
+    }
 
-            if (placeToRemove != null) {
-                if (current.points.remove(placeToRemove)) {
-                    System.out.println("Removing place: " + placeToRemove);
-                    return true;
+    /**
+     * Removes a place found through the coordinate index, merging a sparse
+     * subtree on its path as described for remove.
+     * 
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return The removed place, or null if there is no place at the location.
+     *         Time Complexity: O(d), plus O(MERGE_THRESHOLD) when a subtree is
+     *         merged.
+     */
+    private Place removeIndexed(int x, int y) {
+        // Look the place up in the coordinate index instead of walking the tree
+        int position = INDEX.find(x, y);
+        if (position < 0) {
+            return null;
+        }
+        Map2D current = INDEX.quadAt(position);
+        int index = INDEX.slotAt(position);
+        boolean hasDuplicates = INDEX.hasDuplicatesAt(position);
+        INDEX.removeAt(position);
+
+        Place placeToRemove = new Place(current.services[index], x, y);
+        current.removePointAt(index);
+        for (Map2D quad = current; quad != null; quad = quad.parent) {
+            quad.subtreeSize--;
+            quad.countServices(placeToRemove.service, -1);
+        }
+        // A quad that did not sample the place has no ancestor that did; the leaf keeps no sample
+        long key = packSample(x, y);
+        for (Map2D quad = current.isDivided ? current : current.parent;
+                quad != null && quad.sampleHoldsAny(key, placeToRemove.service);
+                quad = quad.parent) {
+            quad.resample();
+        }
+        if (hasDuplicates) {
+            // Another place shares this coordinate: find it the slow way and index it instead
+            Map2D other = findQuad(x, y);
+            if (other != null) {
+                INDEX.put(x, y, other, other.indexOf(x, y));
+                INDEX.markDuplicate(x, y);
+            }
+        }
+        if (MERGE_THRESHOLD > 0) {
+            // Merge the largest subtree on the path that has become sparse enough
+            Map2D sparsest = null;
+            for (Map2D quad = current; quad != null; quad = quad.parent) {
+                if (quad.isDivided && quad.subtreeSize <= MERGE_THRESHOLD) {
+                    sparsest = quad;
                 }
             }
+            if (sparsest != null) {
+                sparsest.merge();
+            }
+        }
+        modCount++;
+        return placeToRemove;
+    }
 
-            if (current.isDivided) {
-                current = navigateToChild(new Place(0, x, y), current); // Navigate using a dummy place
-            } else {
-                break; // Stop if not divided
+    /**
+     * Moves every point of the subtree of this quad into this quad and drops its
+     * children, turning it back into a leaf. The subtree summary does not change.
+     * Time Complexity: O(m), where m is the number of places in the subtree.
+     */
+    private void merge() {
+        int[] newXs = new int[Math.max(subtreeSize, size)];
+        int[] newYs = new int[newXs.length];
+        int[] newServices = new int[newXs.length];
+        System.arraycopy(xs, 0, newXs, 0, size);
+        System.arraycopy(ys, 0, newYs, 0, size);
+        System.arraycopy(services, 0, newServices, 0, size);
+        xs = newXs;
+        ys = newYs;
+        services = newServices;
+        absorb(topLeft);
+        absorb(topRight);
+        absorb(lowerLeft);
+        absorb(lowerRight);
+        topLeft = null;
+        topRight = null;
+        lowerLeft = null;
+        lowerRight = null;
+        isDivided = false;
+        sample = null; // A leaf computes its sample from its points
+        sampleServices = null;
+        sampleSizes = null;
+    }
+
+    /**
+     * Appends the points of a quad and of its descendants to this quad, which
+     * must have room for them, and records the moves in the coordinate index.
+     * 
+     * @param quad The quad whose points are moved.
+     *             Time Complexity: O(m), where m is the number of places in the
+     *             subtree of the quad.
+     */
+    private void absorb(Map2D quad) {
+        for (int i = 0; i < quad.size; i++) {
+            xs[size] = quad.xs[i];
+            ys[size] = quad.ys[i];
+            services[size] = quad.services[i];
+            INDEX.move(xs[size], ys[size], quad, i, this, size);
+            size++;
+        }
+        if (quad.isDivided) {
+            absorb(quad.topLeft);
+            absorb(quad.topRight);
+            absorb(quad.lowerLeft);
+            absorb(quad.lowerRight);
+        }
+    }
+
+    /**
+     * Loads a whole batch of places at once.
+     * When this quad is empty, the batch is sorted along a Z-order curve and the
+     * tree is built bottom-up in one pass, with every leaf packed from one
+     * contiguous run of the sorted batch. Otherwise the places are inserted one by
+     * one.
+     *
+     * @param xs       The x-coordinates of the places.
+     * @param ys       The y-coordinates of the places.
+     * @param services The binary representation of the services of the places.
+     * @param count    The number of places to read from the arrays.
+     * @return The number of places that were loaded; places outside the bounds
+     *         are skipped.
+     *         Time Complexity: O(n log n), where n is the number of places.
+     */
+    public int bulkLoad(int[] xs, int[] ys, int[] services, int count) {
+        return bulkLoad(xs, ys, services, count, 1);
+    }
+
+    /**
+     * Loads a whole batch of places at once, building the tree with a fork-join
+     * pool. The batch is partitioned by quadrant and every large subtree is built
+     * by its own task.
+     *
+     * @param xs          The x-coordinates of the places.
+     * @param ys          The y-coordinates of the places.
+     * @param services    The binary representation of the services of the places.
+     * @param count       The number of places to read from the arrays.
+     * @param parallelism The number of worker threads; 1 or less loads on the
+     *                    calling thread.
+     * @return The number of places that were loaded.
+     *         Time Complexity: O(n log n / p) on p workers, where n is the number
+     *         of places.
+     */
+    public int bulkLoad(int[] xs, int[] ys, int[] services, int count, int parallelism) {
+        if (size == 0 && !isDivided) {
+            modCount++;
+            int loaded = BulkLoader.load(this, xs, ys, services, count, parallelism);
+            INDEX.ensureCapacity(INDEX.size() + loaded);
+            indexPoints();
+            return loaded;
+        }
+        int loaded = 0;
+        for (int i = 0; i < count; i++) {
+            if (insert(new Place(services[i], xs[i], ys[i]))) {
+                loaded++;
             }
         }
-        return false;
+        return loaded;
+    }
+
+    /**
+     * Rebuilds the whole tree in place from the places it holds, with the same
+     * bottom-up pass as bulkLoad. Afterwards only leaves hold points and every
+     * leaf is packed from one run of places, however unevenly the tree grew:
+     * quads emptied by removals disappear, and places left in internal quads by
+     * older files are pushed down. Cursors and page tokens taken before the
+     * rebuild are no longer valid.
+     * 
+     * @throws IllegalStateException If this quad is not the root of its tree.
+     *                               Time Complexity: O(n log n), where n is the
+     *                               number of places.
+     */
+    public void rebalance() {
+        if (parent != null) {
+            throw new IllegalStateException("Only the root of a tree can be rebalanced");
+        }
+        int count = subtreeSize;
+        int[] allXs = new int[count];
+        int[] allYs = new int[count];
+        int[] allServices = new int[count];
+        gather(allXs, allYs, allServices, 0);
+        topLeft = null;
+        topRight = null;
+        lowerLeft = null;
+        lowerRight = null;
+        isDivided = false;
+        size = 0;
+        summarize();
+        INDEX.clear();
+        bulkLoad(allXs, allYs, allServices, count);
+    }
+
+    /**
+     * Copies the points of this quad and its descendants into column arrays.
+     * 
+     * @param allXs       The array receiving the x-coordinates.
+     * @param allYs       The array receiving the y-coordinates.
+     * @param allServices The array receiving the service bits.
+     * @param offset      The first free slot of the arrays.
+     * @return The first free slot after the copied points.
+     *         Time Complexity: O(m + q), where m is the number of places and q
+     *         the number of quads in the subtree.
+     */
+    private int gather(int[] allXs, int[] allYs, int[] allServices, int offset) {
+        System.arraycopy(xs, 0, allXs, offset, size);
+        System.arraycopy(ys, 0, allYs, offset, size);
+        System.arraycopy(services, 0, allServices, offset, size);
+        offset += size;
+        if (isDivided) {
+            offset = topLeft.gather(allXs, allYs, allServices, offset);
+            offset = topRight.gather(allXs, allYs, allServices, offset);
+            offset = lowerLeft.gather(allXs, allYs, allServices, offset);
+            offset = lowerRight.gather(allXs, allYs, allServices, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Adds every point of this quad and its children to the coordinate index.
+     * Time Complexity: O(n), where n is the number of points in this subtree.
+     */
+    void indexPoints() {
+        for (int i = 0; i < size; i++) {
+            INDEX.put(xs[i], ys[i], this, i);
+        }
+        if (isDivided) {
+            topLeft.indexPoints();
+            topRight.indexPoints();
+            lowerLeft.indexPoints();
+            lowerRight.indexPoints();
+        }
+    }
+
+    /**
+     * Loads a whole batch of places at once.
+     *
+     * @param places The places to load.
+     * @return The number of places that were loaded.
+     *         Time Complexity: O(n log n), where n is the number of places.
+     */
+    public int bulkLoad(ArrayList<Place> places) {
+        int count = places.size();
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        int[] services = new int[count];
+        for (int i = 0; i < count; i++) {
+            Place place = places.get(i);
+            xs[i] = place.x;
+            ys[i] = place.y;
+            services[i] = place.service;
+        }
+        return bulkLoad(xs, ys, services, count);
+    }
 
-        // If not found and not divided, return null
+    /**
+     * Writes this quad-tree to a compact binary file: the quad structure in
+     * pre-order with the packed coordinates and service bits of every quad.
+     * 
+     * @param path The file to write; an existing file is replaced.
+     * @throws IOException If the file cannot be written.
+     *                     Time Complexity: O(n + q), where n is the number of
+     *                     places and q the number of quads.
+     */
+    public void save(Path path) throws IOException {
+        MapFile.save(this, path);
+    }
+
+    /**
+     * Reads a quad-tree from a file written by save. The file is memory-mapped
+     * and the points of every quad are copied out in bulk, so no place is
+     * re-inserted.
+     * 
+     * @param path The file to read.
+     * @return The loaded quad-tree, with the same quads as the saved one.
+     * @throws IOException If the file cannot be read or is not a valid Map2D
+     *                     file.
+     *                     Time Complexity: O(n + q), where n is the number of
+     *                     places and q the number of quads.
+     */
+    public static Map2D load(Path path) throws IOException {
+        return MapFile.load(path);
     }
 
     /**
@@ -322,48 +1688,86 @@ public class Map2D {
      *                      the quad-tree.
      *                      Time Complexity: O(n log n), where n is the number of
      *                      places.
-     *                      The time complexity is primarily due to the insertion
-     *                      operation in the quad-tree, which has a complexity of
-     *                      O(log n) per insertion.
-     *                      Since we are inserting 'n' places, the overall
-     *                      complexity becomes O(n log n).
+     *                      The places are generated into column arrays first and
+     *                      then handed to bulkLoad, whose Z-order sort dominates
+     *                      the cost.
      */
     public void generateRandomData(int numberOfPlace) {
-        Random rnd = new Random(); // Create a Random object for generating random numbers.
-
-        int quarterPlaces = numberOfPlace / 4; // Divide the total number of places by 4 to distribute them evenly
-                                               // across four quadrants.
-
-        // Loop through each of the four quadrants.
-        for (int quadrant = 0; quadrant < 4; quadrant++) {
-            // Generate places for each quadrant.
-            for (int i = 0; i < quarterPlaces; i++) {
-                // Calculate the x-coordinate. Offset is added to place points in the right half
-                // of the map for the second and fourth quadrants.
-                int x = rnd.nextInt(5000000) + (quadrant % 2) * 5000000;
-                // Calculate the y-coordinate. Offset is added to place points in the bottom
-                // half of the map for the third and fourth quadrants.
-                int y = rnd.nextInt(5000000) + (quadrant / 2) * 5000000;
-                // Randomly generate a set of services for the place.
-                int services = ServiceType.randomizeServices();
-                // Insert the new place with the generated coordinates and services into the
-                // quad-tree.
-                insert(new Place(services, x, y));
-            }
-        }
-
-        // If the total number of places is not perfectly divisible by 4, handle the
-        // remainder.
-        // This loop adds the remaining places randomly across the entire map.
-        for (int i = 0; i < numberOfPlace % 4; i++) {
-            // Generate random x and y coordinates without any quadrant-specific offset.
-            int x = rnd.nextInt(10000000);
-            int y = rnd.nextInt(10000000);
+        generateRandomData(numberOfPlace, 1);
+    }
+
+    /**
+     * Generates random data and populates the quad-tree with places, using the
+     * given number of worker threads for both generating and building.
+     *
+     * @param numberOfPlace The total number of places to generate and insert into
+     *                      the quad-tree.
+     * @param parallelism   The number of worker threads; 1 or less runs on the
+     *                      calling thread.
+     *                      Time Complexity: O(n log n / p) on p workers, where n
+     *                      is the number of places.
+     */
+    public void generateRandomData(int numberOfPlace, int parallelism) {
+        int[] xs = new int[numberOfPlace];
+        int[] ys = new int[numberOfPlace];
+        int[] services = new int[numberOfPlace];
+
+        if (parallelism <= 1) {
+            generateRandomPlaces(new Random(), xs, ys, services, 0, numberOfPlace);
+        } else {
+            // Give every slice its own generator so that the workers never contend on one
+            SplittableRandom rnd = new SplittableRandom();
+            int chunkSize = (numberOfPlace + parallelism - 1) / parallelism;
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[parallelism];
+            for (int c = 0; c < parallelism; c++) {
+                SplittableRandom sliceRandom = rnd.split();
+                int from = Math.min(numberOfPlace, c * chunkSize);
+                int to = Math.min(numberOfPlace, from + chunkSize);
+                tasks[c] = ForkJoinTask.adapt(() -> generateRandomPlaces(sliceRandom, xs, ys, services, from, to));
+            }
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                BulkLoader.invokeAll(pool, tasks);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        // Build the quad-tree from the whole batch in one pass.
+        bulkLoad(xs, ys, services, numberOfPlace, parallelism);
+    }
+
+    /**
+     * Fills a slice of the column arrays with random places. The first four equal
+     * shares of the arrays go to the four quadrants of the map in turn, and the
+     * remainder is spread over the entire map.
+     *
+     * @param rnd      The generator to draw from.
+     * @param xs       The array receiving the x-coordinates.
+     * @param ys       The array receiving the y-coordinates.
+     * @param services The array receiving the services.
+     * @param from     The first slot to fill.
+     * @param to       One past the last slot to fill.
+     *                 Time Complexity: O(k), where k is the number of slots.
+     */
+    private static void generateRandomPlaces(RandomGenerator rnd, int[] xs, int[] ys, int[] services, int from,
+            int to) {
+        int quarterPlaces = xs.length / 4; // Divide the total number of places by 4 to distribute them evenly
+                                           // across four quadrants.
+        for (int i = from; i < to; i++) {
+            int quadrant = quarterPlaces == 0 ? 4 : i / quarterPlaces;
+            if (quadrant < 4) {
+                // Offset is added to place points in the right half of the map for the second
+                // and fourth quadrants, and in the bottom half for the third and fourth.
+                xs[i] = rnd.nextInt(5000000) + (quadrant % 2) * 5000000;
+                ys[i] = rnd.nextInt(5000000) + (quadrant / 2) * 5000000;
+            } else {
+                // The remainder is placed randomly across the entire map.
+                xs[i] = rnd.nextInt(10000000);
+                ys[i] = rnd.nextInt(10000000);
+            }
             // Randomly generate a set of services for the place.
-            int services = ServiceType.randomizeServices();
-            // Insert the new place with the generated coordinates and services into the
-            // quad-tree.
-            insert(new Place(services, x, y));
+            services[i] = ServiceType.randomizeServices(rnd);
         }
     }
 
@@ -0,0 +1,191 @@
+package maps;
+
+import utils.LatencyHistogram;
+import utils.Rectangle;
+
+/**
+ * Telemetry collected by a Map2D once metrics are enabled: a latency histogram
+ * in nanoseconds for inserts, searches, removals and edits, the work of every
+ * search (quads visited, points tested and places returned) as totals and as
+ * per-query histograms, and the range of the slowest search, which shows the
+ * query shape that costs the most.
+ * A map without metrics holds no instance of this class, so its operations pay
+ * only for one null check.
+ */
+public class Map2DMetrics {
+    final LatencyHistogram INSERTS = new LatencyHistogram(); // Insert latencies in nanoseconds
+    final LatencyHistogram SEARCHES = new LatencyHistogram(); // Range search latencies in nanoseconds
+    final LatencyHistogram REMOVALS = new LatencyHistogram(); // Removal latencies in nanoseconds
+    final LatencyHistogram EDITS = new LatencyHistogram(); // Service update latencies in nanoseconds
+    final LatencyHistogram NODES_PER_SEARCH = new LatencyHistogram(); // Quads visited by each search
+    final LatencyHistogram POINTS_PER_SEARCH = new LatencyHistogram(); // Points tested by each search
+    final LatencyHistogram RESULTS_PER_SEARCH = new LatencyHistogram(); // Places returned by each search
+    final SearchStats TOTALS = new SearchStats(); // Work summed over every search
+    final SearchStats QUERY = new SearchStats(); // Work of the search in progress
+    private Rectangle slowestRange; // Range of the slowest search so far
+    private long slowestNanos = -1; // Latency of the slowest search so far
+
+    /**
+     * Records a finished search whose work was counted in QUERY.
+     *
+     * @param range   The range searched.
+     * @param nanos   The latency of the search.
+     * @param results The number of places it returned.
+     *                Time Complexity: O(1).
+     */
+    void recordSearch(Rectangle range, long nanos, int results) {
+        QUERY.searches = 1;
+        QUERY.placesReturned = results;
+        SEARCHES.record(nanos);
+        NODES_PER_SEARCH.record(QUERY.nodesVisited);
+        POINTS_PER_SEARCH.record(QUERY.pointsTested);
+        RESULTS_PER_SEARCH.record(results);
+        TOTALS.add(QUERY);
+        if (nanos > slowestNanos) {
+            slowestNanos = nanos;
+            slowestRange = range;
+        }
+    }
+
+    /**
+     * Returns the insert latencies.
+     * @return The histogram of insert latencies in nanoseconds.
+     * Time Complexity: O(1).
+     */
+    public LatencyHistogram getInsertLatency() {
+        return INSERTS;
+    }
+
+    /**
+     * Returns the range search latencies.
+     * @return The histogram of search latencies in nanoseconds.
+     * Time Complexity: O(1).
+     */
+    public LatencyHistogram getSearchLatency() {
+        return SEARCHES;
+    }
+
+    /**
+     * Returns the removal latencies.
+     * @return The histogram of removal latencies in nanoseconds.
+     * Time Complexity: O(1).
+     */
+    public LatencyHistogram getRemoveLatency() {
+        return REMOVALS;
+    }
+
+    /**
+     * Returns the edit latencies.
+     * @return The histogram of service update latencies in nanoseconds.
+     * Time Complexity: O(1).
+     */
+    public LatencyHistogram getEditLatency() {
+        return EDITS;
+    }
+
+    /**
+     * Returns the number of quads visited by each search.
+     * @return The histogram of visited quads per search.
+     * Time Complexity: O(1).
+     */
+    public LatencyHistogram getNodesPerSearch() {
+        return NODES_PER_SEARCH;
+    }
+
+    /**
+     * Returns the number of points tested by each search.
+     * @return The histogram of tested points per search.
+     * Time Complexity: O(1).
+     */
+    public LatencyHistogram getPointsPerSearch() {
+        return POINTS_PER_SEARCH;
+    }
+
+    /**
+     * Returns the number of places returned by each search.
+     * @return The histogram of returned places per search.
+     * Time Complexity: O(1).
+     */
+    public LatencyHistogram getResultsPerSearch() {
+        return RESULTS_PER_SEARCH;
+    }
+
+    /**
+     * Returns the work summed over every search.
+     * @return The totals; they must not be changed.
+     * Time Complexity: O(1).
+     */
+    public SearchStats getSearchTotals() {
+        return TOTALS;
+    }
+
+    /**
+     * Returns the range of the slowest search so far.
+     * @return The range, or null if no search was recorded.
+     * Time Complexity: O(1).
+     */
+    public Rectangle getSlowestSearchRange() {
+        return slowestRange;
+    }
+
+    /**
+     * Returns the latency of the slowest search so far.
+     * @return The latency in nanoseconds, or 0 if no search was recorded.
+     * Time Complexity: O(1).
+     */
+    public long getSlowestSearchNanos() {
+        return Math.max(0, slowestNanos);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     * Time Complexity: O(b), where b is the number of buckets of a histogram.
+     */
+    public void reset() {
+        INSERTS.reset();
+        SEARCHES.reset();
+        REMOVALS.reset();
+        EDITS.reset();
+        NODES_PER_SEARCH.reset();
+        POINTS_PER_SEARCH.reset();
+        RESULTS_PER_SEARCH.reset();
+        TOTALS.reset();
+        slowestRange = null;
+        slowestNanos = -1;
+    }
+
+    /**
+     * Returns a report of the latencies and the work per search, with
+     * latencies in microseconds.
+     * @return String, one line per operation and per search counter.
+     * Time Complexity: O(b), where b is the number of buckets of a histogram.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        appendLatency(report, "insert", INSERTS);
+        appendLatency(report, "search", SEARCHES);
+        appendLatency(report, "remove", REMOVALS);
+        appendLatency(report, "edit", EDITS);
+        report.append("quads visited per search: ").append(NODES_PER_SEARCH).append('\n');
+        report.append("points tested per search: ").append(POINTS_PER_SEARCH).append('\n');
+        report.append("places returned per search: ").append(RESULTS_PER_SEARCH).append('\n');
+        if (slowestRange != null) {
+            report.append(String.format("slowest search: %.1f us over %s%n", slowestNanos / 1e3, slowestRange));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Appends one line of latency percentiles in microseconds to a report.
+     * @param report    The report to append to.
+     * @param operation The name of the operation.
+     * @param latencies The latencies of the operation in nanoseconds.
+     * Time Complexity: O(b), where b is the number of buckets of a histogram.
+     */
+    private static void appendLatency(StringBuilder report, String operation, LatencyHistogram latencies) {
+        report.append(String.format("%s: count = %d, p50 = %.1f us, p99 = %.1f us, p999 = %.1f us, max = %.1f us%n",
+                operation, latencies.getCount(), latencies.getPercentile(50) / 1e3,
+                latencies.getPercentile(99) / 1e3, latencies.getPercentile(99.9) / 1e3, latencies.getMax() / 1e3));
+    }
+}
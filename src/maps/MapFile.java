@@ -0,0 +1,411 @@
+package maps;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import utils.Rectangle;
+
+/**
+ * Reads and writes the binary file format of a Map2D.
+ * A file is a header followed by every quad in pre-order. Each quad is written
+ * as a flag telling whether it is divided, its number of points, and then its
+ * x-coordinates, y-coordinates and service bits as packed little-endian ints:
+ *
+ * <pre>
+ * header: magic, version, x, y, width, height, capacity, max depth, merge threshold,
+ *         covered log generation (low and high half), number of places
+ * quad:   divided (0 or 1), size, xs[size], ys[size], services[size], children...
+ * </pre>
+ *
+ * Loading memory-maps the file through a FileChannel in windows of at most
+ * WINDOW_SIZE bytes and copies each point array out of the mapping with one
+ * bulk IntBuffer read, so no place is ever re-inserted, sorted or boxed. The
+ * subtree summaries and the coordinate index are rebuilt in one linear pass.
+ * Files of version 1 have no max depth or merge threshold and load as trees
+ * that split down to the smallest quads and never merge.
+ * The covered log generation is the last generation of a DurableMap2D log whose
+ * changes the snapshot holds, or -1; files of versions 1 and 2 cover none.
+ */
+final class MapFile {
+    private static final int MAGIC = 0x4D324454; // "M2DT", marks a Map2D file
+    private static final int VERSION = 3; // Version of the layout written by save
+    private static final int UNNUMBERED_VERSION = 2; // Readable version without the covered log generation
+    private static final int FIXED_DEPTH_VERSION = 1; // Oldest readable version, without the split and merge policy
+    private static final int BUFFER_SIZE = 1 << 20; // Bytes buffered by the writer before each channel write
+    private static final long WINDOW_SIZE = 1L << 28; // Largest part of the file mapped at once, a multiple of 4
+
+    /**
+     * This class only has static methods.
+     */
+    private MapFile() {
+    }
+
+    /**
+     * Writes a quad-tree to a file, replacing any existing content.
+     *
+     * @param map  The root of the tree to write.
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written.
+     *                     Time Complexity: O(n + q), where n is the number of
+     *                     places and q the number of quads.
+     */
+    static void save(Map2D map, Path path) throws IOException {
+        save(map, path, -1);
+    }
+
+    /**
+     * Writes a quad-tree to a file as the snapshot of a DurableMap2D, replacing
+     * any existing content.
+     *
+     * @param map           The root of the tree to write.
+     * @param path          The file to write.
+     * @param logGeneration The last log generation whose changes the tree holds,
+     *                      or -1 for none.
+     * @throws IOException If the file cannot be written.
+     *                     Time Complexity: O(n + q), where n is the number of
+     *                     places and q the number of quads.
+     */
+    static void save(Map2D map, Path path, long logGeneration) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = new Writer(channel);
+            writer.writeInt(MAGIC);
+            writer.writeInt(VERSION);
+            writer.writeInt(map.BOUNDS.x);
+            writer.writeInt(map.BOUNDS.y);
+            writer.writeInt(map.BOUNDS.width);
+            writer.writeInt(map.BOUNDS.height);
+            writer.writeInt(map.CAPACITY);
+            writer.writeInt(map.MAX_DEPTH);
+            writer.writeInt(map.MERGE_THRESHOLD);
+            writer.writeInt((int) logGeneration);
+            writer.writeInt((int) (logGeneration >>> 32));
+            writer.writeInt(map.subtreeSize);
+            writeQuad(writer, map);
+            writer.flush();
+            channel.force(true); // A snapshot must be on disk before the log it replaces is emptied
+        }
+    }
+
+    /**
+     * Writes a quad and its children in pre-order.
+     *
+     * @param writer The writer to write to.
+     * @param quad   The quad to write.
+     * @throws IOException If the file cannot be written.
+     *                     Time Complexity: O(n + q) for the subtree.
+     */
+    private static void writeQuad(Writer writer, Map2D quad) throws IOException {
+        writer.writeInt(quad.isDivided ? 1 : 0);
+        writer.writeInt(quad.size);
+        writer.writeInts(quad.xs, quad.size);
+        writer.writeInts(quad.ys, quad.size);
+        writer.writeInts(quad.services, quad.size);
+        if (quad.isDivided) {
+            writeQuad(writer, quad.topLeft);
+            writeQuad(writer, quad.topRight);
+            writeQuad(writer, quad.lowerLeft);
+            writeQuad(writer, quad.lowerRight);
+        }
+    }
+
+    /**
+     * Reads a quad-tree from a file written by save.
+     *
+     * @param path The file to read.
+     * @return The root of the loaded tree.
+     * @throws IOException If the file cannot be read or is not a valid Map2D
+     *                     file.
+     *                     Time Complexity: O(n + q), where n is the number of
+     *                     places and q the number of quads.
+     */
+    static Map2D load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            int version = readVersion(reader, path);
+            Rectangle bounds = new Rectangle(reader.readInt(), reader.readInt(), reader.readInt(), reader.readInt());
+            if (bounds.width < 0 || bounds.height < 0) {
+                throw new IOException("Corrupt Map2D file: negative bounds " + bounds.width + " x " + bounds.height
+                        + ": " + path);
+            }
+            int capacity = reader.readInt();
+            if (capacity < 1) {
+                throw new IOException("Corrupt Map2D file: bad capacity " + capacity + ": " + path);
+            }
+            int maxDepth = Map2D.DEPTH_LIMIT;
+            int mergeThreshold = 0;
+            if (version != FIXED_DEPTH_VERSION) {
+                maxDepth = reader.readInt();
+                mergeThreshold = reader.readInt();
+                if (maxDepth < 0 || maxDepth > Map2D.DEPTH_LIMIT || mergeThreshold < 0 || mergeThreshold >= capacity) {
+                    throw new IOException("Corrupt Map2D file: bad split and merge policy: " + path);
+                }
+            }
+            if (version == VERSION) {
+                reader.readInt(); // The covered log generation only matters to readLogGeneration
+                reader.readInt();
+            }
+            int places = reader.readInt();
+            Map2D map = new Map2D(bounds, capacity, maxDepth, mergeThreshold, null);
+            readQuad(reader, map);
+            if (map.subtreeSize != places) {
+                throw new IOException("Corrupt Map2D file, expected " + places + " places but read "
+                        + map.subtreeSize + ": " + path);
+            }
+            map.INDEX.ensureCapacity(places);
+            map.indexPoints();
+            return map;
+        }
+    }
+
+    /**
+     * Reads the last log generation whose changes a file holds, without loading
+     * the tree.
+     *
+     * @param path The file to read.
+     * @return The covered log generation, or -1 for none.
+     * @throws IOException If the file cannot be read or is not a valid Map2D
+     *                     file.
+     *                     Time Complexity: O(1).
+     */
+    static long readLogGeneration(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            if (readVersion(reader, path) != VERSION) {
+                return -1;
+            }
+            for (int i = 0; i < 7; i++) {
+                reader.readInt(); // Bounds, capacity, max depth and merge threshold
+            }
+            int low = reader.readInt();
+            return ((long) reader.readInt() << 32) | (low & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Reads and checks the magic number and the version of a file.
+     *
+     * @param reader The reader positioned at the start of the file.
+     * @param path   The file, for error messages.
+     * @return The version of the file.
+     * @throws IOException If the file is not a Map2D file of a readable version.
+     *                     Time Complexity: O(1).
+     */
+    private static int readVersion(Reader reader, Path path) throws IOException {
+        if (reader.readInt() != MAGIC) {
+            throw new IOException("Not a Map2D file: " + path);
+        }
+        int version = reader.readInt();
+        if (version != VERSION && version != UNNUMBERED_VERSION && version != FIXED_DEPTH_VERSION) {
+            throw new IOException("Unsupported Map2D file version " + version + ": " + path);
+        }
+        return version;
+    }
+
+    /**
+     * Reads the points of a quad and then its children, rebuilding the summary
+     * of each quad once its children are read. A quad divided below the max
+     * depth of the tree or a point outside its quad is rejected, so a corrupt
+     * file can neither nest deeper than the tree allows nor load places that
+     * searches and the coordinate index would never find.
+     *
+     * @param reader The reader to read from.
+     * @param quad   The empty quad to fill.
+     * @throws IOException If the file cannot be read or is corrupt.
+     *                     Time Complexity: O(n + q) for the subtree.
+     */
+    private static void readQuad(Reader reader, Map2D quad) throws IOException {
+        int divided = reader.readInt();
+        int size = reader.readInt();
+        if ((divided != 0 && divided != 1) || size < 0) {
+            throw new IOException("Corrupt Map2D file: bad quad header");
+        }
+        if (divided == 1 && quad.DEPTH >= quad.MAX_DEPTH) {
+            throw new IOException("Corrupt Map2D file: quad divided below the max depth " + quad.MAX_DEPTH);
+        }
+        int[] xs = reader.readInts(size);
+        int[] ys = reader.readInts(size);
+        int[] services = reader.readInts(size);
+        for (int i = 0; i < size; i++) {
+            if (!quad.BOUNDS.isContains(xs[i], ys[i])) {
+                throw new IOException("Corrupt Map2D file: place (" + xs[i] + ", " + ys[i]
+                        + ") outside its quad at depth " + quad.DEPTH);
+            }
+        }
+        if (divided == 1) {
+            quad.subdivide(); // Still empty, so the points stay where the file put them
+        }
+        quad.xs = xs;
+        quad.ys = ys;
+        quad.services = services;
+        quad.size = size;
+        if (divided == 1) {
+            readQuad(reader, quad.topLeft);
+            readQuad(reader, quad.topRight);
+            readQuad(reader, quad.lowerLeft);
+            readQuad(reader, quad.lowerRight);
+        }
+        quad.summarize();
+    }
+
+    /**
+     * Buffers little-endian ints and writes them to a channel in large blocks.
+     */
+    private static final class Writer {
+        private final FileChannel channel; // Channel written to
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * Constructs a writer on a channel.
+         *
+         * @param channel The channel to write to.
+         */
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Writes one int.
+         *
+         * @param value The value to write.
+         * @throws IOException If the channel cannot be written.
+         *                     Time Complexity: O(1) amortized.
+         */
+        void writeInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        /**
+         * Writes the first values of an array with bulk copies into the buffer.
+         *
+         * @param values The array to write from.
+         * @param length The number of values to write.
+         * @throws IOException If the channel cannot be written.
+         *                     Time Complexity: O(length).
+         */
+        void writeInts(int[] values, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                if (buffer.remaining() < Integer.BYTES) {
+                    flush();
+                }
+                int count = Math.min(length - offset, buffer.remaining() / Integer.BYTES);
+                buffer.asIntBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * Integer.BYTES);
+                offset += count;
+            }
+        }
+
+        /**
+         * Writes everything buffered so far to the channel.
+         *
+         * @throws IOException If the channel cannot be written.
+         *                     Time Complexity: O(b), where b is the number of
+         *                     buffered bytes.
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads little-endian ints from a file mapped into memory one window at a
+     * time.
+     */
+    private static final class Reader {
+        private final FileChannel channel; // Channel of the mapped file
+        private final long fileSize; // Length of the file in bytes
+        private long windowStart; // File offset of the current window
+        private MappedByteBuffer window; // Mapping of the current window
+
+        /**
+         * Constructs a reader on a channel and maps its first window.
+         *
+         * @param channel The channel to read from.
+         * @throws IOException If the file cannot be mapped.
+         */
+        Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            map(0);
+        }
+
+        /**
+         * Maps the window starting at a file offset.
+         *
+         * @param start The file offset of the window, a multiple of 4.
+         * @throws IOException If the file cannot be mapped.
+         *                     Time Complexity: O(1); pages are read when touched.
+         */
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Moves to the next window once the current one is used up.
+         *
+         * @throws IOException If the end of the file is reached.
+         *                     Time Complexity: O(1).
+         */
+        private void ensureAvailable() throws IOException {
+            if (window.remaining() >= Integer.BYTES) {
+                return;
+            }
+            long next = windowStart + window.position();
+            if (fileSize - next < Integer.BYTES) {
+                throw new EOFException("Unexpected end of Map2D file");
+            }
+            map(next);
+        }
+
+        /**
+         * Reads one int.
+         *
+         * @return The value read.
+         * @throws IOException If the end of the file is reached.
+         *                     Time Complexity: O(1).
+         */
+        int readInt() throws IOException {
+            ensureAvailable();
+            return window.getInt();
+        }
+
+        /**
+         * Reads an array of ints with bulk copies out of the mapping.
+         *
+         * @param length The number of values to read.
+         * @return The values read.
+         * @throws IOException If the end of the file is reached.
+         *                     Time Complexity: O(length).
+         */
+        int[] readInts(int length) throws IOException {
+            if (length > (fileSize - windowStart - window.position()) / Integer.BYTES) {
+                throw new EOFException("Unexpected end of Map2D file");
+            }
+            int[] values = new int[length];
+            int offset = 0;
+            while (offset < length) {
+                ensureAvailable();
+                int count = Math.min(length - offset, window.remaining() / Integer.BYTES);
+                window.asIntBuffer().get(values, offset, count);
+                window.position(window.position() + count * Integer.BYTES);
+                offset += count;
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package maps;
+
+import models.Place;
+import utils.ArrayList;
+import utils.MinHeap;
+import utils.Rectangle;
+
+/**
+ * The best-first k-nearest-neighbour search shared by the quad-trees of this
+ * package. The caller offers the root, then repeatedly takes the next node and
+ * offers its points and children; nodes come out ordered by the distance from
+ * the point to their bounds, and no more come out once the closest of them is
+ * farther away than the k-th best place found so far.
+ * The best places are kept in a max-heap by negated squared distance, so the
+ * farthest of them is always the one to replace.
+ *
+ * @param <N> The type of the nodes to visit.
+ */
+final class NearestSearch<N> {
+    private final int X; // X-coordinate of the point
+    private final int Y; // Y-coordinate of the point
+    private final int SERVICE_BIT; // Service bits a place must offer, 0 for any place
+    private final int K; // Maximum number of places to return
+    private final MinHeap<N> nodes; // Nodes left to visit, by the squared distance to their bounds
+    private final MinHeap<Place> best; // Best places so far, by negated squared distance
+
+    /**
+     * Constructs a search with no node offered yet.
+     *
+     * @param x          The x-coordinate of the point.
+     * @param y          The y-coordinate of the point.
+     * @param serviceBit The service bits a place must offer, 0 for any place.
+     * @param k          The maximum number of places to return; at least 1.
+     * @param places     The number of places that could be offered, so the
+     *                   best places are never sized by a huge k.
+     */
+    NearestSearch(int x, int y, int serviceBit, int k, int places) {
+        this.X = x;
+        this.Y = y;
+        this.SERVICE_BIT = serviceBit;
+        this.K = k;
+        this.nodes = new MinHeap<>();
+        this.best = new MinHeap<>(Math.min(k, places));
+    }
+
+    /**
+     * Offers a node to visit. It is skipped if none of its places offers the
+     * service or if it is already farther away than the k-th best place.
+     *
+     * @param node            The node.
+     * @param bounds          The bounds of the node.
+     * @param subtreeServices The services offered by the places of the node.
+     *                        Time Complexity: O(log m), where m is the number of
+     *                        nodes waiting.
+     */
+    void offerNode(N node, Rectangle bounds, int subtreeServices) {
+        if ((subtreeServices & SERVICE_BIT) != SERVICE_BIT) {
+            return; // No place in this subtree offers the service
+        }
+        long distance = bounds.distanceSquared(X, Y);
+        if (best.size() < K || distance <= -best.peekPriority()) {
+            nodes.insert(node, distance);
+        }
+    }
+
+    /**
+     * Takes the closest node left to visit.
+     *
+     * @return The node, or null once no node left can hold a closer place.
+     *         Time Complexity: O(log m), where m is the number of nodes waiting.
+     */
+    N nextNode() {
+        if (nodes.isEmpty() || (best.size() == K && nodes.peekPriority() > -best.peekPriority())) {
+            return null;
+        }
+        return nodes.poll();
+    }
+
+    /**
+     * Offers the points of a node, stored column-wise.
+     *
+     * @param xs       The x-coordinates of the points.
+     * @param ys       The y-coordinates of the points.
+     * @param services The services of the points.
+     * @param count    The number of points to offer.
+     *                 Time Complexity: O(c log k), where c is the number of
+     *                 points.
+     */
+    void offerPoints(int[] xs, int[] ys, int[] services, int count) {
+        for (int i = 0; i < count; i++) {
+            if ((services[i] & SERVICE_BIT) == SERVICE_BIT) {
+                long distance = Rectangle.squaredDistance((long) xs[i] - X, (long) ys[i] - Y);
+                if (best.size() < K || distance < -best.peekPriority()) {
+                    offer(new Place(services[i], xs[i], ys[i]), distance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Offers one place, which must already offer the service.
+     *
+     * @param place The place.
+     * @return true if the place is among the best so far, false if it is
+     *         farther away than the k-th best place.
+     *         Time Complexity: O(log k).
+     */
+    boolean offerPlace(Place place) {
+        long distance = Rectangle.squaredDistance((long) place.x - X, (long) place.y - Y);
+        if (best.size() == K && distance >= -best.peekPriority()) {
+            return false;
+        }
+        offer(place, distance);
+        return true;
+    }
+
+    /**
+     * Adds a place to the best places, dropping the farthest one if k are
+     * already kept.
+     *
+     * @param place    The place.
+     * @param distance The squared distance from the point to the place.
+     *                 Time Complexity: O(log k).
+     */
+    private void offer(Place place, long distance) {
+        if (best.size() == K) {
+            best.poll();
+        }
+        best.insert(place, -distance);
+    }
+
+    /**
+     * Empties the best places into a list.
+     *
+     * @return The best places, ordered from nearest to farthest.
+     *         Time Complexity: O(k log k).
+     */
+    ArrayList<Place> result() {
+        Place[] ordered = new Place[best.size()];
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            ordered[i] = best.poll(); // Farthest first
+        }
+        ArrayList<Place> nearest = new ArrayList<>(Math.max(ordered.length, 1));
+        for (Place place : ordered) {
+            nearest.insert(place);
+        }
+        return nearest;
+    }
+}
@@ -0,0 +1,556 @@
+package maps;
+
+import enums.ServiceType;
+import models.Place;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * A bounded cache of range search results in front of a Map2D, for clients that
+ * ask for the same viewports again and again.
+ * A query rectangle is first snapped outwards to a grid of square cells, so
+ * viewports that differ by a few units share one entry; the cache key is the
+ * snapped rectangle, the service type and K, and the entry holds up to K places
+ * lying in the snapped cells. A repeated query is answered from the cache
+ * without walking the tree, keeping only the places of the entry that lie in
+ * the requested range, and the least recently used entry is evicted once the
+ * cache is full.
+ * Writes made through the cache invalidate only the entries whose rectangle
+ * holds the changed point. To find them without scanning the whole cache, every
+ * entry is registered in the cells of the coarsest grid level at which its
+ * rectangle still spans at most 2 x 2 cells, so a write looks at one cell per
+ * level. Writes made directly to the map are detected by its modification
+ * count and clear the whole cache.
+ */
+public class QueryCache {
+    private static final int INITIAL_RESULT_CAPACITY = 16; // Initial length of a result list copied from an entry
+    final Map2D MAP; // The map whose searches are cached
+    final int CELL_SIZE; // Side of the cells that query rectangles are snapped to
+    final int CAPACITY; // Maximum number of cached entries
+    private final int MIN_X, MIN_Y; // Origin of the grid: the smallest coordinates of the map
+    private final int MAX_CELL_X, MAX_CELL_Y; // Last cell of the grid covering the map
+    private final int LEVELS; // Number of grid levels, the last one covering the map with a single cell
+    private final Entry[] entries; // Hash table of the entries, chained
+    private final Region[] regions; // Hash table of the grid cells holding entries, chained
+    private Entry newest, oldest; // Ends of the list of entries from the most to the least recently used
+    private int size; // Number of cached entries
+    private int expectedModCount; // Modification count of the map when the cache was last known to be valid
+    private long hits, misses, invalidations; // Counters reported by the getters
+
+    /**
+     * An entry of the cache: the results of one snapped search.
+     */
+    private static final class Entry {
+        final int minCellX, minCellY, maxCellX, maxCellY; // Cells of the snapped rectangle
+        final int service; // Service bits of the query, or 0 for any place
+        final int k; // Maximum number of places of the query
+        final int level; // Grid level the entry is registered at
+        final Rectangle range; // Rectangle searched, the snapped cells and the first line of coordinates after them
+        ArrayList<Place> places; // Results of the search
+        boolean complete; // Whether places holds every matching place of the cells, not only the first K
+        Entry nextInTable; // Next entry in the same hash chain
+        Entry newer, older; // Neighbours in the list of entries by recency
+
+        Entry(int minCellX, int minCellY, int maxCellX, int maxCellY, int service, int k, int level,
+                Rectangle range) {
+            this.minCellX = minCellX;
+            this.minCellY = minCellY;
+            this.maxCellX = maxCellX;
+            this.maxCellY = maxCellY;
+            this.service = service;
+            this.k = k;
+            this.level = level;
+            this.range = range;
+        }
+    }
+
+    /**
+     * A cell of one grid level and the entries registered in it.
+     */
+    private static final class Region {
+        final int level, cellX, cellY; // Position of the cell
+        final ArrayList<Entry> entries = new ArrayList<>(4); // Entries whose rectangle meets the cell
+        Region nextInTable; // Next region in the same hash chain
+
+        Region(int level, int cellX, int cellY) {
+            this.level = level;
+            this.cellX = cellX;
+            this.cellY = cellY;
+        }
+    }
+
+    /**
+     * Constructs an empty cache in front of a map.
+     *
+     * @param map      The map whose searches are cached.
+     * @param cellSize The side of the cells query rectangles are snapped to.
+     * @param capacity The maximum number of cached entries.
+     * @throws IllegalArgumentException If the cell size or the capacity is not
+     *                                  positive.
+     */
+    public QueryCache(Map2D map, int cellSize, int capacity) {
+        if (cellSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Cell size and capacity must be positive");
+        }
+        this.MAP = map;
+        this.CELL_SIZE = cellSize;
+        this.CAPACITY = capacity;
+        this.MIN_X = map.BOUNDS.x - map.BOUNDS.halfWidth;
+        this.MIN_Y = map.BOUNDS.y - map.BOUNDS.halfHeight;
+        this.MAX_CELL_X = 2 * map.BOUNDS.halfWidth / cellSize;
+        this.MAX_CELL_Y = 2 * map.BOUNDS.halfHeight / cellSize;
+        int levels = 1;
+        while ((MAX_CELL_X >> (levels - 1)) > 0 || (MAX_CELL_Y >> (levels - 1)) > 0) {
+            levels++;
+        }
+        this.LEVELS = levels;
+        this.entries = new Entry[tableLength(capacity)];
+        this.regions = new Region[tableLength(4 * capacity)];
+        this.expectedModCount = map.modCount;
+    }
+
+    /**
+     * Computes the length of a hash table that keeps chains short for a number
+     * of items.
+     *
+     * @param items The largest number of items in the table.
+     * @return A power of two at least twice the number of items.
+     *         Time Complexity: O(1).
+     */
+    private static int tableLength(int items) {
+        return Integer.highestOneBit(Math.max(1, Math.min(items, 1 << 28)) * 2 - 1) << 1;
+    }
+
+    /**
+     * Mixes integers into a hash code.
+     *
+     * @param values The integers.
+     * @return The hash code.
+     *         Time Complexity: O(v), where v is the number of integers.
+     */
+    private static int hash(int... values) {
+        int hash = 0x2545F491;
+        for (int value : values) {
+            hash = (hash ^ value) * 0x9E3779B1;
+        }
+        return hash ^ (hash >>> 15);
+    }
+
+    /**
+     * Finds the cell of the grid that holds a coordinate, clamped to the grid.
+     *
+     * @param coordinate The coordinate.
+     * @param origin     The smallest coordinate of the grid.
+     * @param maxCell    The last cell of the grid.
+     * @return The index of the cell.
+     *         Time Complexity: O(1).
+     */
+    private int cellOf(long coordinate, int origin, int maxCell) {
+        return (int) Math.max(0, Math.min(maxCell, Math.floorDiv(coordinate - origin, CELL_SIZE)));
+    }
+
+    /**
+     * Searches for places within a range, answering from the cache when the
+     * same query snapped outwards to the grid was seen before. The cached
+     * places of the snapped cells are filtered by the range, so the results
+     * are up to k places of the range, as for Map2D.search. An entry that
+     * stopped at k places cannot answer a range that drops some of them, since
+     * places of the range may be missing from it; the map is then searched
+     * directly.
+     *
+     * @param range       The area to search within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param k           The maximum number of places to return.
+     * @return A new list of the matching places.
+     *         Time Complexity: O(k) on a hit, plus the cost of reading k places
+     *         from a Map2D cursor on a miss.
+     */
+    public ArrayList<Place> search(Rectangle range, ServiceType serviceType, int k) {
+        checkForOutsideChanges();
+        if (!range.isIntersects(MAP.BOUNDS)) {
+            return new ArrayList<>(1); // Clamping to the grid would give it the cells along the edge
+        }
+        int minCellX = cellOf((long) range.x - range.halfWidth, MIN_X, MAX_CELL_X);
+        int maxCellX = cellOf((long) range.x + range.halfWidth, MIN_X, MAX_CELL_X);
+        int minCellY = cellOf((long) range.y - range.halfHeight, MIN_Y, MAX_CELL_Y);
+        int maxCellY = cellOf((long) range.y + range.halfHeight, MIN_Y, MAX_CELL_Y);
+        int service = serviceType == null ? 0 : serviceType.getBinaryValue();
+        int slot = hash(minCellX, minCellY, maxCellX, maxCellY, service, k) & (entries.length - 1);
+        Entry entry = entries[slot];
+        while (entry != null && (entry.minCellX != minCellX || entry.minCellY != minCellY
+                || entry.maxCellX != maxCellX || entry.maxCellY != maxCellY || entry.service != service
+                || entry.k != k)) {
+            entry = entry.nextInTable;
+        }
+        ArrayList<Place> found = entry == null ? null : answer(entry, range);
+        if (found != null) {
+            hits++;
+            unlinkRecency(entry);
+            linkNewest(entry);
+            return found;
+        }
+        misses++;
+        if (entry == null) {
+            // A Rectangle includes both of its edges and only has even spans, so the
+            // searched rectangle may reach the first coordinate after the last cell;
+            // places there are skipped by covers
+            int width = (maxCellX - minCellX + 1) * CELL_SIZE;
+            int height = (maxCellY - minCellY + 1) * CELL_SIZE;
+            Rectangle snapped = new Rectangle(MIN_X + minCellX * CELL_SIZE + width / 2,
+                    MIN_Y + minCellY * CELL_SIZE + height / 2, width / 2 * 2, height / 2 * 2);
+            int level = 0;
+            while ((maxCellX >> level) - (minCellX >> level) > 1 || (maxCellY >> level) - (minCellY >> level) > 1) {
+                level++;
+            }
+            entry = new Entry(minCellX, minCellY, maxCellX, maxCellY, service, k, level, snapped);
+            entry.places = new ArrayList<>(INITIAL_RESULT_CAPACITY);
+            entry.complete = true;
+            SearchCursor cursor = MAP.cursor(snapped, serviceType);
+            while (cursor.hasNext()) {
+                Place place = cursor.next();
+                if (covers(entry, place.x, place.y)) {
+                    if (entry.places.size() >= k) {
+                        entry.complete = false;
+                        break;
+                    }
+                    entry.places.insert(place);
+                }
+            }
+            entry.nextInTable = entries[slot];
+            entries[slot] = entry;
+            linkNewest(entry);
+            forEachRegion(entry, true);
+            if (++size > CAPACITY) {
+                evict(oldest);
+            }
+            found = answer(entry, range);
+        }
+        return found != null ? found : MAP.search(range, null, serviceType, k);
+    }
+
+    /**
+     * Copies the places of an entry that lie in a range.
+     *
+     * @param entry The entry.
+     * @param range The area to search within.
+     * @return A new list of the places, or null if the entry stopped at k
+     *         places and some of them are outside the range.
+     *         Time Complexity: O(k).
+     */
+    private static ArrayList<Place> answer(Entry entry, Rectangle range) {
+        ArrayList<Place> found = new ArrayList<>(Math.max(INITIAL_RESULT_CAPACITY, entry.places.size()));
+        for (int i = 0; i < entry.places.size(); i++) {
+            Place place = entry.places.get(i);
+            if (range.isContains(place.x, place.y)) {
+                found.insert(new Place(place.service, place.x, place.y));
+            }
+        }
+        return entry.complete || found.size() == entry.places.size() ? found : null;
+    }
+
+    /**
+     * Registers an entry in, or removes it from, the cells of its level that
+     * its rectangle meets.
+     *
+     * @param entry    The entry.
+     * @param register true to register the entry, false to remove it.
+     *                 Time Complexity: O(1) to register; O(e) to remove, where e
+     *                 is the number of entries in the same cells.
+     */
+    private void forEachRegion(Entry entry, boolean register) {
+        for (int cellX = entry.minCellX >> entry.level; cellX <= entry.maxCellX >> entry.level; cellX++) {
+            for (int cellY = entry.minCellY >> entry.level; cellY <= entry.maxCellY >> entry.level; cellY++) {
+                if (register) {
+                    region(entry.level, cellX, cellY, true).entries.insert(entry);
+                } else {
+                    Region region = region(entry.level, cellX, cellY, false);
+                    region.entries.removeUnordered(entry);
+                    if (region.entries.size() == 0) {
+                        removeRegion(region);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a cell in the table of regions.
+     *
+     * @param level  The grid level of the cell.
+     * @param cellX  The column of the cell at that level.
+     * @param cellY  The row of the cell at that level.
+     * @param create Whether to add the cell if it holds no entry yet.
+     * @return The region, or null if it holds no entry and create is false.
+     *         Time Complexity: O(1) expected.
+     */
+    private Region region(int level, int cellX, int cellY, boolean create) {
+        int slot = hash(level, cellX, cellY) & (regions.length - 1);
+        for (Region region = regions[slot]; region != null; region = region.nextInTable) {
+            if (region.level == level && region.cellX == cellX && region.cellY == cellY) {
+                return region;
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        Region region = new Region(level, cellX, cellY);
+        region.nextInTable = regions[slot];
+        regions[slot] = region;
+        return region;
+    }
+
+    /**
+     * Removes an empty cell from the table of regions.
+     *
+     * @param region The region to remove.
+     *               Time Complexity: O(1) expected.
+     */
+    private void removeRegion(Region region) {
+        int slot = hash(region.level, region.cellX, region.cellY) & (regions.length - 1);
+        if (regions[slot] == region) {
+            regions[slot] = region.nextInTable;
+            return;
+        }
+        for (Region previous = regions[slot]; previous != null; previous = previous.nextInTable) {
+            if (previous.nextInTable == region) {
+                previous.nextInTable = region.nextInTable;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from the cache.
+     *
+     * @param entry The entry to remove.
+     *              Time Complexity: O(1) expected, plus the removal from its
+     *              cells.
+     */
+    private void evict(Entry entry) {
+        int slot = hash(entry.minCellX, entry.minCellY, entry.maxCellX, entry.maxCellY, entry.service, entry.k)
+                & (entries.length - 1);
+        if (entries[slot] == entry) {
+            entries[slot] = entry.nextInTable;
+        } else {
+            Entry previous = entries[slot];
+            while (previous.nextInTable != entry) {
+                previous = previous.nextInTable;
+            }
+            previous.nextInTable = entry.nextInTable;
+        }
+        unlinkRecency(entry);
+        forEachRegion(entry, false);
+        size--;
+    }
+
+    /**
+     * Puts an entry at the most recently used end of the recency list.
+     *
+     * @param entry The entry, not in the list.
+     *              Time Complexity: O(1).
+     */
+    private void linkNewest(Entry entry) {
+        entry.newer = null;
+        entry.older = newest;
+        if (newest != null) {
+            newest.newer = entry;
+        } else {
+            oldest = entry;
+        }
+        newest = entry;
+    }
+
+    /**
+     * Takes an entry out of the recency list.
+     *
+     * @param entry The entry, in the list.
+     *              Time Complexity: O(1).
+     */
+    private void unlinkRecency(Entry entry) {
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else {
+            newest = entry.older;
+        }
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else {
+            oldest = entry.newer;
+        }
+        entry.newer = null;
+        entry.older = null;
+    }
+
+    /**
+     * Checks whether a point lies in the snapped cells of an entry. The cells
+     * end just before the first coordinate of the next cell.
+     *
+     * @param entry The entry.
+     * @param x     The x-coordinate of the point.
+     * @param y     The y-coordinate of the point.
+     * @return true if the point is in the cells of the entry.
+     *         Time Complexity: O(1).
+     */
+    private boolean covers(Entry entry, int x, int y) {
+        return entry.range.isContains(x, y) && x < MIN_X + (long) (entry.maxCellX + 1) * CELL_SIZE
+                && y < MIN_Y + (long) (entry.maxCellY + 1) * CELL_SIZE;
+    }
+
+    /**
+     * Removes every entry whose rectangle holds a changed point. At each grid
+     * level, only the entries registered in the cell of the point are tested.
+     *
+     * @param x The x-coordinate of the changed point.
+     * @param y The y-coordinate of the changed point.
+     *          Time Complexity: O(LEVELS + e), where e is the number of entries
+     *          tested.
+     */
+    private void invalidate(int x, int y) {
+        int cellX = cellOf(x, MIN_X, MAX_CELL_X);
+        int cellY = cellOf(y, MIN_Y, MAX_CELL_Y);
+        for (int level = 0; level < LEVELS && size > 0; level++) {
+            Region region = region(level, cellX >> level, cellY >> level, false);
+            if (region == null) {
+                continue;
+            }
+            // Walk backwards, since an eviction moves the last entry into the freed slot
+            for (int i = region.entries.size() - 1; i >= 0; i--) {
+                Entry entry = region.entries.get(i);
+                if (covers(entry, x, y)) {
+                    evict(entry);
+                    invalidations++;
+                }
+            }
+        }
+        expectedModCount = MAP.modCount;
+    }
+
+    /**
+     * Clears the cache if the map was changed without going through it.
+     * Time Complexity: O(1), or O(c) when the cache is cleared.
+     */
+    private void checkForOutsideChanges() {
+        if (MAP.modCount != expectedModCount) {
+            clear();
+        }
+    }
+
+    /**
+     * Removes every entry.
+     * Time Complexity: O(c), where c is the number of entries.
+     */
+    public void clear() {
+        while (oldest != null) {
+            evict(oldest);
+        }
+        expectedModCount = MAP.modCount;
+    }
+
+    /**
+     * Inserts a place into the map and invalidates the entries it affects.
+     *
+     * @param place The place to insert.
+     * @return true if the place was inserted, false if it is out of bounds.
+     *         Time Complexity: O(log n + LEVELS + e), as for Map2D.insert and
+     *         invalidate.
+     */
+    public boolean insert(Place place) {
+        checkForOutsideChanges();
+        boolean inserted = MAP.insert(place);
+        if (inserted) {
+            invalidate(place.x, place.y);
+        }
+        return inserted;
+    }
+
+    /**
+     * Removes a place from the map and invalidates the entries it affects.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return true if a place was removed, false otherwise.
+     *         Time Complexity: O(d + LEVELS + e), as for Map2D.removePlace and
+     *         invalidate.
+     */
+    public boolean removePlace(int x, int y) {
+        checkForOutsideChanges();
+        boolean removed = MAP.removePlace(x, y);
+        if (removed) {
+            invalidate(x, y);
+        }
+        return removed;
+    }
+
+    /**
+     * Edits a place of the map interactively and invalidates the entries it
+     * affects.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return The edited place, or null if no place was found.
+     *         Time Complexity: as for Map2D.editPLace, plus O(LEVELS + e).
+     */
+    public Place editPLace(int x, int y) {
+        checkForOutsideChanges();
+        Place edited = MAP.editPLace(x, y);
+        if (edited != null) {
+            invalidate(x, y);
+        }
+        return edited;
+    }
+
+    /**
+     * Replaces the services of a place of the map and invalidates the entries
+     * it affects.
+     *
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The new binary representation of the services.
+     * @return true if the place was found and updated, false otherwise.
+     *         Time Complexity: O(1) expected plus O(LEVELS + e).
+     */
+    public boolean updateServices(int x, int y, int service) {
+        checkForOutsideChanges();
+        boolean updated = MAP.updateServices(x, y, service);
+        if (updated) {
+            invalidate(x, y);
+        }
+        return updated;
+    }
+
+    /**
+     * Returns the number of cached entries.
+     * @return The number of entries.
+     * Time Complexity: O(1).
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of searches answered from the cache.
+     * @return The number of hits.
+     * Time Complexity: O(1).
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of searches that walked the tree.
+     * @return The number of misses.
+     * Time Complexity: O(1).
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries removed by writes.
+     * @return The number of invalidated entries.
+     * Time Complexity: O(1).
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+}
@@ -0,0 +1,230 @@
+package maps;
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import models.Place;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * Streams the places of a range search one at a time, walking the quad-tree
+ * lazily instead of collecting every match up front.
+ * The quads are visited depth-first in the same order as Map2D.search: the
+ * points of a quad, then its top-left, top-right, lower-left and lower-right
+ * children. Subtrees outside the range or without the requested service are
+ * skipped.
+ * A page token records where the cursor stands as the path of the current quad
+ * from the root (one digit per level, from 0 for top-left to 3 for lower-right)
+ * and the slot of the next point to test, written "path:slot". Resuming from a
+ * token continues the traversal where it stopped without walking the earlier
+ * part of the tree again.
+ * A cursor fails fast with a ConcurrentModificationException if the map is
+ * changed while it is in use. A token may be resumed after changes, but places
+ * moved by the changes may then be skipped or returned twice.
+ */
+public class SearchCursor {
+    private final Map2D root; // The map being searched
+    private final Rectangle range; // The area to search within
+    private final int serviceBit; // The service bits a place must offer
+    private final int expectedModCount; // Modification count of the map when the cursor was created
+    private Map2D[] stack = new Map2D[16]; // Quads still to visit; the last one is visited first
+    private int stackSize; // Number of quads on the stack
+    private Map2D quad; // Quad being scanned, or null once the search is finished
+    private int slot; // Slot of the next point of the quad to test
+    private boolean ready; // Whether the point at slot is a match not yet returned
+
+    /**
+     * Constructs a cursor at the start of a search, or at the position of a page
+     * token.
+     *
+     * @param root       The map to search.
+     * @param range      The area to search within.
+     * @param serviceBit The service bits a place must offer.
+     * @param pageToken  A token returned by pageToken, or null to start from the
+     *                   beginning.
+     * @throws IllegalArgumentException If the token is malformed or names a quad
+     *                                  that no longer exists.
+     */
+    SearchCursor(Map2D root, Rectangle range, int serviceBit, String pageToken) {
+        this.root = root;
+        this.range = range;
+        this.serviceBit = serviceBit;
+        this.expectedModCount = root.modCount;
+        if (pageToken == null) {
+            quad = isRelevant(root) ? root : null;
+        } else {
+            resume(pageToken);
+        }
+    }
+
+    /**
+     * Checks whether a subtree may hold a match.
+     *
+     * @param node The root of the subtree.
+     * @return true if the subtree intersects the range and offers the service.
+     *         Time Complexity: O(1).
+     */
+    private boolean isRelevant(Map2D node) {
+        return (node.subtreeServices & serviceBit) == serviceBit && range.isIntersects(node.BOUNDS);
+    }
+
+    /**
+     * Pushes a quad on the stack of quads to visit if it may hold a match.
+     *
+     * @param node The quad to push.
+     *             Time Complexity: O(1) amortized.
+     */
+    private void push(Map2D node) {
+        if (!isRelevant(node)) {
+            return;
+        }
+        if (stackSize == stack.length) {
+            Map2D[] larger = new Map2D[stackSize * 2];
+            System.arraycopy(stack, 0, larger, 0, stackSize);
+            stack = larger;
+        }
+        stack[stackSize++] = node;
+    }
+
+    /**
+     * Rebuilds the traversal state described by a page token. At each level of
+     * the path, the siblings after the chosen child are still to be visited.
+     *
+     * @param pageToken The token to resume from.
+     * @throws IllegalArgumentException If the token is malformed or names a quad
+     *                                  that no longer exists.
+     *                                  Time Complexity: O(d), where d is the
+     *                                  length of the path.
+     */
+    private void resume(String pageToken) {
+        int separator = pageToken.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed page token: " + pageToken);
+        }
+        Map2D current = root;
+        for (int i = 0; i < separator; i++) {
+            int quadrant = pageToken.charAt(i) - '0';
+            if (quadrant < 0 || quadrant > 3 || !current.isDivided) {
+                throw new IllegalArgumentException("Stale or malformed page token: " + pageToken);
+            }
+            Map2D[] children = { current.topLeft, current.topRight, current.lowerLeft, current.lowerRight };
+            for (int later = 3; later > quadrant; later--) {
+                push(children[later]);
+            }
+            current = children[quadrant];
+        }
+        try {
+            slot = Integer.parseInt(pageToken.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed page token: " + pageToken, e);
+        }
+        if (slot < 0) {
+            throw new IllegalArgumentException("Malformed page token: " + pageToken);
+        }
+        quad = current;
+    }
+
+    /**
+     * Moves to the next matching point, leaving quad and slot on it.
+     *
+     * @return true if a match was found, false if the search is finished.
+     *         Time Complexity: O(m) amortized over the whole search, where m is
+     *         the number of points tested.
+     */
+    private boolean advance() {
+        while (quad != null) {
+            int[] xs = quad.xs, ys = quad.ys, services = quad.services;
+            for (; slot < quad.size; slot++) {
+                if (range.isContains(xs[slot], ys[slot]) && (services[slot] & serviceBit) == serviceBit) {
+                    return true;
+                }
+            }
+            if (quad.isDivided) {
+                // Pushed in reverse so that the top-left child is visited first
+                push(quad.lowerRight);
+                push(quad.lowerLeft);
+                push(quad.topRight);
+                push(quad.topLeft);
+            }
+            quad = stackSize == 0 ? null : stack[--stackSize];
+            slot = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the search has another match.
+     *
+     * @return true if next will return a place.
+     * @throws ConcurrentModificationException If the map changed since the
+     *                                         cursor was created.
+     *                                         Time Complexity: O(m) amortized, as
+     *                                         for advance.
+     */
+    public boolean hasNext() {
+        if (root.modCount != expectedModCount) {
+            throw new ConcurrentModificationException("The map changed during the search");
+        }
+        if (!ready) {
+            ready = advance();
+        }
+        return ready;
+    }
+
+    /**
+     * Returns the next matching place.
+     *
+     * @return The next place.
+     * @throws NoSuchElementException          If the search is finished.
+     * @throws ConcurrentModificationException If the map changed since the
+     *                                         cursor was created.
+     *                                         Time Complexity: O(m) amortized, as
+     *                                         for advance.
+     */
+    public Place next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more places in the range");
+        }
+        Place place = new Place(quad.services[slot], quad.xs[slot], quad.ys[slot]);
+        slot++;
+        ready = false;
+        return place;
+    }
+
+    /**
+     * Returns up to the given number of further matches.
+     *
+     * @param pageSize The maximum number of places to return.
+     * @return The next places, in traversal order.
+     *         Time Complexity: O(pageSize + m), where m is the number of points
+     *         tested.
+     */
+    public ArrayList<Place> nextPage(int pageSize) {
+        ArrayList<Place> page = new ArrayList<>(Math.max(0, Math.min(pageSize, 64)));
+        while (page.size() < pageSize && hasNext()) {
+            page.insert(next());
+        }
+        return page;
+    }
+
+    /**
+     * Returns a token from which a new cursor continues after the places
+     * returned so far.
+     *
+     * @return The page token, or null if the search is finished.
+     *         Time Complexity: O(d), where d is the depth of the current quad,
+     *         plus the cost of finding the next match.
+     */
+    public String pageToken() {
+        if (!hasNext()) {
+            return null;
+        }
+        StringBuilder path = new StringBuilder();
+        for (Map2D node = quad; node != root; node = node.parent) {
+            Map2D parent = node.parent;
+            int quadrant = node == parent.topLeft ? 0 : node == parent.topRight ? 1 : node == parent.lowerLeft ? 2 : 3;
+            path.append((char) ('0' + quadrant));
+        }
+        return path.reverse().append(':').append(slot).toString();
+    }
+}
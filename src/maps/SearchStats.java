@@ -0,0 +1,84 @@
+package maps;
+
+/**
+ * Collects how much work a search did: the number of quads it visited, the
+ * number of points it tested against the query and the number of places it
+ * returned.
+ * One instance can be passed to many searches to accumulate totals.
+ */
+public class SearchStats {
+    long searches; // Searches recorded
+    long nodesVisited; // Quads whose points were scanned
+    long pointsTested; // Points compared against the query
+    long placesReturned; // Places added to the results
+
+    /**
+     * Returns the number of searches recorded so far.
+     * @return The number of searches.
+     * Time Complexity: O(1).
+     */
+    public long getSearches() {
+        return searches;
+    }
+
+    /**
+     * Returns the number of quads visited so far.
+     * @return The number of visited quads.
+     * Time Complexity: O(1).
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * Returns the number of points tested so far.
+     * @return The number of tested points.
+     * Time Complexity: O(1).
+     */
+    public long getPointsTested() {
+        return pointsTested;
+    }
+
+    /**
+     * Returns the number of places returned so far.
+     * @return The number of returned places.
+     * Time Complexity: O(1).
+     */
+    public long getPlacesReturned() {
+        return placesReturned;
+    }
+
+    /**
+     * Adds the counters of other stats to these.
+     * @param other The stats to add.
+     * Time Complexity: O(1).
+     */
+    void add(SearchStats other) {
+        searches += other.searches;
+        nodesVisited += other.nodesVisited;
+        pointsTested += other.pointsTested;
+        placesReturned += other.placesReturned;
+    }
+
+    /**
+     * Sets all counters back to zero.
+     * Time Complexity: O(1).
+     */
+    public void reset() {
+        searches = 0;
+        nodesVisited = 0;
+        pointsTested = 0;
+        placesReturned = 0;
+    }
+
+    /**
+     * Returns a string representation of the counters.
+     * @return String, the counters of this object.
+     * Time Complexity: O(1).
+     */
+    @Override
+    public String toString() {
+        return "SearchStats: searches = " + searches + ", nodesVisited = " + nodesVisited + ", pointsTested = "
+                + pointsTested + ", placesReturned = " + placesReturned;
+    }
+}
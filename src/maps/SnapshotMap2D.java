@@ -0,0 +1,670 @@
+package maps;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import enums.ServiceType;
+import models.Place;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * A quad-tree map whose nodes are never changed once published. Every insert,
+ * removal or edit copies only the nodes on the path to the changed leaf and
+ * shares every other subtree with the previous version, then swaps the new root
+ * into an atomic reference.
+ * Writers are serialized by one lock, while readers never lock at all: a reader
+ * takes the current root once and sees a consistent snapshot of the map for as
+ * long as it holds it, however many writes happen meanwhile.
+ * Places are kept in the leaves only, as column-wise int arrays like Map2D, and
+ * a subtree that shrinks to one leaf's worth of places is collapsed back into a
+ * leaf.
+ */
+public class SnapshotMap2D {
+    private static final int SERVICE_TYPES = ServiceType.values().length; // Number of service types counted per node
+    private static final int KNOWN_SERVICES = (1 << SERVICE_TYPES) - 1; // Bits of all known service types
+    private static final int[] NO_POINTS = new int[0]; // Point arrays of every internal node
+    private static final String[] QUADRANTS = { "topLeft", "topRight", "lowerLeft", "lowerRight" }; // Child order
+    final Rectangle BOUNDS; // Spatial bounds of the map
+    final int CAPACITY; // Maximum number of points per leaf
+    private final AtomicReference<Node> root; // Root of the latest version
+    private final ReentrantLock writeLock = new ReentrantLock(); // Serializes the writers
+
+    /**
+     * Constructs an empty map with specified spatial bounds and leaf capacity.
+     *
+     * @param bounds   The spatial bounds of the map.
+     * @param capacity The maximum number of points per leaf before it is split.
+     */
+    public SnapshotMap2D(Rectangle bounds, int capacity) {
+        this.BOUNDS = bounds;
+        this.CAPACITY = capacity;
+        this.root = new AtomicReference<>(Node.leaf(bounds, NO_POINTS, NO_POINTS, NO_POINTS));
+    }
+
+    /**
+     * Returns a consistent, unchanging view of the current version of the map.
+     *
+     * @return The snapshot of the current version.
+     *         Time Complexity: O(1).
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(root.get());
+    }
+
+    /**
+     * Counts the places in the current version of the map.
+     *
+     * @return The number of places.
+     *         Time Complexity: O(1).
+     */
+    public int countChildren() {
+        return root.get().subtreeSize;
+    }
+
+    /**
+     * Searches the current version of the map, without locking.
+     *
+     * @param range       The area to search within.
+     * @param found       The list of found places, or null for a new list.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param capacity    The maximum number of places to return.
+     * @return The list of places that match the criteria.
+     *         Time Complexity: O(log n + m), where m is the number of points
+     *         tested before the limit is reached.
+     */
+    public ArrayList<Place> search(Rectangle range, ArrayList<Place> found, ServiceType serviceType, int capacity) {
+        return snapshot().search(range, found, serviceType, capacity);
+    }
+
+    /**
+     * Counts the places in a range in the current version of the map, without
+     * locking.
+     *
+     * @param range       The area to count within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @return The number of matching places.
+     *         Time Complexity: O(b * k), where b is the number of leaves crossing
+     *         the edge of the range and k the number of points per leaf.
+     */
+    public int count(Rectangle range, ServiceType serviceType) {
+        return snapshot().count(range, serviceType);
+    }
+
+    /**
+     * Finds the k closest places in the current version of the map, without
+     * locking.
+     *
+     * @param x           The x-coordinate of the point.
+     * @param y           The y-coordinate of the point.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param k           The maximum number of places to return.
+     * @return The closest places, ordered from nearest to farthest.
+     *         Time Complexity: O((m + k) log m) for m visited nodes.
+     */
+    public ArrayList<Place> nearest(int x, int y, ServiceType serviceType, int k) {
+        return snapshot().nearest(x, y, serviceType, k);
+    }
+
+    /**
+     * Inserts a place by publishing a new version that shares every subtree off
+     * the path to its leaf.
+     *
+     * @param place The place to insert.
+     * @return true if the place was inserted, false if it is out of bounds.
+     *         Time Complexity: O(d + k), where d is the depth of the leaf and k
+     *         the number of points per leaf.
+     */
+    public boolean insert(Place place) {
+        if (!BOUNDS.isContains(place.x, place.y)) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            root.set(insert(root.get(), place.x, place.y, place.service));
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a place at a specified location by publishing a new version.
+     *
+     * @param x The x-coordinate of the place.
+     * @param y The y-coordinate of the place.
+     * @return true if a place was removed, false otherwise.
+     *         Time Complexity: O(d + k), where d is the depth of the leaf and k
+     *         the number of points per leaf.
+     */
+    public boolean removePlace(int x, int y) {
+        writeLock.lock();
+        try {
+            Node current = root.get();
+            Node updated = remove(current, x, y);
+            if (updated == current) {
+                return false;
+            }
+            root.set(updated);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the services of the place at a specified location by publishing a
+     * new version. The coordinate arrays of the leaf are shared with the previous
+     * version; only its service array is copied.
+     *
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The new binary representation of the services.
+     * @return true if the place was found and updated, false otherwise.
+     *         Time Complexity: O(d + k), where d is the depth of the leaf and k
+     *         the number of points per leaf.
+     */
+    public boolean updateServices(int x, int y, int service) {
+        writeLock.lock();
+        try {
+            Node current = root.get();
+            Node updated = update(current, x, y, service);
+            if (updated == current) {
+                return false;
+            }
+            root.set(updated);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of a subtree with one more place.
+     *
+     * @param node    The root of the subtree.
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The binary representation of the services of the place.
+     * @return The root of the new subtree.
+     *         Time Complexity: O(d + k), as for insert.
+     */
+    private Node insert(Node node, int x, int y, int service) {
+        if (node.children == null) {
+            int size = node.xs.length;
+            int[] xs = append(node.xs, x);
+            int[] ys = append(node.ys, y);
+            int[] services = append(node.services, service);
+            if (size < CAPACITY || !canSubdivide(node.BOUNDS)) {
+                return Node.leaf(node.BOUNDS, xs, ys, services);
+            }
+            return build(node.BOUNDS, xs, ys, services, size + 1); // The leaf overflows: split it
+        }
+        int quadrant = quadrantOf(node.BOUNDS, x, y);
+        Node[] children = node.children.clone();
+        children[quadrant] = insert(children[quadrant], x, y, service);
+        return Node.internal(node.BOUNDS, children);
+    }
+
+    /**
+     * Returns a copy of a subtree without the place at a coordinate, collapsing
+     * it into a leaf once it holds no more than one leaf's worth of places.
+     *
+     * @param node The root of the subtree.
+     * @param x    The x-coordinate of the place.
+     * @param y    The y-coordinate of the place.
+     * @return The root of the new subtree, or node itself if it has no place at
+     *         the coordinate.
+     *         Time Complexity: O(d + k), as for removePlace.
+     */
+    private Node remove(Node node, int x, int y) {
+        if (node.children == null) {
+            int index = node.indexOf(x, y);
+            if (index < 0) {
+                return node;
+            }
+            return Node.leaf(node.BOUNDS, without(node.xs, index), without(node.ys, index),
+                    without(node.services, index));
+        }
+        int quadrant = quadrantOf(node.BOUNDS, x, y);
+        Node child = remove(node.children[quadrant], x, y);
+        if (child == node.children[quadrant]) {
+            return node;
+        }
+        Node[] children = node.children.clone();
+        children[quadrant] = child;
+        Node updated = Node.internal(node.BOUNDS, children);
+        if (updated.subtreeSize > CAPACITY) {
+            return updated;
+        }
+        int[] xs = new int[updated.subtreeSize];
+        int[] ys = new int[updated.subtreeSize];
+        int[] services = new int[updated.subtreeSize];
+        gather(updated, xs, ys, services, 0);
+        return Node.leaf(node.BOUNDS, xs, ys, services);
+    }
+
+    /**
+     * Returns a copy of a subtree with new services for the place at a
+     * coordinate.
+     *
+     * @param node    The root of the subtree.
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The new binary representation of the services.
+     * @return The root of the new subtree, or node itself if it has no place at
+     *         the coordinate.
+     *         Time Complexity: O(d + k), as for updateServices.
+     */
+    private Node update(Node node, int x, int y, int service) {
+        if (node.children == null) {
+            int index = node.indexOf(x, y);
+            if (index < 0) {
+                return node;
+            }
+            int[] services = node.services.clone();
+            services[index] = service;
+            return Node.leaf(node.BOUNDS, node.xs, node.ys, services);
+        }
+        int quadrant = quadrantOf(node.BOUNDS, x, y);
+        Node child = update(node.children[quadrant], x, y, service);
+        if (child == node.children[quadrant]) {
+            return node;
+        }
+        Node[] children = node.children.clone();
+        children[quadrant] = child;
+        return Node.internal(node.BOUNDS, children);
+    }
+
+    /**
+     * Builds a subtree holding the given points, splitting every region that has
+     * more points than a leaf can hold.
+     *
+     * @param bounds   The bounds of the subtree.
+     * @param xs       The x-coordinates of the points.
+     * @param ys       The y-coordinates of the points.
+     * @param services The services of the points.
+     * @param count    The number of points to read from the arrays.
+     * @return The root of the new subtree.
+     *         Time Complexity: O(n log n), where n is the number of points.
+     */
+    private Node build(Rectangle bounds, int[] xs, int[] ys, int[] services, int count) {
+        if (count <= CAPACITY || !canSubdivide(bounds)) {
+            if (count < xs.length) {
+                xs = prefix(xs, count);
+                ys = prefix(ys, count);
+                services = prefix(services, count);
+            }
+            return Node.leaf(bounds, xs, ys, services);
+        }
+        int[] quadrantSizes = new int[4];
+        for (int i = 0; i < count; i++) {
+            quadrantSizes[quadrantOf(bounds, xs[i], ys[i])]++;
+        }
+        Node[] children = new Node[4];
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int[] childXs = new int[quadrantSizes[quadrant]];
+            int[] childYs = new int[quadrantSizes[quadrant]];
+            int[] childServices = new int[quadrantSizes[quadrant]];
+            int filled = 0;
+            for (int i = 0; i < count; i++) {
+                if (quadrantOf(bounds, xs[i], ys[i]) == quadrant) {
+                    childXs[filled] = xs[i];
+                    childYs[filled] = ys[i];
+                    childServices[filled] = services[i];
+                    filled++;
+                }
+            }
+            children[quadrant] = build(bounds.subdivide(QUADRANTS[quadrant]), childXs, childYs, childServices,
+                    filled);
+        }
+        return Node.internal(bounds, children);
+    }
+
+    /**
+     * Copies every point of a subtree into the given arrays.
+     *
+     * @param node     The root of the subtree.
+     * @param xs       The array receiving the x-coordinates.
+     * @param ys       The array receiving the y-coordinates.
+     * @param services The array receiving the services.
+     * @param offset   The first array slot to fill.
+     * @return The slot after the last one filled.
+     *         Time Complexity: O(n), where n is the number of nodes and points in
+     *         the subtree.
+     */
+    private static int gather(Node node, int[] xs, int[] ys, int[] services, int offset) {
+        if (node.children == null) {
+            int size = node.xs.length;
+            System.arraycopy(node.xs, 0, xs, offset, size);
+            System.arraycopy(node.ys, 0, ys, offset, size);
+            System.arraycopy(node.services, 0, services, offset, size);
+            return offset + size;
+        }
+        for (Node child : node.children) {
+            offset = gather(child, xs, ys, services, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Finds the quadrant of a region a coordinate belongs to, following the same
+     * routing rule as Map2D.
+     *
+     * @param bounds The region.
+     * @param x      The x-coordinate.
+     * @param y      The y-coordinate.
+     * @return The quadrant, from 0 (top left) to 3 (lower right).
+     *         Time Complexity: O(1).
+     */
+    private static int quadrantOf(Rectangle bounds, int x, int y) {
+        return (y < bounds.y ? 0 : 2) + (x < bounds.x ? 0 : 1);
+    }
+
+    /**
+     * Checks whether a region is large enough to be split, as in Map2D.
+     *
+     * @param bounds The region.
+     * @return true if subdividing would produce smaller regions.
+     *         Time Complexity: O(1).
+     */
+    private static boolean canSubdivide(Rectangle bounds) {
+        return bounds.halfWidth > 1 || bounds.halfHeight > 1;
+    }
+
+    /**
+     * Returns a copy of an array with one more value at the end.
+     *
+     * @param values The array to copy.
+     * @param value  The value to append.
+     * @return The new array.
+     *         Time Complexity: O(n), where n is the length of the array.
+     */
+    private static int[] append(int[] values, int value) {
+        int[] copy = new int[values.length + 1];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        copy[values.length] = value;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the first values of an array.
+     *
+     * @param values The array to copy.
+     * @param length The number of values to keep.
+     * @return The new array.
+     *         Time Complexity: O(length).
+     */
+    private static int[] prefix(int[] values, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(values, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of an array without the value at an index.
+     *
+     * @param values The array to copy.
+     * @param index  The index to leave out.
+     * @return The new array.
+     *         Time Complexity: O(n), where n is the length of the array.
+     */
+    private static int[] without(int[] values, int index) {
+        int[] copy = new int[values.length - 1];
+        System.arraycopy(values, 0, copy, 0, index);
+        System.arraycopy(values, index + 1, copy, index, values.length - index - 1);
+        return copy;
+    }
+
+    /**
+     * An immutable node of the tree. A leaf holds its points in exact-length
+     * arrays; an internal node holds no points and four children.
+     */
+    static final class Node {
+        final Rectangle BOUNDS; // Spatial bounds of this node
+        final int[] xs, ys, services; // Points of a leaf, stored column-wise; empty for an internal node
+        final Node[] children; // Children in quadrant order, or null for a leaf
+        final int subtreeSize; // Number of places in this subtree
+        final int subtreeServices; // OR of the service bits of every place in this subtree
+        final int[] serviceCounts; // Places offering each service type in this subtree
+
+        /**
+         * Constructs a node from its final contents.
+         *
+         * @param bounds        The spatial bounds of the node.
+         * @param xs            The x-coordinates of the points of a leaf.
+         * @param ys            The y-coordinates of the points of a leaf.
+         * @param services      The services of the points of a leaf.
+         * @param children      The children of an internal node, or null.
+         * @param subtreeSize   The number of places in the subtree.
+         * @param serviceCounts The places offering each service type.
+         */
+        private Node(Rectangle bounds, int[] xs, int[] ys, int[] services, Node[] children, int subtreeSize,
+                int[] serviceCounts) {
+            this.BOUNDS = bounds;
+            this.xs = xs;
+            this.ys = ys;
+            this.services = services;
+            this.children = children;
+            this.subtreeSize = subtreeSize;
+            this.serviceCounts = serviceCounts;
+            int summary = 0;
+            for (int ordinal = 0; ordinal < SERVICE_TYPES; ordinal++) {
+                if (serviceCounts[ordinal] > 0) {
+                    summary |= 1 << ordinal;
+                }
+            }
+            this.subtreeServices = summary;
+        }
+
+        /**
+         * Creates a leaf that takes ownership of the given point arrays.
+         *
+         * @param bounds   The spatial bounds of the leaf.
+         * @param xs       The x-coordinates of the points.
+         * @param ys       The y-coordinates of the points.
+         * @param services The services of the points.
+         * @return The new leaf.
+         *         Time Complexity: O(k), where k is the number of points.
+         */
+        static Node leaf(Rectangle bounds, int[] xs, int[] ys, int[] services) {
+            int[] serviceCounts = new int[SERVICE_TYPES];
+            for (int service : services) {
+                for (int bits = service & KNOWN_SERVICES; bits != 0; bits &= bits - 1) {
+                    serviceCounts[Integer.numberOfTrailingZeros(bits)]++;
+                }
+            }
+            return new Node(bounds, xs, ys, services, null, xs.length, serviceCounts);
+        }
+
+        /**
+         * Creates an internal node over four children.
+         *
+         * @param bounds   The spatial bounds of the node.
+         * @param children The children in quadrant order.
+         * @return The new node.
+         *         Time Complexity: O(s), where s is the number of service types.
+         */
+        static Node internal(Rectangle bounds, Node[] children) {
+            int subtreeSize = 0;
+            int[] serviceCounts = new int[SERVICE_TYPES];
+            for (Node child : children) {
+                subtreeSize += child.subtreeSize;
+                for (int ordinal = 0; ordinal < SERVICE_TYPES; ordinal++) {
+                    serviceCounts[ordinal] += child.serviceCounts[ordinal];
+                }
+            }
+            return new Node(bounds, NO_POINTS, NO_POINTS, NO_POINTS, children, subtreeSize, serviceCounts);
+        }
+
+        /**
+         * Finds the index of the point with the given coordinates in this leaf.
+         *
+         * @param x The x-coordinate of the point.
+         * @param y The y-coordinate of the point.
+         * @return The index of the point, or -1 if this node does not hold it.
+         *         Time Complexity: O(k), where k is the number of points.
+         */
+        int indexOf(int x, int y) {
+            for (int i = 0; i < xs.length; i++) {
+                if (xs[i] == x && ys[i] == y) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A read-only view of one version of the map. Every query on the same
+     * snapshot sees the same places, whatever writers do in the meantime.
+     */
+    public static final class Snapshot {
+        private final Node ROOT; // Root of the version seen by this snapshot
+
+        /**
+         * Constructs a view of the version with the given root.
+         *
+         * @param root The root of the version.
+         */
+        private Snapshot(Node root) {
+            this.ROOT = root;
+        }
+
+        /**
+         * Counts the places in this version.
+         *
+         * @return The number of places.
+         *         Time Complexity: O(1).
+         */
+        public int countChildren() {
+            return ROOT.subtreeSize;
+        }
+
+        /**
+         * Searches for places within a specified range that match a given service
+         * type.
+         *
+         * @param range       The area to search within.
+         * @param found       The list of found places, or null for a new list.
+         * @param serviceType The service type to filter by, or null for any place.
+         * @param capacity    The maximum number of places to return.
+         * @return The list of places that match the criteria.
+         *         Time Complexity: O(log n + m), where m is the number of points
+         *         tested before the limit is reached.
+         */
+        public ArrayList<Place> search(Rectangle range, ArrayList<Place> found, ServiceType serviceType,
+                int capacity) {
+            if (found == null) {
+                found = new ArrayList<>(Math.min(capacity, 16));
+            }
+            int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+            collect(ROOT, range, found, serviceBit, capacity);
+            return found;
+        }
+
+        /**
+         * Adds the matching places of a subtree to the result list.
+         *
+         * @param node       The root of the subtree.
+         * @param range      The area to search within.
+         * @param found      The list of found places.
+         * @param serviceBit The service bits a place must offer.
+         * @param capacity   The maximum number of places to return.
+         *                   Time Complexity: O(m), where m is the number of points
+         *                   tested in this subtree.
+         */
+        private static void collect(Node node, Rectangle range, ArrayList<Place> found, int serviceBit,
+                int capacity) {
+            if (found.size() >= capacity || (node.subtreeServices & serviceBit) != serviceBit
+                    || !range.isIntersects(node.BOUNDS)) {
+                return; // Full, no place in this subtree offers the service, or out of range
+            }
+            if (node.children == null) {
+                int[] xs = node.xs, ys = node.ys, services = node.services;
+                for (int i = 0; i < xs.length && found.size() < capacity; i++) {
+                    if (range.isContains(xs[i], ys[i]) && (services[i] & serviceBit) == serviceBit) {
+                        found.insert(new Place(services[i], xs[i], ys[i]));
+                    }
+                }
+                return;
+            }
+            for (Node child : node.children) {
+                collect(child, range, found, serviceBit, capacity);
+            }
+        }
+
+        /**
+         * Counts the places within a specified range that offer a given service.
+         * Nodes lying fully inside the range contribute their stored counts.
+         *
+         * @param range       The area to count within.
+         * @param serviceType The service type to filter by, or null for any place.
+         * @return The number of matching places.
+         *         Time Complexity: O(b * k), where b is the number of leaves
+         *         crossing the edge of the range and k the number of points per
+         *         leaf.
+         */
+        public int count(Rectangle range, ServiceType serviceType) {
+            int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+            return count(ROOT, range, serviceType, serviceBit);
+        }
+
+        /**
+         * Counts the matching places of a subtree.
+         *
+         * @param node        The root of the subtree.
+         * @param range       The area to count within.
+         * @param serviceType The service type to filter by, or null for any place.
+         * @param serviceBit  The service bits a place must offer.
+         * @return The number of matching places.
+         *         Time Complexity: O(b * k), as for count.
+         */
+        private static int count(Node node, Rectangle range, ServiceType serviceType, int serviceBit) {
+            if ((node.subtreeServices & serviceBit) != serviceBit || !range.isIntersects(node.BOUNDS)) {
+                return 0;
+            }
+            if (range.isContains(node.BOUNDS)) {
+                return serviceType == null ? node.subtreeSize
+                        : node.serviceCounts[Integer.numberOfTrailingZeros(serviceBit)];
+            }
+            if (node.children == null) {
+                return Map2D.countPoints(range, node.xs, node.ys, node.services, node.xs.length, serviceBit);
+            }
+            int count = 0;
+            for (Node child : node.children) {
+                count += count(child, range, serviceType, serviceBit);
+            }
+            return count;
+        }
+
+        /**
+         * Finds the k places closest to a point by Euclidean distance that offer a
+         * given service, visiting nodes best-first as Map2D.nearest does.
+         *
+         * @param x           The x-coordinate of the point.
+         * @param y           The y-coordinate of the point.
+         * @param serviceType The service type to filter by, or null for any place.
+         * @param k           The maximum number of places to return.
+         * @return The closest places, ordered from nearest to farthest.
+         *         Time Complexity: O((m + k) log m) for m visited nodes.
+         */
+        public ArrayList<Place> nearest(int x, int y, ServiceType serviceType, int k) {
+            if (k <= 0) {
+                return new ArrayList<>(1);
+            }
+            int serviceBit = serviceType == null ? 0 : serviceType.getBinaryValue();
+            NearestSearch<Node> search = new NearestSearch<>(x, y, serviceBit, k, ROOT.subtreeSize);
+            search.offerNode(ROOT, ROOT.BOUNDS, ROOT.subtreeServices);
+            for (Node node = search.nextNode(); node != null; node = search.nextNode()) {
+                if (node.children == null) {
+                    search.offerPoints(node.xs, node.ys, node.services, node.xs.length);
+                    continue;
+                }
+                for (Node child : node.children) {
+                    search.offerNode(child, child.BOUNDS, child.subtreeServices);
+                }
+            }
+            return search.result();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package maps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import enums.Durability;
+import models.Place;
+
+/**
+ * An append-only binary log of the changes made to a Map2D.
+ * Every change is one fixed-size record of five little-endian ints: the
+ * operation, x, y, service bits and a checksum of the other four. A record torn
+ * by a crash fails its checksum, so replay stops at the last complete record
+ * and the torn tail is cut off before new records are appended.
+ * A log starts with a GENERATION record numbering it. A checkpoint saves a
+ * snapshot that covers the current generation and then restarts the log with
+ * the next one, so a log left behind by a crash between those two steps is
+ * recognized as already covered and is not replayed a second time. A log
+ * without a GENERATION record, written before generations existed, counts as
+ * generation 0.
+ * Records are appended to an in-memory buffer and only a daemon flusher thread
+ * writes to the file: it swaps the buffer out and writes it as one block, so
+ * one write covers every record appended since the last one. With NONE the
+ * block is written every few milliseconds but never forced; with BATCH it is
+ * also forced to disk; with SYNC it is written and forced as soon as a writer
+ * waits for its record (group commit).
+ */
+final class WriteAheadLog implements AutoCloseable {
+    static final int INSERT = 1; // Operation of a record adding a place
+    static final int REMOVE = 2; // Operation of a record removing a place
+    static final int UPDATE = 3; // Operation of a record replacing the services of a place
+    static final int GENERATION = 4; // Operation of the first record, numbering the log
+    private static final int RECORD_SIZE = 5 * Integer.BYTES; // Bytes per record
+    private static final int BUFFER_SIZE = 1 << 16; // Initial size of the record buffers in bytes
+    private static final long FLUSH_INTERVAL_MS = 10; // Longest time a record waits to be written when nobody waits
+    private final FileChannel channel; // Channel of the log file
+    private final Durability durability; // When records are forced to disk
+    private final Object channelLock = new Object(); // Serializes writes to the channel
+    private final Thread flusher; // Daemon writing the log to the file
+    private long generation; // Generation of the log, guarded by channelLock
+    private long headerBytes; // Length of the GENERATION record at the start of the file, guarded by channelLock
+    private ByteBuffer pending; // Records appended but not yet written, guarded by this
+    private ByteBuffer spare; // Empty buffer swapped in by the flusher, guarded by this
+    private long appended; // Number of records appended, guarded by this
+    private long written; // Number of records written to the file, guarded by this
+    private long durable; // Number of records known to be forced to disk, guarded by this
+    private int waiters; // Threads waiting for their records to be forced, guarded by this
+    private boolean closed; // Whether the log is closed, guarded by this
+    private IOException failure; // First error of the flusher, guarded by this
+
+    /**
+     * Opens a log for appending after its valid records, cutting off any torn
+     * tail left by a crash. A log without valid records is restarted with the
+     * given generation.
+     *
+     * @param path           The log file; it is created if missing.
+     * @param validBytes     The length of the valid records, as returned by
+     *                       replay.
+     * @param nextGeneration The generation of the log if it has to be restarted.
+     * @param durability     When records are forced to disk.
+     * @throws IOException If the file cannot be opened.
+     */
+    WriteAheadLog(Path path, long validBytes, long nextGeneration, Durability durability) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.channel.truncate(validBytes);
+        if (validBytes == 0) {
+            restart(nextGeneration);
+        } else {
+            ByteBuffer first = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(first, 0);
+            first.flip();
+            int operation = first.getInt();
+            int x = first.getInt();
+            int y = first.getInt();
+            int service = first.getInt();
+            boolean numbered = operation == GENERATION && first.getInt() == checksum(operation, x, y, service);
+            this.generation = numbered ? toGeneration(x, y) : 0;
+            this.headerBytes = numbered ? RECORD_SIZE : 0;
+            this.channel.position(validBytes);
+        }
+        this.durability = durability;
+        this.pending = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.spare = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.flusher = new Thread(this::runFlusher, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Joins the two halves of a generation stored in a GENERATION record.
+     *
+     * @param low  The low 32 bits, stored as x.
+     * @param high The high 32 bits, stored as y.
+     * @return The generation.
+     *         Time Complexity: O(1).
+     */
+    private static long toGeneration(int low, int high) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Applies every valid record of a log file to a map, unless the log belongs
+     * to a generation that the snapshot of the map already covers.
+     *
+     * @param path              The log file; a missing file holds no records.
+     * @param map               The map to apply the records to.
+     * @param coveredGeneration The last generation whose records the snapshot
+     *                          holds, or -1 if it holds none.
+     * @return The length in bytes of the valid records; anything after it is a
+     *         torn or corrupt tail. A covered log has no valid records.
+     * @throws IOException If the file cannot be read.
+     *                     Time Complexity: O(r log n), where r is the number of
+     *                     records.
+     */
+    static long replay(Path path, Map2D map, long coveredGeneration) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long valid = 0;
+            while (channel.read(buffer) > 0 || buffer.position() >= RECORD_SIZE) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    int operation = buffer.getInt();
+                    int x = buffer.getInt();
+                    int y = buffer.getInt();
+                    int service = buffer.getInt();
+                    boolean intact = buffer.getInt() == checksum(operation, x, y, service);
+                    if (intact && valid == 0) {
+                        // A log without a GENERATION record predates generations and counts as generation 0
+                        long generation = operation == GENERATION ? toGeneration(x, y) : 0;
+                        if (generation <= coveredGeneration) {
+                            return 0; // Every record is already in the snapshot
+                        }
+                        if (operation == GENERATION) {
+                            valid += RECORD_SIZE;
+                            continue;
+                        }
+                    }
+                    if (!intact || !apply(map, operation, x, y, service)) {
+                        return valid; // Torn or corrupt record: everything from here on is discarded
+                    }
+                    valid += RECORD_SIZE;
+                }
+                buffer.compact();
+            }
+            return valid;
+        }
+    }
+
+    /**
+     * Applies one record to a map.
+     *
+     * @param map       The map to change.
+     * @param operation The operation of the record.
+     * @param x         The x-coordinate of the place.
+     * @param y         The y-coordinate of the place.
+     * @param service   The service bits of the record.
+     * @return true if the operation is known, false otherwise.
+     *         Time Complexity: O(log n).
+     */
+    private static boolean apply(Map2D map, int operation, int x, int y, int service) {
+        switch (operation) {
+            case INSERT:
+                map.insert(new Place(service, x, y));
+                return true;
+            case REMOVE:
+                map.remove(x, y);
+                return true;
+            case UPDATE:
+                map.updateServices(x, y, service);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Computes the checksum stored with a record.
+     *
+     * @param operation The operation of the record.
+     * @param x         The x-coordinate of the record.
+     * @param y         The y-coordinate of the record.
+     * @param service   The service bits of the record.
+     * @return The checksum.
+     *         Time Complexity: O(1).
+     */
+    private static int checksum(int operation, int x, int y, int service) {
+        int hash = 0x2545F491;
+        hash = (hash ^ operation) * 0x9E3779B1;
+        hash = (hash ^ x) * 0x9E3779B1;
+        hash = (hash ^ y) * 0x9E3779B1;
+        hash = (hash ^ service) * 0x9E3779B1;
+        return hash ^ (hash >>> 15);
+    }
+
+    /**
+     * Appends a record to the log buffer.
+     *
+     * @param operation The operation of the record.
+     * @param x         The x-coordinate of the place.
+     * @param y         The y-coordinate of the place.
+     * @param service   The service bits of the record.
+     * @return The sequence number of the record, to pass to awaitDurable.
+     * @throws IOException If the log is closed or could not be written.
+     *                     Time Complexity: O(1) amortized.
+     */
+    synchronized long append(int operation, int x, int y, int service) throws IOException {
+        if (closed) {
+            throw new IOException("The log is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (pending.remaining() < RECORD_SIZE) {
+            pending = grow(pending);
+        }
+        pending.putInt(operation).putInt(x).putInt(y).putInt(service).putInt(checksum(operation, x, y, service));
+        appended++;
+        if (waiters > 0) {
+            notifyAll();
+        }
+        return appended;
+    }
+
+    /**
+     * Waits until a record has been forced to disk. Records appended by other
+     * threads in the meantime are forced by the same write.
+     *
+     * @param sequence The sequence number returned by append.
+     * @throws IOException If the log could not be written or the wait was
+     *                     interrupted.
+     *                     Time Complexity: O(1) plus the time of one forced write.
+     */
+    synchronized void awaitDurable(long sequence) throws IOException {
+        if (durability == Durability.NONE) {
+            return;
+        }
+        waiters++;
+        try {
+            notifyAll(); // Wake the flusher
+            while (durable < sequence && failure == null && !closed) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the log");
+        } finally {
+            waiters--;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes every appended record to the file and forces it to disk.
+     *
+     * @throws IOException If the log could not be written.
+     *                     Time Complexity: O(b), where b is the number of
+     *                     buffered bytes, plus one forced write.
+     */
+    void sync() throws IOException {
+        flush(true);
+    }
+
+    /**
+     * Writes every appended record to the file as one block.
+     *
+     * @param force Whether to force the file to disk after writing.
+     * @throws IOException If the log could not be written.
+     *                     Time Complexity: O(b), where b is the number of
+     *                     buffered bytes.
+     */
+    private void flush(boolean force) throws IOException {
+        synchronized (channelLock) {
+            ByteBuffer batch;
+            long upTo;
+            synchronized (this) {
+                batch = pending;
+                pending = spare;
+                spare = null;
+                upTo = appended;
+            }
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+            } finally {
+                batch.clear();
+                synchronized (this) {
+                    spare = batch;
+                }
+            }
+            synchronized (this) {
+                written = Math.max(written, upTo);
+                if (force) {
+                    durable = Math.max(durable, upTo);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes every appended record to disk and restarts the log file with the
+     * next generation. Used once a snapshot covering the current generation has
+     * been saved.
+     *
+     * @throws IOException If the log could not be written.
+     *                     Time Complexity: O(b) plus one forced write.
+     */
+    void truncate() throws IOException {
+        synchronized (channelLock) {
+            sync();
+            restart(generation + 1);
+        }
+    }
+
+    /**
+     * Empties the log file and writes the GENERATION record of a new
+     * generation, forcing it to disk.
+     *
+     * @param next The new generation.
+     * @throws IOException If the log could not be written.
+     *                     Time Complexity: O(1) plus one forced write.
+     */
+    private void restart(long next) throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int low = (int) next, high = (int) (next >>> 32);
+        header.putInt(GENERATION).putInt(low).putInt(high).putInt(0).putInt(checksum(GENERATION, low, high, 0));
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        generation = next;
+        headerBytes = RECORD_SIZE;
+    }
+
+    /**
+     * Returns the generation of the log.
+     *
+     * @return The generation, which a snapshot saved now covers.
+     *         Time Complexity: O(1).
+     */
+    long generation() {
+        synchronized (channelLock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Returns the length of the GENERATION record at the start of the file.
+     *
+     * @return The length in bytes, 0 for a log without one.
+     *         Time Complexity: O(1).
+     */
+    long headerBytes() {
+        synchronized (channelLock) {
+            return headerBytes;
+        }
+    }
+
+    /**
+     * Returns a buffer twice as large holding the content of a full buffer.
+     *
+     * @param buffer The full buffer in write mode.
+     * @return The larger buffer in write mode.
+     *         Time Complexity: O(b), where b is the number of buffered bytes.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * Body of the flusher thread: writes the log as soon as a writer waits for
+     * it, and otherwise once per interval, until the log is closed. The log is
+     * forced to disk unless the durability level is NONE.
+     * Time Complexity: O(1) per write, plus the bytes written.
+     */
+    private void runFlusher() {
+        boolean force = durability != Durability.NONE;
+        while (true) {
+            synchronized (this) {
+                try {
+                    long deadline = System.currentTimeMillis() + FLUSH_INTERVAL_MS;
+                    while (!closed) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        boolean due = durability == Durability.SYNC ? waiters > 0 : remaining <= 0 || waiters > 0;
+                        if (appended > written && due) {
+                            break;
+                        }
+                        if (remaining <= 0) {
+                            deadline += FLUSH_INTERVAL_MS; // Nothing to write yet: start a new interval
+                            remaining = FLUSH_INTERVAL_MS;
+                        }
+                        wait(durability == Durability.SYNC ? 0 : remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                flush(force);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forces every appended record to disk, stops the flusher and closes the
+     * file.
+     *
+     * @throws IOException If the log could not be written.
+     *                     Time Complexity: O(b) plus one forced write.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+}
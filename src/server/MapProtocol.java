@@ -0,0 +1,267 @@
+package server;
+
+import java.nio.ByteBuffer;
+import enums.OperationType;
+import enums.ServiceType;
+import models.Place;
+import utils.ArrayList;
+import utils.Rectangle;
+
+/**
+ * The binary protocol of the map server. Every message is a frame: a 4-byte
+ * length followed by that many bytes, all integers being big-endian.
+ * A request frame holds a 4-byte request id, a 1-byte operation (the ordinal
+ * of an OperationType) and the fixed-size arguments of the operation:
+ * - SEARCH: x, y, width, height of the range, service, k
+ * - NEAREST: x, y, service, k
+ * - COUNT: x, y, width, height of the range, service
+ * - INSERT: x, y, service bits
+ * - REMOVE: x, y
+ * - UPDATE: x, y, new service bits
+ * where a service is one byte, the ordinal of a ServiceType or -1 for any place,
+ * and every other argument is a 4-byte int.
+ * A response frame holds the id of its request, a 1-byte status and, for an OK
+ * status, the result: a 4-byte count followed by 9 bytes per place (x, y and
+ * one byte of service bits) for SEARCH and NEAREST, a 4-byte count for COUNT,
+ * and nothing for the writes, whose status tells whether a place was changed.
+ */
+public final class MapProtocol {
+    public static final byte OK = 0; // The request succeeded
+    public static final byte NOT_FOUND = 1; // The write changed nothing: no place there, or out of bounds
+    public static final byte BAD_REQUEST = 2; // The request was malformed and was not run
+    public static final byte SERVER_ERROR = 3; // The request failed inside the server
+    public static final byte ANY_SERVICE = -1; // Service byte of requests that match any place
+    public static final int MAX_FRAME_BYTES = 1 << 20; // Largest frame, length field excluded
+    static final int HEADER_BYTES = 5; // Request id and operation, or request id and status
+    static final int PLACE_BYTES = 9; // Encoded size of one place
+    // Largest number of places a response can hold
+    public static final int MAX_RESULTS = (MAX_FRAME_BYTES - HEADER_BYTES - Integer.BYTES) / PLACE_BYTES;
+    private static final int RANGE_BYTES = 4 * Integer.BYTES; // Encoded size of a rectangle
+    private static final int POINT_BYTES = 2 * Integer.BYTES; // Encoded size of a point
+
+    /**
+     * This class only has static methods.
+     */
+    private MapProtocol() {
+    }
+
+    /**
+     * Returns the size of the arguments of an operation.
+     *
+     * @param operation The operation.
+     * @return The number of bytes following the operation byte.
+     *         Time Complexity: O(1).
+     */
+    static int argumentBytes(OperationType operation) {
+        return switch (operation) {
+            case SEARCH -> RANGE_BYTES + 1 + Integer.BYTES;
+            case NEAREST -> POINT_BYTES + 1 + Integer.BYTES;
+            case COUNT -> RANGE_BYTES + 1;
+            case INSERT, UPDATE -> POINT_BYTES + Integer.BYTES;
+            case REMOVE -> POINT_BYTES;
+        };
+    }
+
+    /**
+     * Starts a request frame: its length, id and operation.
+     *
+     * @param out       The buffer to write to.
+     * @param id        The id of the request.
+     * @param operation The operation.
+     *                  Time Complexity: O(1).
+     */
+    private static void beginRequest(ByteBuffer out, int id, OperationType operation) {
+        out.putInt(HEADER_BYTES + argumentBytes(operation));
+        out.putInt(id);
+        out.put((byte) operation.ordinal());
+    }
+
+    /**
+     * Writes a rectangle as its center and dimensions.
+     *
+     * @param out   The buffer to write to.
+     * @param range The rectangle.
+     *              Time Complexity: O(1).
+     */
+    private static void putRange(ByteBuffer out, Rectangle range) {
+        out.putInt(range.x);
+        out.putInt(range.y);
+        out.putInt(range.width);
+        out.putInt(range.height);
+    }
+
+    /**
+     * Encodes a service type filter.
+     *
+     * @param serviceType The service type, or null for any place.
+     * @return The service byte.
+     *         Time Complexity: O(1).
+     */
+    private static byte serviceByte(ServiceType serviceType) {
+        return serviceType == null ? ANY_SERVICE : (byte) serviceType.ordinal();
+    }
+
+    /**
+     * Writes a range search request.
+     *
+     * @param out         The buffer to write to.
+     * @param id          The id of the request.
+     * @param range       The area to search within.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param k           The maximum number of places to return.
+     *                    Time Complexity: O(1).
+     */
+    public static void writeSearch(ByteBuffer out, int id, Rectangle range, ServiceType serviceType, int k) {
+        beginRequest(out, id, OperationType.SEARCH);
+        putRange(out, range);
+        out.put(serviceByte(serviceType));
+        out.putInt(k);
+    }
+
+    /**
+     * Writes a nearest-neighbour request.
+     *
+     * @param out         The buffer to write to.
+     * @param id          The id of the request.
+     * @param x           The x-coordinate of the point.
+     * @param y           The y-coordinate of the point.
+     * @param serviceType The service type to filter by, or null for any place.
+     * @param k           The maximum number of places to return.
+     *                    Time Complexity: O(1).
+     */
+    public static void writeNearest(ByteBuffer out, int id, int x, int y, ServiceType serviceType, int k) {
+        beginRequest(out, id, OperationType.NEAREST);
+        out.putInt(x);
+        out.putInt(y);
+        out.put(serviceByte(serviceType));
+        out.putInt(k);
+    }
+
+    /**
+     * Writes a count request.
+     *
+     * @param out         The buffer to write to.
+     * @param id          The id of the request.
+     * @param range       The area to count within.
+     * @param serviceType The service type to filter by, or null for any place.
+     *                    Time Complexity: O(1).
+     */
+    public static void writeCount(ByteBuffer out, int id, Rectangle range, ServiceType serviceType) {
+        beginRequest(out, id, OperationType.COUNT);
+        putRange(out, range);
+        out.put(serviceByte(serviceType));
+    }
+
+    /**
+     * Writes an insert request.
+     *
+     * @param out   The buffer to write to.
+     * @param id    The id of the request.
+     * @param place The place to insert.
+     *              Time Complexity: O(1).
+     */
+    public static void writeInsert(ByteBuffer out, int id, Place place) {
+        beginRequest(out, id, OperationType.INSERT);
+        out.putInt(place.x);
+        out.putInt(place.y);
+        out.putInt(place.service);
+    }
+
+    /**
+     * Writes a removal request.
+     *
+     * @param out The buffer to write to.
+     * @param id  The id of the request.
+     * @param x   The x-coordinate of the place.
+     * @param y   The y-coordinate of the place.
+     *            Time Complexity: O(1).
+     */
+    public static void writeRemove(ByteBuffer out, int id, int x, int y) {
+        beginRequest(out, id, OperationType.REMOVE);
+        out.putInt(x);
+        out.putInt(y);
+    }
+
+    /**
+     * Writes a request replacing the services of a place.
+     *
+     * @param out     The buffer to write to.
+     * @param id      The id of the request.
+     * @param x       The x-coordinate of the place.
+     * @param y       The y-coordinate of the place.
+     * @param service The new binary representation of the services.
+     *                Time Complexity: O(1).
+     */
+    public static void writeUpdate(ByteBuffer out, int id, int x, int y, int service) {
+        beginRequest(out, id, OperationType.UPDATE);
+        out.putInt(x);
+        out.putInt(y);
+        out.putInt(service);
+    }
+
+    /**
+     * Builds a response frame with no result.
+     *
+     * @param id     The id of the request.
+     * @param status The status of the request.
+     * @return The frame, ready to be written.
+     *         Time Complexity: O(1).
+     */
+    static ByteBuffer statusResponse(int id, byte status) {
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES + HEADER_BYTES);
+        out.putInt(HEADER_BYTES).putInt(id).put(status);
+        return out.flip();
+    }
+
+    /**
+     * Builds an OK response frame holding a count.
+     *
+     * @param id    The id of the request.
+     * @param count The count.
+     * @return The frame, ready to be written.
+     *         Time Complexity: O(1).
+     */
+    static ByteBuffer countResponse(int id, int count) {
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES + HEADER_BYTES + Integer.BYTES);
+        out.putInt(HEADER_BYTES + Integer.BYTES).putInt(id).put(OK).putInt(count);
+        return out.flip();
+    }
+
+    /**
+     * Builds an OK response frame holding places.
+     *
+     * @param id     The id of the request.
+     * @param places The places, at most MAX_RESULTS.
+     * @return The frame, ready to be written.
+     *         Time Complexity: O(p), where p is the number of places.
+     */
+    static ByteBuffer placesResponse(int id, ArrayList<Place> places) {
+        int length = HEADER_BYTES + Integer.BYTES + places.size() * PLACE_BYTES;
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES + length);
+        out.putInt(length).putInt(id).put(OK).putInt(places.size());
+        for (int i = 0; i < places.size(); i++) {
+            Place place = places.get(i);
+            out.putInt(place.x).putInt(place.y).put((byte) place.service);
+        }
+        return out.flip();
+    }
+
+    /**
+     * Reads the places of a SEARCH or NEAREST response, starting after its
+     * status byte.
+     *
+     * @param in The body of the response frame, positioned at the result.
+     * @return The places.
+     *         Time Complexity: O(p), where p is the number of places.
+     */
+    public static ArrayList<Place> readPlaces(ByteBuffer in) {
+        int count = in.getInt();
+        ArrayList<Place> places = new ArrayList<>(Math.max(count, 1));
+        for (int i = 0; i < count; i++) {
+            int x = in.getInt();
+            int y = in.getInt();
+            places.insert(new Place(in.get() & 0xFF, x, y));
+        }
+        return places;
+    }
+}
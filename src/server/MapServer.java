@@ -0,0 +1,468 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import enums.OperationType;
+import enums.ServiceType;
+import maps.ConcurrentMap2D;
+import models.Place;
+import utils.Rectangle;
+
+/**
+ * A local network server exposing a ConcurrentMap2D over the binary protocol
+ * of MapProtocol, so that many clients can use one shared index at once.
+ * One selector thread accepts connections, reads request frames and writes
+ * response frames without ever blocking; every request is run on a worker of
+ * the executor, so a slow search never holds up the network.
+ * Clients may pipeline requests: they can send many frames without waiting,
+ * and the requests of one connection run concurrently and are answered as
+ * they complete, each response carrying the id of its request. A client that
+ * needs a write to be visible to a later request waits for the response to the
+ * write first. Once a connection has MAX_IN_FLIGHT unanswered requests, the
+ * server stops framing its requests and reading from it until responses
+ * drain, so a fast client cannot queue unbounded work.
+ * The server only listens on the loopback interface.
+ */
+public class MapServer implements Closeable {
+    private static final int READ_BUFFER_BYTES = 64 * 1024; // Usual size of the input buffer of a connection
+    static final int MAX_IN_FLIGHT = 1024; // Unanswered requests per connection before reading pauses
+    private static final int KNOWN_SERVICES = (1 << ServiceType.values().length) - 1; // Bits of all services
+    private static final OperationType[] OPERATIONS = OperationType.values(); // Operations by request byte
+    private static final ServiceType[] SERVICES = ServiceType.values(); // Service types by service byte
+    final ConcurrentMap2D MAP; // The shared index served
+    private final ExecutorService WORKERS; // Runs the requests
+    private final boolean OWNS_WORKERS; // Whether close shuts the workers down
+    private final Selector SELECTOR; // Watches the listening channel and every connection
+    private final ServerSocketChannel LISTENER; // Accepts the connections
+    private final ConcurrentLinkedQueue<Connection> READY = new ConcurrentLinkedQueue<>(); // Connections with new responses
+    private final Thread LOOP; // The selector thread
+    private volatile boolean running = true; // Cleared by close
+
+    /**
+     * The state of one client connection.
+     */
+    private static final class Connection {
+        final SocketChannel CHANNEL; // The connection
+        final SelectionKey KEY; // Registration of the connection with the selector
+        final ConcurrentLinkedQueue<ByteBuffer> OUTPUT = new ConcurrentLinkedQueue<>(); // Responses to write
+        final AtomicInteger IN_FLIGHT = new AtomicInteger(); // Requests read but not fully answered
+        ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_BYTES); // Bytes read and not yet framed
+        ByteBuffer writing; // Response being written, or null
+        boolean paused; // Whether framing stopped at MAX_IN_FLIGHT with the rest of the input left unread
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.CHANNEL = channel;
+            this.KEY = key;
+        }
+    }
+
+    /**
+     * Starts a server running requests on one worker per processor.
+     * On JDK 21 and later, the other constructor can be given
+     * Executors.newVirtualThreadPerTaskExecutor() to run each request on its
+     * own virtual thread instead.
+     *
+     * @param map  The index to serve.
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public MapServer(ConcurrentMap2D map, int port) throws IOException {
+        this(map, port, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread worker = new Thread(task, "map-server-worker");
+            worker.setDaemon(true);
+            return worker;
+        }), true);
+    }
+
+    /**
+     * Starts a server running requests on the given executor, which is left
+     * running when the server closes.
+     *
+     * @param map     The index to serve.
+     * @param port    The port to listen on, or 0 for any free port.
+     * @param workers The executor that runs the requests.
+     * @throws IOException If the port cannot be bound.
+     */
+    public MapServer(ConcurrentMap2D map, int port, ExecutorService workers) throws IOException {
+        this(map, port, workers, false);
+    }
+
+    /**
+     * Binds the listening channel and starts the selector thread.
+     *
+     * @param map         The index to serve.
+     * @param port        The port to listen on, or 0 for any free port.
+     * @param workers     The executor that runs the requests.
+     * @param ownsWorkers Whether close shuts the executor down.
+     * @throws IOException If the port cannot be bound.
+     */
+    private MapServer(ConcurrentMap2D map, int port, ExecutorService workers, boolean ownsWorkers)
+            throws IOException {
+        this.MAP = map;
+        this.WORKERS = workers;
+        this.OWNS_WORKERS = ownsWorkers;
+        this.SELECTOR = Selector.open();
+        this.LISTENER = ServerSocketChannel.open();
+        try {
+            LISTENER.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            LISTENER.configureBlocking(false);
+            LISTENER.register(SELECTOR, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            LISTENER.close();
+            SELECTOR.close();
+            throw e;
+        }
+        this.LOOP = new Thread(this::loop, "map-server-selector");
+        LOOP.setDaemon(true);
+        LOOP.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The port.
+     * @throws IOException If the listening channel is closed.
+     *                     Time Complexity: O(1).
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) LISTENER.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Stops accepting requests, closes every connection and waits for the
+     * selector thread to finish. Requests still running are not waited for.
+     *
+     * @throws IOException If the listening channel cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        SELECTOR.wakeup();
+        try {
+            LOOP.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (OWNS_WORKERS) {
+            WORKERS.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the selector: accepts connections, reads requests, and writes the
+     * responses that workers have queued, until the server is closed.
+     */
+    private void loop() {
+        try {
+            while (running) {
+                SELECTOR.select();
+                for (Connection connection; (connection = READY.poll()) != null;) {
+                    if (connection.KEY.isValid()) {
+                        flush(connection);
+                    }
+                }
+                for (SelectionKey key : SELECTOR.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(connection);
+                    }
+                }
+                SELECTOR.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println("Map server stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : SELECTOR.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                SELECTOR.close();
+                LISTENER.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close the map server: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts a pending connection and starts reading from it.
+     *
+     * @throws IOException If the listening channel fails.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = LISTENER.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(SELECTOR, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Reads what a connection has sent and frames the requests read.
+     *
+     * @param connection The connection to read from.
+     *                   Time Complexity: O(b), where b is the number of bytes
+     *                   read.
+     */
+    private void read(Connection connection) {
+        try {
+            if (connection.CHANNEL.read(connection.input) < 0) {
+                closeQuietly(connection.KEY);
+                return;
+            }
+        } catch (IOException e) {
+            closeQuietly(connection.KEY);
+            return;
+        }
+        frame(connection);
+    }
+
+    /**
+     * Hands the complete request frames in the input of a connection to the
+     * workers, until the connection reaches MAX_IN_FLIGHT unanswered requests.
+     * The remaining bytes stay in the input, and reading pauses until flush has
+     * written enough responses to frame them. A malformed frame length closes
+     * the connection, since the rest of the stream can no longer be framed.
+     * The input grows to hold a frame larger than it, and shrinks back once
+     * that frame is consumed.
+     *
+     * @param connection The connection whose input is framed.
+     *                   Time Complexity: O(b), where b is the number of bytes
+     *                   framed.
+     */
+    private void frame(Connection connection) {
+        ByteBuffer input = connection.input.flip();
+        int incomplete = 0; // Size of a frame only partly read, with its length field
+        while (input.remaining() >= Integer.BYTES) {
+            int length = input.getInt(input.position());
+            if (length < MapProtocol.HEADER_BYTES || length > MapProtocol.MAX_FRAME_BYTES) {
+                closeQuietly(connection.KEY);
+                return;
+            }
+            if (input.remaining() < Integer.BYTES + length) {
+                incomplete = Integer.BYTES + length;
+                break;
+            }
+            if (connection.IN_FLIGHT.get() >= MAX_IN_FLIGHT) {
+                break; // Leave the rest for flush to frame once responses drain
+            }
+            input.position(input.position() + Integer.BYTES);
+            ByteBuffer frame = ByteBuffer.allocate(length);
+            frame.put(input.slice(input.position(), length)).flip();
+            input.position(input.position() + length);
+            connection.IN_FLIGHT.incrementAndGet();
+            try {
+                WORKERS.execute(() -> respond(connection, frame));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(connection.KEY);
+                return;
+            }
+        }
+        int capacity = Math.max(READ_BUFFER_BYTES, Math.max(incomplete, input.remaining()));
+        if (capacity > input.capacity() || (capacity == READ_BUFFER_BYTES && input.capacity() > READ_BUFFER_BYTES)) {
+            // Make room for a frame larger than the buffer, or give the room back once it is consumed
+            connection.input = ByteBuffer.allocate(capacity).put(input);
+        } else {
+            input.compact();
+        }
+        connection.paused = connection.IN_FLIGHT.get() >= MAX_IN_FLIGHT;
+        if (connection.paused) {
+            connection.KEY.interestOps(connection.KEY.interestOps() & ~SelectionKey.OP_READ);
+        } else {
+            connection.KEY.interestOps(connection.KEY.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Runs a request on a worker and queues its response for the selector.
+     *
+     * @param connection The connection the request came from.
+     * @param frame      The request frame, without its length.
+     */
+    private void respond(Connection connection, ByteBuffer frame) {
+        ByteBuffer response;
+        try {
+            response = execute(frame);
+        } catch (RuntimeException e) {
+            // Answer anyway, or the client would wait for this request forever
+            response = MapProtocol.statusResponse(frame.getInt(0), MapProtocol.SERVER_ERROR);
+        }
+        connection.OUTPUT.add(response);
+        READY.add(connection);
+        SELECTOR.wakeup();
+    }
+
+    /**
+     * Writes the queued responses of a connection until they are all written or
+     * the socket is full, in which case the selector calls again once it can
+     * take more. A connection paused at MAX_IN_FLIGHT has the rest of its input
+     * framed once responses drain below it.
+     *
+     * @param connection The connection to write to.
+     *                   Time Complexity: O(b), where b is the number of bytes
+     *                   written.
+     */
+    private void flush(Connection connection) {
+        try {
+            while (true) {
+                if (connection.writing == null) {
+                    connection.writing = connection.OUTPUT.poll();
+                    if (connection.writing == null) {
+                        break;
+                    }
+                }
+                connection.CHANNEL.write(connection.writing);
+                if (connection.writing.hasRemaining()) {
+                    connection.KEY.interestOps(connection.KEY.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                connection.writing = null;
+                connection.IN_FLIGHT.decrementAndGet();
+            }
+        } catch (IOException e) {
+            closeQuietly(connection.KEY);
+            return;
+        }
+        connection.KEY.interestOps(connection.KEY.interestOps() & ~SelectionKey.OP_WRITE);
+        if (connection.paused && connection.IN_FLIGHT.get() < MAX_IN_FLIGHT) {
+            frame(connection);
+        }
+    }
+
+    /**
+     * Cancels a key and closes its channel, ignoring failures.
+     *
+     * @param key The key to close.
+     */
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // The connection is gone either way
+        }
+    }
+
+    /**
+     * Runs one request against the map.
+     *
+     * @param frame The request frame, without its length.
+     * @return The response frame, ready to be written.
+     *         Time Complexity: the cost of the operation on the map.
+     */
+    ByteBuffer execute(ByteBuffer frame) {
+        int id = frame.getInt();
+        int ordinal = frame.get();
+        if (ordinal < 0 || ordinal >= OPERATIONS.length
+                || frame.remaining() != MapProtocol.argumentBytes(OPERATIONS[ordinal])) {
+            return MapProtocol.statusResponse(id, MapProtocol.BAD_REQUEST);
+        }
+        switch (OPERATIONS[ordinal]) {
+            case SEARCH: {
+                Rectangle range = new Rectangle(frame.getInt(), frame.getInt(), frame.getInt(), frame.getInt());
+                int service = frame.get();
+                int k = frame.getInt();
+                if (!isServiceByte(service) || range.width < 0 || range.height < 0 || k < 0
+                        || k > MapProtocol.MAX_RESULTS) {
+                    break;
+                }
+                return MapProtocol.placesResponse(id, MAP.search(range, null, serviceOf(service), k));
+            }
+            case NEAREST: {
+                int x = frame.getInt(), y = frame.getInt();
+                int service = frame.get();
+                int k = frame.getInt();
+                if (!isServiceByte(service) || k < 0 || k > MapProtocol.MAX_RESULTS) {
+                    break;
+                }
+                return MapProtocol.placesResponse(id, MAP.nearest(x, y, serviceOf(service), k));
+            }
+            case COUNT: {
+                Rectangle range = new Rectangle(frame.getInt(), frame.getInt(), frame.getInt(), frame.getInt());
+                int service = frame.get();
+                if (!isServiceByte(service) || range.width < 0 || range.height < 0) {
+                    break;
+                }
+                return MapProtocol.countResponse(id, MAP.count(range, serviceOf(service)));
+            }
+            case INSERT: {
+                int x = frame.getInt(), y = frame.getInt(), services = frame.getInt();
+                if ((services & ~KNOWN_SERVICES) != 0) {
+                    break;
+                }
+                return written(id, MAP.insert(new Place(services, x, y)));
+            }
+            case REMOVE:
+                return written(id, MAP.remove(frame.getInt(), frame.getInt()) != null);
+            case UPDATE: {
+                int x = frame.getInt(), y = frame.getInt(), services = frame.getInt();
+                if ((services & ~KNOWN_SERVICES) != 0) {
+                    break;
+                }
+                return written(id, MAP.updateServices(x, y, services));
+            }
+        }
+        return MapProtocol.statusResponse(id, MapProtocol.BAD_REQUEST);
+    }
+
+    /**
+     * Builds the response to a write.
+     *
+     * @param id      The id of the request.
+     * @param changed Whether the write changed a place.
+     * @return OK if it did, NOT_FOUND otherwise.
+     *         Time Complexity: O(1).
+     */
+    private static ByteBuffer written(int id, boolean changed) {
+        return MapProtocol.statusResponse(id, changed ? MapProtocol.OK : MapProtocol.NOT_FOUND);
+    }
+
+    /**
+     * Checks a service byte of a request.
+     *
+     * @param service The service byte.
+     * @return true if it names a service type or any place.
+     *         Time Complexity: O(1).
+     */
+    private static boolean isServiceByte(int service) {
+        return service >= MapProtocol.ANY_SERVICE && service < SERVICES.length;
+    }
+
+    /**
+     * Decodes a valid service byte.
+     *
+     * @param service The service byte.
+     * @return The service type, or null for any place.
+     *         Time Complexity: O(1).
+     */
+    private static ServiceType serviceOf(int service) {
+        return service == MapProtocol.ANY_SERVICE ? null : SERVICES[service];
+    }
+}
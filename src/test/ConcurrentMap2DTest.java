@@ -0,0 +1,150 @@
+package test;
+import enums.ServiceType;
+import maps.ConcurrentMap2D;
+import maps.Map2D;
+import models.Place;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import utils.ArrayList;
+import utils.Rectangle;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentMap2DTest {
+    private static final Rectangle BOUNDS = new Rectangle(500, 500, 1000, 1000);
+
+    @Test
+    void testMatchesSingleThreadedMap1() {
+        ConcurrentMap2D concurrent = new ConcurrentMap2D(BOUNDS, 8);
+        Map2D map = new Map2D(BOUNDS, 8);
+        Random rnd = new Random(11);
+        for (int i = 0; i < 5000; i++) {
+            Place place = new Place(1 << rnd.nextInt(6), rnd.nextInt(1001), rnd.nextInt(1001));
+            assertEquals(map.insert(place), concurrent.insert(place));
+        }
+        assertEquals(16, concurrent.stripeCount());
+        assertEquals(map.countChildren(), concurrent.countChildren());
+        for (int i = 0; i < 50; i++) {
+            Rectangle range = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), rnd.nextInt(400), rnd.nextInt(400));
+            assertEquals(map.count(range, ServiceType.ATM), concurrent.count(range, ServiceType.ATM));
+            assertEquals(map.search(range, null, null, 100000).size(),
+                    concurrent.search(range, null, null, 100000).size());
+        }
+        for (int i = 0; i < 50; i++) {
+            int x = rnd.nextInt(1001), y = rnd.nextInt(1001);
+            ArrayList<Place> expected = map.nearest(x, y, ServiceType.COFFEE, 5);
+            ArrayList<Place> actual = concurrent.nearest(x, y, ServiceType.COFFEE, 5);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(distance(expected.get(j), x, y), distance(actual.get(j), x, y),
+                        "Nearest places should be at the same distances");
+            }
+        }
+    }
+
+    @Test
+    void testOutOfBoundsIsRejected1() {
+        ConcurrentMap2D concurrent = new ConcurrentMap2D(BOUNDS, 8, 1);
+        assertFalse(concurrent.insert(new Place(ServiceType.ATM.getBinaryValue(), 1001, 0)));
+        assertFalse(concurrent.removePlace(-1, 0));
+        assertTrue(concurrent.insert(new Place(ServiceType.ATM.getBinaryValue(), 1000, 1000)));
+        assertTrue(concurrent.removePlace(1000, 1000));
+        assertEquals(0, concurrent.countChildren());
+    }
+
+    @Test
+    void testConcurrentWritersAndReaders1() throws InterruptedException {
+        ConcurrentMap2D concurrent = new ConcurrentMap2D(BOUNDS, 4, 2);
+        int writers = 4;
+        int readers = 4;
+        int perWriter = 3000;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writersDone = new CountDownLatch(writers);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[writers + readers];
+
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads[w] = new Thread(() -> {
+                try {
+                    start.await();
+                    // Each writer owns the x-coordinates congruent to its number, so coordinates never clash
+                    Random rnd = new Random(writer);
+                    for (int i = 0; i < perWriter; i++) {
+                        int x = rnd.nextInt(250) * writers + writer;
+                        int y = rnd.nextInt(1001);
+                        concurrent.insert(new Place(ServiceType.ATM.getBinaryValue(), x, y));
+                        if (i % 3 == 0) {
+                            assertTrue(concurrent.updateServices(x, y, ServiceType.HOTEL.getBinaryValue()));
+                        }
+                        if (i % 2 == 1) {
+                            assertTrue(concurrent.removePlace(x, y), "A place just inserted should be removable");
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    writersDone.countDown();
+                }
+            });
+        }
+        for (int r = 0; r < readers; r++) {
+            final int reader = r;
+            threads[writers + r] = new Thread(() -> {
+                try {
+                    start.await();
+                    Random rnd = new Random(100 + reader);
+                    while (writersDone.getCount() > 0) {
+                        Rectangle range = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), 300, 300);
+                        ArrayList<Place> found = concurrent.search(range, null, null, 1000);
+                        for (int i = 0; i < found.size(); i++) {
+                            assertTrue(range.isContains(found.get(i)), "Search results should lie in the range");
+                        }
+                        assertTrue(concurrent.count(range, null) >= 0);
+                        ArrayList<Place> nearest = concurrent.nearest(rnd.nextInt(1001), rnd.nextInt(1001), null, 3);
+                        assertTrue(nearest.size() <= 3);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get(), "No worker should fail");
+        int expected = writers * (perWriter / 2);
+        assertEquals(expected, concurrent.countChildren(), "Every insert without a matching removal should remain");
+        assertEquals(expected, concurrent.count(BOUNDS, null));
+        assertEquals(expected, concurrent.search(BOUNDS, null, null, Integer.MAX_VALUE).size());
+        assertEquals(concurrent.count(BOUNDS, ServiceType.ATM) + concurrent.count(BOUNDS, ServiceType.HOTEL),
+                expected, "Every place should offer exactly one of the two services");
+    }
+
+    private static long distance(Place place, int x, int y) {
+        long dx = (long) place.x - x;
+        long dy = (long) place.y - y;
+        return dx * dx + dy * dy;
+    }
+
+    @Test
+    void testNearestFarFromHugeMap1() {
+        ConcurrentMap2D map = new ConcurrentMap2D(new Rectangle(0, 0, 2000000000, 2000000000), 4);
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), -1000000000, 0));
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 0, 0));
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 1000000000, 0));
+        // The farthest place is more than 3e9 away, so its squared distance does not fit in a long
+        ArrayList<Place> nearest = map.nearest(Integer.MAX_VALUE, Integer.MAX_VALUE, null, 3);
+        assertEquals(3, nearest.size());
+        assertEquals(1000000000, nearest.get(0).x, "The nearest place should come first");
+        assertEquals(0, nearest.get(1).x);
+        assertEquals(-1000000000, nearest.get(2).x);
+        assertEquals(1000000000, map.nearest(Integer.MAX_VALUE, Integer.MAX_VALUE, null, 1).get(0).x);
+    }
+}
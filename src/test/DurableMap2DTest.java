@@ -0,0 +1,160 @@
+package test;
+import enums.Durability;
+import enums.ServiceType;
+import maps.DurableMap2D;
+import models.Place;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import utils.Rectangle;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DurableMap2DTest {
+    private static final Rectangle BOUNDS = new Rectangle(500, 500, 1000, 1000);
+
+    @Test
+    void testRecoverAfterCrash1() throws IOException {
+        Path directory = Files.createTempDirectory("durable");
+        try {
+            DurableMap2D map = DurableMap2D.open(directory, BOUNDS, 8, Durability.SYNC);
+            applyChanges(map);
+            int size = map.countChildren();
+            int hotels = map.count(BOUNDS, ServiceType.HOTEL);
+            // No close: every acknowledged SYNC change must already be on disk
+            DurableMap2D recovered = DurableMap2D.open(directory, BOUNDS, 8, Durability.SYNC);
+            assertEquals(size, recovered.countChildren(), "Replaying the log should restore every place");
+            assertEquals(hotels, recovered.count(BOUNDS, ServiceType.HOTEL), "Service updates should be replayed");
+            map.close();
+            recovered.close();
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    @Test
+    void testCheckpointEmptiesLog1() throws IOException {
+        Path directory = Files.createTempDirectory("durable");
+        try {
+            DurableMap2D map = DurableMap2D.open(directory, BOUNDS, 8, Durability.BATCH);
+            applyChanges(map);
+            map.checkpoint();
+            assertEquals(0, map.logSize(), "A checkpoint should empty the log");
+            assertTrue(map.insert(new Place(ServiceType.ATM.getBinaryValue(), 7, 7)));
+            int size = map.countChildren();
+            map.close();
+
+            DurableMap2D recovered = DurableMap2D.open(directory, BOUNDS, 8, Durability.BATCH);
+            assertEquals(size, recovered.countChildren(), "The snapshot and the log should be combined");
+            assertEquals(1, recovered.count(new Rectangle(7, 7, 0, 0), ServiceType.ATM));
+            recovered.close();
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    @Test
+    void testTornTailIsDiscarded1() throws IOException {
+        Path directory = Files.createTempDirectory("durable");
+        try {
+            DurableMap2D map = DurableMap2D.open(directory, BOUNDS, 8, Durability.NONE);
+            applyChanges(map);
+            int size = map.countChildren();
+            map.close();
+            // Simulate a crash in the middle of writing a record
+            Files.write(directory.resolve("map.wal"), new byte[] { 1, 0, 0, 0, 9, 9 }, StandardOpenOption.APPEND);
+
+            DurableMap2D recovered = DurableMap2D.open(directory, BOUNDS, 8, Durability.NONE);
+            assertEquals(size, recovered.countChildren(), "The torn record should be ignored");
+            assertTrue(recovered.insert(new Place(ServiceType.ATM.getBinaryValue(), 3, 3)));
+            recovered.close();
+            DurableMap2D reopened = DurableMap2D.open(directory, BOUNDS, 8, Durability.NONE);
+            assertEquals(size + 1, reopened.countChildren(), "Records after a cut tail should be replayed");
+            reopened.close();
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    @Test
+    void testCrashDuringCheckpointIsRecovered1() throws IOException {
+        Path directory = Files.createTempDirectory("durable");
+        try {
+            DurableMap2D map = DurableMap2D.open(directory, BOUNDS, 8, Durability.SYNC);
+            applyChanges(map);
+            int size = map.countChildren();
+            Path log = directory.resolve("map.wal");
+            Path fullLog = directory.resolve("full.wal");
+            Files.copy(log, fullLog);
+            map.checkpoint();
+            map.close();
+            // Simulate a crash after the snapshot was moved into place but before the log was emptied
+            Files.move(fullLog, log, StandardCopyOption.REPLACE_EXISTING);
+
+            DurableMap2D recovered = DurableMap2D.open(directory, BOUNDS, 8, Durability.SYNC);
+            assertEquals(size, recovered.countChildren(), "A log the snapshot covers should not be replayed");
+            assertTrue(recovered.insert(new Place(ServiceType.ATM.getBinaryValue(), 5, 5)));
+            recovered.close();
+            DurableMap2D reopened = DurableMap2D.open(directory, BOUNDS, 8, Durability.SYNC);
+            assertEquals(size + 1, reopened.countChildren(), "Changes after the recovery should be replayed");
+            reopened.close();
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    @Test
+    void testFailedLogStopsTheMap1() throws IOException {
+        Path directory = Files.createTempDirectory("durable");
+        try {
+            DurableMap2D map = DurableMap2D.open(directory, BOUNDS, 8, Durability.SYNC);
+            assertTrue(map.insert(new Place(ServiceType.ATM.getBinaryValue(), 1, 1)));
+            map.close();
+            // The closed log refuses the change, so the map must refuse everything after it
+            assertThrows(IOException.class, () -> map.insert(new Place(ServiceType.ATM.getBinaryValue(), 2, 2)));
+            assertThrows(IOException.class, () -> map.removePlace(1, 1));
+            assertThrows(IOException.class, () -> map.updateServices(1, 1, ServiceType.HOTEL.getBinaryValue()));
+            assertThrows(IOException.class, map::checkpoint);
+            assertThrows(IllegalStateException.class, map::countChildren);
+            assertThrows(IllegalStateException.class, () -> map.count(BOUNDS, ServiceType.ATM));
+            assertThrows(IllegalStateException.class, () -> map.search(BOUNDS, null, null, 10));
+            assertThrows(IllegalStateException.class, () -> map.nearest(1, 1, null, 1));
+
+            try (DurableMap2D reopened = DurableMap2D.open(directory, BOUNDS, 8, Durability.SYNC)) {
+                assertEquals(1, reopened.countChildren(), "Opening again should recover what the log holds");
+                assertEquals(1, reopened.count(BOUNDS, ServiceType.ATM));
+                assertTrue(reopened.insert(new Place(ServiceType.ATM.getBinaryValue(), 2, 2)));
+            }
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    private static void applyChanges(DurableMap2D map) throws IOException {
+        Random rnd = new Random(4);
+        int[] xs = new int[500], ys = new int[500];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            assertTrue(map.insert(new Place(ServiceType.ATM.getBinaryValue(), xs[i], ys[i])));
+        }
+        for (int i = 0; i < xs.length; i += 4) {
+            assertTrue(map.removePlace(xs[i], ys[i]));
+        }
+        for (int i = 1; i < xs.length; i += 4) {
+            assertTrue(map.updateServices(xs[i], ys[i], ServiceType.HOTEL.getBinaryValue()));
+        }
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,91 @@
+package test;
+import enums.ServiceType;
+import maps.LinearMap2D;
+import models.Place;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import utils.ArrayList;
+import utils.Rectangle;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LinearMap2DTest {
+    private static final Rectangle BOUNDS = new Rectangle(500, 500, 1000, 1000);
+
+    @Test
+    void testMatchesBruteForce1() {
+        LinearMap2D linear = new LinearMap2D(BOUNDS, 4);
+        Random rnd = new Random(22);
+        int count = 5000;
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        boolean[] taken = new boolean[1001 * 1001];
+        boolean[] removed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            // Half of the places crowd one corner, so full cells borrow slots from their neighbours
+            do {
+                xs[i] = i % 2 == 0 ? rnd.nextInt(1001) : rnd.nextInt(80);
+                ys[i] = i % 2 == 0 ? rnd.nextInt(1001) : rnd.nextInt(80);
+            } while (taken[xs[i] * 1001 + ys[i]]);
+            taken[xs[i] * 1001 + ys[i]] = true;
+            services[i] = 1 << rnd.nextInt(6);
+            assertTrue(linear.insert(new Place(services[i], xs[i], ys[i])));
+        }
+        assertFalse(linear.insert(new Place(1, 1001, 5)), "Places outside the bounds should be rejected");
+        for (int i = 0; i < count; i += 3) {
+            assertTrue(linear.removePlace(xs[i], ys[i]));
+            removed[i] = true;
+        }
+        assertFalse(linear.removePlace(xs[0], ys[0]));
+        assertEquals(count - (count + 2) / 3, linear.countChildren());
+        int atm = ServiceType.ATM.getBinaryValue();
+        for (int i = 0; i < 60; i++) {
+            Rectangle range = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), rnd.nextInt(500), rnd.nextInt(500));
+            int all = 0, atms = 0;
+            for (int j = 0; j < count; j++) {
+                if (!removed[j] && range.isContains(xs[j], ys[j])) {
+                    all++;
+                    atms += services[j] == atm ? 1 : 0;
+                }
+            }
+            assertEquals(all, linear.count(range, null));
+            assertEquals(atms, linear.count(range, ServiceType.ATM));
+            ArrayList<Place> found = linear.search(range, null, ServiceType.ATM, 100000);
+            assertEquals(atms, found.size());
+            for (int j = 0; j < found.size(); j++) {
+                assertTrue(range.isContains(found.get(j)));
+                assertEquals(atm, found.get(j).service);
+            }
+        }
+        assertEquals(10, linear.search(BOUNDS, null, null, 10).size(), "Search should stop at the capacity");
+    }
+
+    @Test
+    void testBulkLoadMatchesInserts1() {
+        Random rnd = new Random(23);
+        int count = 20000;
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(1100) - 50; // Some places fall outside the bounds
+            ys[i] = rnd.nextInt(1001);
+            services[i] = rnd.nextInt(64);
+        }
+        LinearMap2D loaded = new LinearMap2D(BOUNDS, LinearMap2D.levelsFor(count, 16));
+        LinearMap2D inserted = new LinearMap2D(BOUNDS, 3);
+        int expected = 0;
+        for (int i = 0; i < count; i++) {
+            expected += inserted.insert(new Place(services[i], xs[i], ys[i])) ? 1 : 0;
+        }
+        assertEquals(expected, loaded.bulkLoad(xs, ys, services, count));
+        assertEquals(expected, loaded.countChildren());
+        for (int i = 0; i < 40; i++) {
+            Rectangle range = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), rnd.nextInt(300), rnd.nextInt(300));
+            assertEquals(inserted.count(range, ServiceType.GAS_STATION), loaded.count(range, ServiceType.GAS_STATION));
+            assertEquals(inserted.count(range, null), loaded.count(range, null));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(BOUNDS.isContains(xs[i], ys[i]), loaded.removePlace(xs[i], ys[i]));
+        }
+        assertEquals(0, loaded.countChildren());
+        assertEquals(0, loaded.count(BOUNDS, null));
+        assertThrows(IllegalArgumentException.class, () -> new LinearMap2D(BOUNDS, 13));
+    }
+}
@@ -1,9 +1,23 @@
 package test;
+import enums.MatchMode;
 import enums.ServiceType;
 import maps.Map2D;
+import maps.Map2DMetrics;
+import maps.QueryCache;
+import maps.SearchCursor;
+import maps.SearchStats;
 import models.Place;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 import utils.ArrayList;
+import utils.LatencyHistogram;
 import utils.Rectangle;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -230,4 +244,880 @@ public class Map2DTest {
         ArrayList<Place> results = map.search(new Rectangle(205, 205, 25, 25), null, null, 10);
         assertEquals(2, results.size(), "Should find 2 places within search bounds");
     }
+
+    @Test
+    void testSearchReturnsPlaceValues1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 15);
+        map.insert(new Place(0b001010, 40, 70));
+        ArrayList<Place> results = map.search(new Rectangle(40, 70, 10, 10), null, ServiceType.ATM, 10);
+        assertEquals(1, results.size(), "Should find the place offering the service");
+        assertEquals(40, results.get(0).x);
+        assertEquals(70, results.get(0).y);
+        assertEquals(0b001010, results.get(0).service);
+    }
+
+    @Test
+    void testRemoveKeepsOtherPlaces1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 15);
+        map.insert(new Place(0b000001, 10, 10));
+        map.insert(new Place(0b000010, 20, 20));
+        map.insert(new Place(0b000100, 30, 30));
+        assertTrue(map.removePlace(20, 20), "Place should be removed successfully");
+        ArrayList<Place> results = map.search(new Rectangle(100, 100, 200, 200), null, null, 10);
+        assertEquals(2, results.size(), "Other places should remain after removal");
+        assertEquals(10, results.get(0).x);
+        assertEquals(30, results.get(1).x);
+    }
+
+    @Test
+    void testBulkLoadFindsAllPlaces1() {
+        Random rnd = new Random(42);
+        int count = 5000;
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            services[i] = 1 << rnd.nextInt(6);
+        }
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        assertEquals(count, map.bulkLoad(xs, ys, services, count), "Every place inside the bounds should be loaded");
+        assertEquals(count, map.countChildren(), "The tree should hold every loaded place");
+
+        Rectangle range = new Rectangle(300, 600, 250, 180);
+        int expected = 0;
+        for (int i = 0; i < count; i++) {
+            if (range.isContains(xs[i], ys[i]) && (services[i] & ServiceType.COFFEE.getBinaryValue()) != 0) {
+                expected++;
+            }
+        }
+        ArrayList<Place> results = map.search(range, null, ServiceType.COFFEE, count);
+        assertEquals(expected, results.size(), "Bulk-loaded tree should answer like a brute-force scan");
+    }
+
+    @Test
+    void testBulkLoadSkipsOutsideBounds1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 2);
+        int[] xs = { 10, 250, 20, 30, 199 };
+        int[] ys = { 10, 10, 20, 30, 199 };
+        int[] services = { 1, 1, 1, 1, 1 };
+        assertEquals(4, map.bulkLoad(xs, ys, services, 5), "Places outside bounds should be skipped");
+        assertTrue(map.removePlace(199, 199), "Bulk-loaded place should be removable");
+        assertTrue(map.insert(new Place(0b000001, 15, 15)), "Insert should still work after a bulk load");
+        assertEquals(4, map.countChildren());
+    }
+
+    @Test
+    void testBulkLoadIntoNonEmptyMap1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 2);
+        map.insert(new Place(0b000001, 50, 50));
+        ArrayList<Place> places = new ArrayList<>(3);
+        places.insert(new Place(0b000010, 60, 60));
+        places.insert(new Place(0b000010, 70, 70));
+        places.insert(new Place(0b000010, 80, 80));
+        assertEquals(3, map.bulkLoad(places), "Places should be inserted into a non-empty map");
+        assertEquals(4, map.search(new Rectangle(100, 100, 200, 200), null, null, 10).size());
+    }
+
+    @Test
+    void testParallelBulkLoadMatchesSequential1() {
+        Random rnd = new Random(7);
+        int count = 200000;
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(100001);
+            ys[i] = rnd.nextInt(100001);
+            services[i] = 1 << rnd.nextInt(6);
+        }
+        Map2D sequential = new Map2D(new Rectangle(50000, 50000, 100000, 100000), 16);
+        Map2D parallel = new Map2D(new Rectangle(50000, 50000, 100000, 100000), 16);
+        assertEquals(count, sequential.bulkLoad(xs, ys, services, count, 1));
+        assertEquals(count, parallel.bulkLoad(xs, ys, services, count, 4));
+        assertEquals(count, parallel.countChildren(), "The parallel build should hold every place");
+        assertEquals(sequential.calculateDepth(), parallel.calculateDepth(), "Both builds should have the same shape");
+
+        Rectangle range = new Rectangle(20000, 70000, 9000, 6000);
+        assertEquals(sequential.search(range, null, ServiceType.ATM, count).size(),
+                parallel.search(range, null, ServiceType.ATM, count).size(),
+                "Both builds should answer the same search");
+    }
+
+    @Test
+    void testGenerateRandomDataInParallel1() {
+        Map2D map = new Map2D(new Rectangle(10000000 / 2, 10000000 / 2, 10000000, 10000000), 64);
+        map.generateRandomData(100003, 3);
+        assertEquals(100003, map.countChildren(), "Every generated place should be in the tree");
+    }
+
+    @Test
+    void testNearestReturnsClosestInOrder1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 2);
+        map.insert(new Place(0b001000, 10, 10));
+        map.insert(new Place(0b001000, 52, 50));
+        map.insert(new Place(0b000001, 50, 51));
+        map.insert(new Place(0b001000, 60, 60));
+        map.insert(new Place(0b001000, 190, 190));
+        ArrayList<Place> results = map.nearest(50, 50, ServiceType.ATM, 3);
+        assertEquals(3, results.size(), "Should return k places");
+        assertEquals(52, results.get(0).x, "Closest ATM should come first");
+        assertEquals(60, results.get(1).x);
+        assertEquals(10, results.get(2).x);
+    }
+
+    @Test
+    void testNearestMatchesBruteForce1() {
+        Random rnd = new Random(11);
+        int count = 20000;
+        Map2D map = new Map2D(new Rectangle(50000, 50000, 100000, 100000), 32);
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(100001);
+            ys[i] = rnd.nextInt(100001);
+            services[i] = 1 << rnd.nextInt(6);
+            map.insert(new Place(services[i], xs[i], ys[i]));
+        }
+        int qx = 31234, qy = 77777, k = 10;
+        int bit = ServiceType.HOSPITAL.getBinaryValue();
+        long[] distances = new long[count];
+        int matching = 0;
+        for (int i = 0; i < count; i++) {
+            if ((services[i] & bit) != 0) {
+                long dx = xs[i] - qx, dy = ys[i] - qy;
+                distances[matching++] = dx * dx + dy * dy;
+            }
+        }
+        java.util.Arrays.sort(distances, 0, matching);
+        ArrayList<Place> results = map.nearest(qx, qy, ServiceType.HOSPITAL, k);
+        assertEquals(k, results.size());
+        for (int i = 0; i < k; i++) {
+            long dx = results.get(i).x - qx, dy = results.get(i).y - qy;
+            assertEquals(distances[i], dx * dx + dy * dy, "Result " + i + " should be the " + i + "-th closest");
+        }
+    }
+
+    @Test
+    void testNearestOnEmptyMap1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 15);
+        assertEquals(0, map.nearest(10, 10, null, 5).size(), "Empty map should return no places");
+        assertEquals(0, map.nearest(10, 10, null, Integer.MAX_VALUE).size());
+        map.insert(new Place(1, 20, 20));
+        map.insert(new Place(1, 30, 30));
+        ArrayList<Place> all = map.nearest(10, 10, null, Integer.MAX_VALUE);
+        assertEquals(2, all.size(), "A huge k should return every place without sizing anything by k");
+        assertEquals(20, all.get(0).x);
+    }
+
+    @Test
+    void testSearchStopsAtCapacity1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        for (int i = 0; i < 1000; i++) {
+            map.insert(new Place(0b000001, i, (i * 37) % 1000));
+        }
+        SearchStats limited = new SearchStats();
+        SearchStats unlimited = new SearchStats();
+        assertEquals(5, map.search(new Rectangle(500, 500, 1000, 1000), null, null, 5, limited).size());
+        assertEquals(1000, map.search(new Rectangle(500, 500, 1000, 1000), null, null, 1000, unlimited).size());
+        assertTrue(limited.getPointsTested() <= 5, "Search should stop testing points once the limit is reached");
+        assertTrue(limited.getNodesVisited() < unlimited.getNodesVisited(), "Search should stop visiting quads once the limit is reached");
+        assertEquals(1000, unlimited.getPointsTested(), "A full search should test every point");
+    }
+
+    @Test
+    void testServiceSummaryPrunesSearch1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        for (int i = 0; i < 500; i++) {
+            map.insert(new Place(ServiceType.HOTEL.getBinaryValue(), i * 2, (i * 37) % 1000));
+        }
+        map.insert(new Place(ServiceType.HOSPITAL.getBinaryValue(), 900, 900));
+        SearchStats stats = new SearchStats();
+        assertEquals(1, map.search(new Rectangle(500, 500, 1000, 1000), null, ServiceType.HOSPITAL, 50, stats).size());
+        assertTrue(stats.getNodesVisited() <= map.calculateDepth(), "Only the path to the hospital should be visited");
+
+        assertTrue(map.removePlace(900, 900));
+        stats.reset();
+        assertEquals(0, map.search(new Rectangle(500, 500, 1000, 1000), null, ServiceType.HOSPITAL, 50, stats).size());
+        assertEquals(0, stats.getNodesVisited(), "No quad should be visited once the last hospital is gone");
+    }
+
+    @Test
+    void testUpdateServices1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 1);
+        map.insert(new Place(ServiceType.HOTEL.getBinaryValue(), 20, 20));
+        map.insert(new Place(ServiceType.HOTEL.getBinaryValue(), 180, 180));
+        assertTrue(map.updateServices(180, 180, ServiceType.ATM.getBinaryValue()), "Existing place should be updated");
+        assertFalse(map.updateServices(5, 5, ServiceType.ATM.getBinaryValue()), "Missing place should not be updated");
+        assertEquals(1, map.search(new Rectangle(100, 100, 200, 200), null, ServiceType.ATM, 10).size());
+        assertEquals(1, map.search(new Rectangle(100, 100, 200, 200), null, ServiceType.HOTEL, 10).size());
+        assertEquals(1, map.nearest(0, 0, ServiceType.ATM, 5).size());
+    }
+
+    @Test
+    void testCountMatchesBruteForce1() {
+        Random rnd = new Random(3);
+        int count = 20000;
+        Map2D map = new Map2D(new Rectangle(50000, 50000, 100000, 100000), 16);
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(100001);
+            ys[i] = rnd.nextInt(100001);
+            services[i] = (1 << rnd.nextInt(6)) | (1 << rnd.nextInt(6));
+            map.insert(new Place(services[i], xs[i], ys[i]));
+        }
+        // Remove and edit some places so the counts must follow the mutations
+        for (int i = 0; i < count; i += 10) {
+            map.removePlace(xs[i], ys[i]);
+            services[i] = 0;
+        }
+        for (int i = 5; i < count; i += 10) {
+            services[i] = ServiceType.COFFEE.getBinaryValue();
+            map.updateServices(xs[i], ys[i], services[i]);
+        }
+        Rectangle range = new Rectangle(40000, 55000, 61000, 37000);
+        int expectedCoffee = 0, expectedAll = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % 10 != 0 && range.isContains(xs[i], ys[i])) {
+                expectedAll++;
+                if ((services[i] & ServiceType.COFFEE.getBinaryValue()) != 0) {
+                    expectedCoffee++;
+                }
+            }
+        }
+        assertEquals(expectedCoffee, map.count(range, ServiceType.COFFEE), "Count should match a brute-force scan");
+        assertEquals(expectedAll, map.count(range, null), "Count without a service should include every place");
+        assertEquals(count - count / 10, map.countChildren(), "Total count should follow removals");
+
+        // Ranges whose edge runs along the boundaries of the quads holding places
+        Map2D edges = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        int coffee = ServiceType.COFFEE.getBinaryValue();
+        int[] edgeXs = new int[80], edgeYs = new int[80];
+        for (int i = 0; i < 40; i++) {
+            edgeXs[i] = 480 + i;
+            edgeYs[i] = 500;
+            edgeXs[i + 40] = 500;
+            edgeYs[i + 40] = 480 + i;
+        }
+        for (int i = 0; i < edgeXs.length; i++) {
+            edges.insert(new Place(coffee, edgeXs[i], edgeYs[i]));
+        }
+        Rectangle[] touching = { new Rectangle(500, 450, 100, 100), new Rectangle(500, 550, 100, 100),
+                new Rectangle(450, 500, 100, 100), new Rectangle(550, 500, 100, 100), new Rectangle(550, 550, 100, 100) };
+        for (Rectangle edge : touching) {
+            int expected = 0;
+            for (int i = 0; i < edgeXs.length; i++) {
+                if (edge.isContains(edgeXs[i], edgeYs[i])) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, edges.count(edge, ServiceType.COFFEE), "Places on the edge of a range should count");
+            assertEquals(expected, edges.search(edge, null, null, 1000).size());
+        }
+    }
+
+    @Test
+    void testRemoveDuplicateCoordinates1() {
+        Map2D map = new Map2D(new Rectangle(100, 100, 200, 200), 1);
+        map.insert(new Place(ServiceType.HOTEL.getBinaryValue(), 40, 40));
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 40, 40));
+        map.insert(new Place(ServiceType.COFFEE.getBinaryValue(), 40, 40));
+        assertTrue(map.removePlace(40, 40), "First place at the coordinate should be removed");
+        assertTrue(map.removePlace(40, 40), "Second place at the coordinate should be removed");
+        assertTrue(map.updateServices(40, 40, ServiceType.HOSPITAL.getBinaryValue()), "Last place should still be found");
+        assertTrue(map.removePlace(40, 40), "Last place at the coordinate should be removed");
+        assertFalse(map.removePlace(40, 40), "No place should remain at the coordinate");
+        assertEquals(0, map.countChildren());
+    }
+
+    @Test
+    void testRemoveEveryPlaceAfterBulkLoad1() {
+        Random rnd = new Random(5);
+        int count = 30000;
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            services[i] = 1 << rnd.nextInt(6);
+        }
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        map.bulkLoad(xs, ys, services, count);
+        for (int i = count - 1; i >= 0; i--) {
+            assertTrue(map.removePlace(xs[i], ys[i]), "Every loaded place should be found through the index");
+        }
+        assertEquals(0, map.countChildren());
+        assertEquals(0, map.search(new Rectangle(500, 500, 1000, 1000), null, null, 10).size());
+    }
+
+    @Test
+    void testSearchResultsGrowPastInitialCapacity1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        for (int i = 0; i < 200; i++) {
+            map.insert(new Place(ServiceType.ATM.getBinaryValue(), i * 5, i * 5));
+        }
+        ArrayList<Place> found = map.search(new Rectangle(500, 500, 1000, 1000), null, ServiceType.ATM, 1000);
+        assertEquals(200, found.size(), "The result list should grow to hold every match");
+    }
+
+    @Test
+    void testArrayListRemoveUnordered1() {
+        ArrayList<Integer> list = new ArrayList<>(1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(list.insert(i), "Insert should grow the list instead of failing");
+        }
+        assertTrue(list.removeUnordered(1));
+        assertEquals(4, list.size());
+        assertEquals(Integer.valueOf(4), list.get(1), "The last element should move into the freed slot");
+        assertEquals(Integer.valueOf(3), list.removeUnorderedAt(3));
+        assertFalse(list.removeUnordered(7));
+        assertTrue(list.remove(0));
+        assertEquals(Integer.valueOf(4), list.get(0), "Ordered remove should shift the remaining elements");
+        assertEquals(Integer.valueOf(2), list.get(1));
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    void testSaveAndLoad1() throws IOException {
+        Random rnd = new Random(8);
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        for (int i = 0; i < 3000; i++) {
+            map.insert(new Place(1 << rnd.nextInt(6), rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        Path file = Files.createTempFile("map2d", ".bin");
+        try {
+            map.save(file);
+            Map2D loaded = Map2D.load(file);
+            assertEquals(map.countChildren(), loaded.countChildren());
+            assertEquals(map.calculateDepth(), loaded.calculateDepth(), "The quad structure should be kept");
+            for (int i = 0; i < 30; i++) {
+                Rectangle range = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), rnd.nextInt(300), rnd.nextInt(300));
+                assertEquals(map.count(range, ServiceType.ATM), loaded.count(range, ServiceType.ATM));
+                assertEquals(map.search(range, null, null, 100000).size(),
+                        loaded.search(range, null, null, 100000).size());
+            }
+            ArrayList<Place> all = map.search(new Rectangle(500, 500, 1000, 1000), null, null, 100000);
+            for (int i = 0; i < all.size(); i++) {
+                assertTrue(loaded.removePlace(all.get(i).x, all.get(i).y), "The loaded index should find every place");
+            }
+            assertEquals(0, loaded.countChildren());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testLoadRejectsOtherFiles1() throws IOException {
+        Path file = Files.createTempFile("map2d", ".bin");
+        try {
+            Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+            assertThrows(IOException.class, () -> Map2D.load(file));
+            Map2D map = new Map2D(new Rectangle(50, 50, 100, 100), 2);
+            map.insert(new Place(ServiceType.ATM.getBinaryValue(), 10, 10));
+            map.save(file);
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 4));
+            assertThrows(IOException.class, () -> Map2D.load(file), "A truncated file should be rejected");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testLoadRejectsCorruptTrees1() throws IOException {
+        Path file = Files.createTempFile("map2d", ".bin");
+        try {
+            Map2D map = new Map2D(new Rectangle(50, 50, 100, 100), 2);
+            map.insert(new Place(ServiceType.ATM.getBinaryValue(), 10, 10));
+            map.save(file);
+            byte[] saved = Files.readAllBytes(file);
+            // Header fields by int index: width 4, height 5, capacity 6, merge threshold 8
+            int[][] badHeaders = { { 6, 0 }, { 6, -5 }, { 4, -100 }, { 5, -100 }, { 8, 2 }, { 8, 7 } };
+            for (int[] bad : badHeaders) {
+                ByteBuffer header = ByteBuffer.wrap(saved.clone()).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(bad[0] * Integer.BYTES, bad[1]);
+                Files.write(file, header.array());
+                IOException e = assertThrows(IOException.class, () -> Map2D.load(file),
+                        "Header field " + bad[0] + " set to " + bad[1] + " should be rejected");
+                assertTrue(e.getMessage().startsWith("Corrupt Map2D file"));
+            }
+
+            ByteBuffer bytes = ByteBuffer.wrap(saved.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.putInt(14 * Integer.BYTES, 500); // The x-coordinate of the place, after the header and quad flags
+            Files.write(file, bytes.array());
+            assertThrows(IOException.class, () -> Map2D.load(file), "A place outside its quad should be rejected");
+
+            // A chain of divided quads nested deeper than the max depth of the tree
+            int depth = 40;
+            ByteBuffer deep = ByteBuffer.allocate((12 + 2 * (4 * depth + 1)) * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            deep.putInt(0x4D324454).putInt(3).putInt(50).putInt(50).putInt(100).putInt(100);
+            deep.putInt(2).putInt(32).putInt(0).putInt(-1).putInt(-1).putInt(0);
+            for (int i = 0; i < depth; i++) {
+                deep.putInt(1).putInt(0);
+            }
+            for (int i = 0; i < 3 * depth + 1; i++) {
+                deep.putInt(0).putInt(0);
+            }
+            Files.write(file, deep.array());
+            assertThrows(IOException.class, () -> Map2D.load(file), "Nesting past the max depth should be rejected");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testCursorMatchesSearch1() {
+        Random rnd = new Random(14);
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        for (int i = 0; i < 2000; i++) {
+            map.insert(new Place(1 << rnd.nextInt(6), rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        Rectangle range = new Rectangle(400, 600, 500, 300);
+        ArrayList<Place> expected = map.search(range, null, ServiceType.ATM, Integer.MAX_VALUE);
+        SearchCursor cursor = map.cursor(range, ServiceType.ATM);
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(cursor.hasNext());
+            Place place = cursor.next();
+            assertEquals(expected.get(i).x, place.x, "The cursor should visit places in search order");
+            assertEquals(expected.get(i).y, place.y);
+        }
+        assertFalse(cursor.hasNext());
+        assertNull(cursor.pageToken(), "A finished cursor should have no page token");
+    }
+
+    @Test
+    void testCursorPagesWithTokens1() {
+        Random rnd = new Random(15);
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        for (int i = 0; i < 3000; i++) {
+            map.insert(new Place(ServiceType.HOTEL.getBinaryValue(), rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        Rectangle range = new Rectangle(500, 500, 600, 600);
+        int expected = map.count(range, ServiceType.HOTEL);
+        int total = 0;
+        String token = null;
+        do {
+            SearchCursor cursor = map.cursor(range, ServiceType.HOTEL, token);
+            ArrayList<Place> page = cursor.nextPage(50);
+            assertTrue(page.size() <= 50);
+            for (int i = 0; i < page.size(); i++) {
+                Place place = page.get(i);
+                assertTrue(range.isContains(place));
+                total++;
+            }
+            token = cursor.pageToken();
+        } while (token != null);
+        assertEquals(expected, total, "Paging should return every place exactly once");
+        assertThrows(IllegalArgumentException.class, () -> map.cursor(range, null, "9:0"));
+    }
+
+    @Test
+    void testCursorFailsAfterChange1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        for (int i = 0; i < 20; i++) {
+            map.insert(new Place(ServiceType.ATM.getBinaryValue(), i * 10, i * 10));
+        }
+        SearchCursor cursor = map.cursor(new Rectangle(500, 500, 1000, 1000), null);
+        cursor.next();
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 999, 999));
+        assertThrows(java.util.ConcurrentModificationException.class, cursor::hasNext);
+    }
+
+    @Test
+    void testSearchBatchMatchesSearch1() {
+        Random rnd = new Random(16);
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        for (int i = 0; i < 4000; i++) {
+            map.insert(new Place(1 << rnd.nextInt(6), rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        Rectangle[] ranges = new Rectangle[200];
+        ServiceType[] serviceTypes = new ServiceType[ranges.length];
+        for (int q = 0; q < ranges.length; q++) {
+            ranges[q] = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), rnd.nextInt(200), rnd.nextInt(200));
+            serviceTypes[q] = q % 3 == 0 ? null : ServiceType.getServiceByIndex(rnd.nextInt(6));
+        }
+        ArrayList<ArrayList<Place>> results = map.searchBatch(ranges, serviceTypes, 5);
+        assertEquals(ranges.length, results.size());
+        for (int q = 0; q < ranges.length; q++) {
+            ArrayList<Place> expected = map.search(ranges[q], null, serviceTypes[q], 5);
+            ArrayList<Place> actual = results.get(q);
+            assertEquals(expected.size(), actual.size(), "Each query should get the same places as a single search");
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).x, actual.get(i).x);
+                assertEquals(expected.get(i).y, actual.get(i).y);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> map.searchBatch(ranges, new ServiceType[1], 5));
+    }
+
+    @Test
+    void testSearchWithServiceMask1() {
+        Random rnd = new Random(17);
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        int count = 3000;
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            services[i] = rnd.nextInt(64); // Any combination of the six services
+            map.insert(new Place(services[i], xs[i], ys[i]));
+        }
+        int restaurantAndAtm = ServiceType.RESTAURANT.getBinaryValue() | ServiceType.ATM.getBinaryValue();
+        int hotelOrGas = ServiceType.HOTEL.getBinaryValue() | ServiceType.GAS_STATION.getBinaryValue();
+        Rectangle range = new Rectangle(300, 700, 500, 400);
+        int all = 0, any = 0;
+        for (int i = 0; i < count; i++) {
+            if (range.isContains(xs[i], ys[i])) {
+                all += (services[i] & restaurantAndAtm) == restaurantAndAtm ? 1 : 0;
+                any += (services[i] & hotelOrGas) != 0 ? 1 : 0;
+            }
+        }
+        ArrayList<Place> found = map.search(range, null, restaurantAndAtm, MatchMode.ALL, count);
+        assertEquals(all, found.size(), "ALL should match places offering every service of the mask");
+        for (int i = 0; i < found.size(); i++) {
+            assertEquals(restaurantAndAtm, found.get(i).service & restaurantAndAtm);
+        }
+        found = map.search(range, null, hotelOrGas, MatchMode.ANY, count);
+        assertEquals(any, found.size(), "ANY should match places offering at least one service of the mask");
+        assertEquals(map.search(range, null, null, count).size(), map.search(range, null, 0, MatchMode.ANY, count).size(),
+                "An empty mask should match every place");
+    }
+
+    @Test
+    void testAdaptiveSplitStopsAtMaxDepth1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4, 3, 1);
+        Random rnd = new Random(18);
+        for (int i = 0; i < 2000; i++) {
+            map.insert(new Place(1, rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        assertEquals(2000, map.countChildren());
+        assertTrue(map.calculateDepth() <= 4, "Quads below the max depth should not split");
+        assertEquals(2000, map.search(new Rectangle(500, 500, 1000, 1000), null, null, 2000).size());
+        assertThrows(IllegalArgumentException.class, () -> new Map2D(new Rectangle(0, 0, 10, 10), 0, 4, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Map2D(new Rectangle(0, 0, 10, 10), 8, 33, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Map2D(new Rectangle(0, 0, 10, 10), 8, 4, 8),
+                "A merge threshold reaching the bucket size would split and merge on every change");
+    }
+
+    @Test
+    void testRemoveMergesSparseSubtrees1() throws IOException {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8, 16, 4);
+        Random rnd = new Random(19);
+        int count = 3000;
+        int[] xs = new int[count], ys = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            map.insert(new Place(1 << (i % 6), xs[i], ys[i]));
+        }
+        int depth = map.calculateDepth();
+        for (int i = 0; i < count - 3; i++) {
+            assertTrue(map.removePlace(xs[i], ys[i]));
+        }
+        assertEquals(3, map.countChildren());
+        assertTrue(map.calculateDepth() < depth, "Sparse subtrees should merge back");
+        assertEquals(1, map.calculateDepth(), "Three places fit in the root once merged");
+        Path file = Files.createTempFile("map2d", ".bin");
+        try {
+            map.save(file);
+            Map2D loaded = Map2D.load(file);
+            for (int i = count - 3; i < count; i++) {
+                assertTrue(loaded.removePlace(xs[i], ys[i]), "Merged places should stay indexed");
+            }
+            assertEquals(0, loaded.countChildren());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testSubdividePushesPointsToLeaves1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        map.insert(new Place(1, 100, 100));
+        map.insert(new Place(2, 900, 100));
+        map.insert(new Place(4, 100, 900));
+        map.insert(new Place(8, 900, 900));
+        map.insert(new Place(16, 200, 200));
+        assertEquals(5, map.search(new Rectangle(500, 500, 1000, 1000), null, null, 10).size());
+        SearchStats stats = new SearchStats();
+        map.search(new Rectangle(900, 900, 10, 10), null, null, 10, stats);
+        assertEquals(1, stats.getPointsTested(), "Only the leaf holding the place should be scanned");
+        assertTrue(map.removePlace(100, 100), "Pushed down places should stay indexed");
+        assertTrue(map.removePlace(900, 900));
+        assertEquals(3, map.countChildren());
+    }
+
+    @Test
+    void testRebalanceCompactsTree1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 4);
+        Random rnd = new Random(20);
+        int count = 2000;
+        int[] xs = new int[count], ys = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            map.insert(new Place(1 << (i % 6), xs[i], ys[i]));
+        }
+        for (int i = 0; i < count - 50; i++) {
+            map.removePlace(xs[i], ys[i]);
+        }
+        int depth = map.calculateDepth();
+        Rectangle range = new Rectangle(400, 600, 700, 500);
+        int before = map.count(range, ServiceType.HOTEL);
+        map.rebalance();
+        assertEquals(50, map.countChildren());
+        assertTrue(map.calculateDepth() < depth, "Emptied quads should be dropped");
+        assertEquals(before, map.count(range, ServiceType.HOTEL));
+        for (int i = count - 50; i < count; i++) {
+            assertTrue(map.removePlace(xs[i], ys[i]), "The rebuilt index should find every place");
+        }
+        map.rebalance();
+        assertEquals(0, map.countChildren());
+    }
+
+    @Test
+    void testLatencyHistogramPercentiles1() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 1e-9);
+        assertTrue(Math.abs(histogram.getPercentile(50) - 50000) <= 50000 * 0.04, "p50 should be within the bucket error");
+        assertTrue(Math.abs(histogram.getPercentile(99) - 99000) <= 99000 * 0.04, "p99 should be within the bucket error");
+        assertTrue(histogram.getPercentile(99.9) >= 99900 && histogram.getPercentile(99.9) <= 100000);
+        assertEquals(100000, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    void testMetricsRecordOperations1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        assertNull(map.getMetrics(), "Metrics should be off by default");
+        Random rnd = new Random(24);
+        int[] xs = new int[500], ys = new int[500];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            map.insert(new Place(1 << (i % 6), xs[i], ys[i]));
+        }
+        Map2DMetrics metrics = map.enableMetrics();
+        for (int i = 0; i < 100; i++) {
+            map.insert(new Place(1, rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        SearchStats stats = new SearchStats();
+        long returned = 0;
+        for (int i = 0; i < 40; i++) {
+            Rectangle range = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), rnd.nextInt(300), rnd.nextInt(300));
+            returned += map.search(range, null, null, 1000, stats).size();
+        }
+        for (int i = 0; i < 30; i++) {
+            map.updateServices(xs[i], ys[i], 2);
+            map.remove(xs[i + 100], ys[i + 100]);
+        }
+        assertFalse(map.updateServices(-5, -5, 2));
+        InputStream stdin = System.in;
+        try {
+            System.setIn(new ByteArrayInputStream("1 3\n".getBytes()));
+            assertTrue(map.editPLace(xs[200], ys[200]).hasService(ServiceType.getServiceByIndex(3)));
+        } finally {
+            System.setIn(stdin);
+        }
+        assertEquals(100, metrics.getInsertLatency().getCount());
+        assertEquals(40, metrics.getSearchLatency().getCount());
+        assertEquals(32, metrics.getEditLatency().getCount(), "Misses and interactive edits should be recorded");
+        assertEquals(30, metrics.getRemoveLatency().getCount());
+        assertTrue(metrics.getSearchLatency().getPercentile(50) <= metrics.getSearchLatency().getPercentile(99.9));
+        assertEquals(40, stats.getSearches());
+        assertEquals(returned, stats.getPlacesReturned());
+        assertEquals(returned, metrics.getSearchTotals().getPlacesReturned());
+        assertEquals(stats.getPointsTested(), metrics.getSearchTotals().getPointsTested(),
+                "The caller's stats and the metrics should count the same work");
+        assertEquals(40, metrics.getPointsPerSearch().getCount());
+        assertNotNull(metrics.getSlowestSearchRange());
+        map.disableMetrics();
+        map.insert(new Place(1, 5, 5));
+        assertEquals(100, metrics.getInsertLatency().getCount(), "Disabled metrics should record nothing");
+    }
+
+    @Test
+    void testQueryCacheServesRepeatedViewports1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        Random rnd = new Random(23);
+        for (int i = 0; i < 2000; i++) {
+            map.insert(new Place(1 << (i % 6), rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        QueryCache cache = new QueryCache(map, 50, 4);
+        Rectangle viewport = new Rectangle(310, 420, 120, 80);
+        Rectangle shifted = new Rectangle(312, 418, 116, 84);
+        ArrayList<Place> first = cache.search(viewport, ServiceType.ATM, 1000);
+        ArrayList<Place> again = cache.search(shifted, ServiceType.ATM, 1000);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits(), "A viewport snapping to the same cells should be a hit");
+        assertEquals(map.search(viewport, null, ServiceType.ATM, 1000).size(), first.size(),
+                "The results should be the places of the requested range");
+        assertEquals(map.search(shifted, null, ServiceType.ATM, 1000).size(), again.size());
+        for (int i = 0; i < again.size(); i++) {
+            assertTrue(shifted.isContains(again.get(i).x, again.get(i).y));
+            assertTrue(again.get(i).hasService(ServiceType.ATM));
+        }
+        cache.search(new Rectangle(310, 420, 120, 80), ServiceType.HOTEL, 1000);
+        cache.search(new Rectangle(310, 420, 120, 80), ServiceType.ATM, 5);
+        assertEquals(3, cache.getMisses(), "Service and K should be part of the key");
+        for (int i = 0; i < 4; i++) {
+            cache.search(new Rectangle(100 * i + 50, 900, 20, 20), null, 10);
+        }
+        assertEquals(4, cache.size(), "The cache should stay within its capacity");
+        cache.search(new Rectangle(310, 420, 120, 80), ServiceType.ATM, 1000);
+        assertEquals(1, cache.getHits(), "The least recently used entries should have been evicted");
+    }
+
+    @Test
+    void testQueryCacheInvalidatesOnlyAffectedEntries1() {
+        Map2D map = new Map2D(new Rectangle(500, 500, 1000, 1000), 8);
+        Random rnd = new Random(25);
+        for (int i = 0; i < 1000; i++) {
+            map.insert(new Place(1, rnd.nextInt(1001), rnd.nextInt(1001)));
+        }
+        QueryCache cache = new QueryCache(map, 32, 64);
+        Rectangle west = new Rectangle(100, 500, 60, 60);
+        Rectangle east = new Rectangle(900, 500, 60, 60);
+        Rectangle all = new Rectangle(500, 500, 1000, 1000);
+        int westBefore = cache.search(west, null, 1000).size();
+        int eastBefore = cache.search(east, null, 1000).size();
+        cache.search(all, null, 5000);
+        assertTrue(cache.insert(new Place(1, 101, 499)));
+        assertEquals(2, cache.getInvalidations(), "Only the entries holding the new place should be dropped");
+        assertEquals(1, cache.size());
+        assertEquals(eastBefore, cache.search(east, null, 1000).size());
+        assertEquals(1, cache.getHits());
+        assertEquals(westBefore + 1, cache.search(west, null, 1000).size());
+        assertEquals(0, cache.search(west, ServiceType.COFFEE, 1000).size());
+        assertTrue(cache.updateServices(101, 499, ServiceType.COFFEE.getBinaryValue()));
+        assertEquals(1, cache.search(west, ServiceType.COFFEE, 1000).size(), "An edit should drop the stale entry");
+        assertTrue(cache.removePlace(101, 499));
+        assertEquals(westBefore, cache.search(west, null, 1000).size());
+        map.insert(new Place(1, 899, 501));
+        assertEquals(eastBefore + 1, cache.search(east, null, 1000).size(),
+                "A write made directly to the map should clear the cache");
+    }
+
+    @Test
+    void testQueryCacheInvalidatesOnSnappedEdge1() {
+        Map2D map = new Map2D(new Rectangle(50, 50, 100, 100), 8);
+        QueryCache cache = new QueryCache(map, 10, 8);
+        Rectangle range = new Rectangle(5, 5, 8, 8); // Snaps to the single cell [0, 10) x [0, 10)
+        assertEquals(0, cache.search(range, null, 10).size());
+        assertTrue(cache.insert(new Place(1, 10, 10)));
+        assertEquals(new QueryCache(map, 10, 8).search(range, null, 10).size(), cache.search(range, null, 10).size(),
+                "A cached entry should agree with a fresh search after a write on its edge");
+        assertEquals(0, cache.search(range, null, 10).size(), "The first point of the next cell is not in the cell");
+        assertTrue(cache.insert(new Place(1, 9, 9)));
+        assertEquals(1, cache.getInvalidations(), "Only a write inside the cell should drop the entry");
+        assertEquals(1, cache.search(range, null, 10).size());
+        assertEquals(1, cache.search(new Rectangle(14, 14, 8, 8), null, 10).size(),
+                "The place on the edge should be found through its own cell");
+    }
+
+    @Test
+    void testQueryCacheMatchesSearchAcrossBounds1() {
+        Map2D map = new Map2D(new Rectangle(0, 0, 1000, 1000), 8);
+        Random rnd = new Random(29);
+        for (int i = 0; i < 3000; i++) {
+            map.insert(new Place(1 << rnd.nextInt(6), rnd.nextInt(1001) - 500, rnd.nextInt(1001) - 500));
+        }
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), -499, 0));
+        QueryCache cache = new QueryCache(map, 100, 32);
+        assertEquals(0, cache.search(new Rectangle(-5000, 0, 10, 10), null, 10).size(),
+                "A range outside the map should find nothing");
+        assertEquals(0, cache.size(), "A range outside the map should not be cached");
+        Rectangle[] ranges = { new Rectangle(-520, 0, 60, 60), new Rectangle(480, 480, 100, 100),
+                new Rectangle(0, -510, 300, 40), new Rectangle(-600, 600, 150, 150), new Rectangle(0, 0, 3000, 3000),
+                new Rectangle(130, 70, 90, 50), new Rectangle(-250, 260, 180, 220) };
+        for (int round = 0; round < 2; round++) {
+            for (Rectangle range : ranges) {
+                for (int k : new int[] { 3, 40, 100000 }) {
+                    ArrayList<Place> expected = map.search(range, null, ServiceType.ATM, k);
+                    ArrayList<Place> actual = cache.search(range, ServiceType.ATM, k);
+                    assertEquals(expected.size(), actual.size(), "The cache should agree with the map on " + range.x
+                            + ", " + range.y + " for k = " + k);
+                    for (int i = 0; i < actual.size(); i++) {
+                        assertTrue(range.isContains(actual.get(i).x, actual.get(i).y),
+                                "Every cached result should lie in the range");
+                    }
+                }
+            }
+        }
+        assertTrue(cache.getHits() > 0, "Repeated ranges should be answered from the cache");
+    }
+
+    @Test
+    void testTileSampleMaintainedIncrementally1() {
+        Rectangle bounds = new Rectangle(500, 500, 1000, 1000);
+        Map2D map = new Map2D(bounds, 8, 12, 2);
+        Random rnd = new Random(26);
+        int[] xs = new int[3000], ys = new int[3000];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i % 1000;
+            ys[i] = rnd.nextInt(1001);
+            map.insert(new Place(1 << rnd.nextInt(6), xs[i], ys[i]));
+        }
+        for (int i = 0; i < 1000; i++) {
+            map.remove(xs[i], ys[i]);
+            map.updateServices(xs[i + 1000], ys[i + 1000], 1 << rnd.nextInt(6));
+        }
+        for (ServiceType serviceType : new ServiceType[] { null, ServiceType.HOTEL, ServiceType.ATM }) {
+            ArrayList<Place> incremental = map.sample(bounds, serviceType, 0);
+            map.rebalance();
+            ArrayList<Place> rebuilt = map.sample(bounds, serviceType, 0);
+            assertEquals(8, incremental.size(), "The root should keep a full sample");
+            assertEquals(rebuilt.size(), incremental.size());
+            for (int i = 0; i < rebuilt.size(); i++) {
+                assertEquals(rebuilt.get(i).x, incremental.get(i).x, "Updates should keep the same sample as a rebuild");
+                assertEquals(rebuilt.get(i).y, incremental.get(i).y);
+                assertEquals(rebuilt.get(i).service, incremental.get(i).service);
+                assertTrue(serviceType == null || incremental.get(i).hasService(serviceType));
+            }
+        }
+    }
+
+    @Test
+    void testTileSampleCoversZoomLevels1() {
+        Rectangle bounds = new Rectangle(500, 500, 1000, 1000);
+        Map2D map = new Map2D(bounds, 16, 16, 4);
+        Random rnd = new Random(27);
+        int count = 20000;
+        int[] xs = new int[count], ys = new int[count], services = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            services[i] = 1 << (i % 6);
+        }
+        map.bulkLoad(xs, ys, services, count);
+        Rectangle view = new Rectangle(400, 600, 500, 300);
+        ArrayList<Place> coarse = map.sample(view, ServiceType.COFFEE, 1);
+        ArrayList<Place> finer = map.sample(view, ServiceType.COFFEE, 3);
+        assertTrue(coarse.size() > 0 && coarse.size() <= 4 * 8, "Each of the 4 tiles holds at most 8 places");
+        assertTrue(finer.size() > coarse.size() && finer.size() <= 64 * 8);
+        for (int i = 0; i < finer.size(); i++) {
+            Place place = finer.get(i);
+            assertTrue(view.isContains(place) && place.hasService(ServiceType.COFFEE));
+        }
+        assertEquals(8, map.sample(bounds, ServiceType.COFFEE, 0).size(), "Zoom 0 should read the root alone");
+        assertEquals(0, new Map2D(bounds, 16).sample(bounds, null, 3).size());
+    }
+
+    @Test
+    void testNearestFarFromHugeMap1() {
+        Map2D map = new Map2D(new Rectangle(0, 0, 2000000000, 2000000000), 4);
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), -1000000000, 0));
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 0, 0));
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 1000000000, 0));
+        // The farthest place is more than 3e9 away, so its squared distance does not fit in a long
+        ArrayList<Place> nearest = map.nearest(Integer.MAX_VALUE, Integer.MAX_VALUE, null, 3);
+        assertEquals(3, nearest.size());
+        assertEquals(1000000000, nearest.get(0).x, "The nearest place should come first");
+        assertEquals(0, nearest.get(1).x);
+        assertEquals(-1000000000, nearest.get(2).x);
+        assertEquals(1000000000, map.nearest(Integer.MAX_VALUE, Integer.MAX_VALUE, null, 1).get(0).x);
+    }
 }
@@ -0,0 +1,204 @@
+package test;
+import enums.ServiceType;
+import maps.ConcurrentMap2D;
+import models.Place;
+import server.MapProtocol;
+import server.MapServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import utils.ArrayList;
+import utils.Rectangle;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MapServerTest {
+    private static final Rectangle BOUNDS = new Rectangle(500, 500, 1000, 1000);
+
+    private static SocketChannel connect(MapServer server) throws IOException {
+        return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+    }
+
+    private static void send(SocketChannel channel, ByteBuffer requests) throws IOException {
+        requests.flip();
+        while (requests.hasRemaining()) {
+            channel.write(requests);
+        }
+        requests.clear();
+    }
+
+    // Reads one response frame; returns its body positioned after the id, or null at the end of the stream
+    private static ByteBuffer receive(SocketChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(channel, length)) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length.flip().getInt());
+        assertTrue(readFully(channel, body), "The frame should be complete");
+        return body.flip();
+    }
+
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void testPipelinedRequests1() throws IOException {
+        ConcurrentMap2D map = new ConcurrentMap2D(BOUNDS, 8);
+        try (MapServer server = new MapServer(map, 0); SocketChannel channel = connect(server)) {
+            Random rnd = new Random(31);
+            int inserts = 2000;
+            ByteBuffer requests = ByteBuffer.allocate(64 * inserts);
+            for (int id = 0; id < inserts; id++) {
+                MapProtocol.writeInsert(requests, id, new Place(1 << (id % 6), rnd.nextInt(1001), rnd.nextInt(1001)));
+            }
+            MapProtocol.writeInsert(requests, inserts, new Place(1, 5000, 5000));
+            send(channel, requests);
+            boolean[] answered = new boolean[inserts + 1];
+            int accepted = 0;
+            for (int i = 0; i <= inserts; i++) {
+                ByteBuffer response = receive(channel);
+                int id = response.getInt();
+                assertFalse(answered[id], "Every request should be answered once");
+                answered[id] = true;
+                if (response.get() == MapProtocol.OK) {
+                    accepted++;
+                }
+            }
+            assertEquals(map.countChildren(), accepted);
+            assertTrue(accepted <= inserts, "The place out of bounds should be refused");
+
+            Rectangle range = new Rectangle(300, 600, 400, 200);
+            MapProtocol.writeSearch(requests, 1, range, ServiceType.ATM, 100000);
+            MapProtocol.writeCount(requests, 2, range, ServiceType.ATM);
+            MapProtocol.writeNearest(requests, 3, 500, 500, null, 7);
+            send(channel, requests);
+            ArrayList<Place> found = null, nearest = null;
+            int count = -1;
+            for (int i = 0; i < 3; i++) {
+                ByteBuffer response = receive(channel);
+                int id = response.getInt();
+                assertEquals(MapProtocol.OK, response.get());
+                switch (id) {
+                    case 1 -> found = MapProtocol.readPlaces(response);
+                    case 2 -> count = response.getInt();
+                    default -> nearest = MapProtocol.readPlaces(response);
+                }
+            }
+            assertEquals(count, found.size());
+            assertEquals(map.search(range, null, ServiceType.ATM, 100000).size(), found.size());
+            for (int i = 0; i < found.size(); i++) {
+                assertTrue(range.isContains(found.get(i)) && found.get(i).hasService(ServiceType.ATM));
+            }
+            assertEquals(7, nearest.size());
+
+            Place target = found.get(0);
+            MapProtocol.writeUpdate(requests, 4, target.x, target.y, ServiceType.HOTEL.getBinaryValue());
+            send(channel, requests);
+            assertEquals(MapProtocol.OK, receive(channel).get(Integer.BYTES));
+            MapProtocol.writeRemove(requests, 5, target.x, target.y);
+            send(channel, requests);
+            assertEquals(MapProtocol.OK, receive(channel).get(Integer.BYTES));
+            MapProtocol.writeRemove(requests, 6, target.x, target.y);
+            send(channel, requests);
+            ByteBuffer missing = receive(channel);
+            assertEquals(6, missing.getInt());
+            assertEquals(MapProtocol.NOT_FOUND, missing.get());
+            assertEquals(accepted - 1, map.countChildren());
+        }
+    }
+
+    @Test
+    void testPipelineIsBoundedPerConnection1() throws IOException, InterruptedException {
+        ConcurrentMap2D map = new ConcurrentMap2D(BOUNDS, 8);
+        CountDownLatch open = new CountDownLatch(1);
+        AtomicInteger queued = new AtomicInteger();
+        // A worker that waits for the latch, so every request read stays unanswered until then
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable task) {
+                queued.incrementAndGet();
+                super.execute(task);
+            }
+
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                try {
+                    open.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try (MapServer server = new MapServer(map, 0, workers); SocketChannel channel = connect(server)) {
+            int requests = 5000; // About 130 KB of frames, more than one read and far more than the cap
+            ByteBuffer out = ByteBuffer.allocate(64 * requests);
+            for (int id = 0; id < requests; id++) {
+                MapProtocol.writeCount(out, id, BOUNDS, null);
+            }
+            send(channel, out);
+            Thread.sleep(200);
+            int queuedBeforeAnswers = queued.get();
+            open.countDown();
+            for (int i = 0; i < requests; i++) {
+                ByteBuffer response = receive(channel);
+                response.getInt();
+                assertEquals(MapProtocol.OK, response.get());
+            }
+            assertTrue(queuedBeforeAnswers > 0 && queuedBeforeAnswers <= 1024,
+                    "At most MAX_IN_FLIGHT requests should be queued, not " + queuedBeforeAnswers);
+
+            // A frame larger than the input buffer, followed by an ordinary request
+            ByteBuffer large = ByteBuffer.allocate(200 * 1024);
+            large.putInt(100 * 1024).putInt(1).put((byte) 4).position(Integer.BYTES + 100 * 1024);
+            MapProtocol.writeInsert(large, 2, new Place(1, 10, 10));
+            send(channel, large);
+            ByteBuffer refused = receive(channel);
+            assertEquals(1, refused.getInt());
+            assertEquals(MapProtocol.BAD_REQUEST, refused.get());
+            ByteBuffer inserted = receive(channel);
+            assertEquals(2, inserted.getInt());
+            assertEquals(MapProtocol.OK, inserted.get());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    void testRejectsMalformedRequests1() throws IOException {
+        ConcurrentMap2D map = new ConcurrentMap2D(BOUNDS, 8);
+        try (MapServer server = new MapServer(map, 0); SocketChannel channel = connect(server)) {
+            ByteBuffer requests = ByteBuffer.allocate(256);
+            requests.putInt(5).putInt(1).put((byte) 42); // Unknown operation
+            MapProtocol.writeSearch(requests, 2, BOUNDS, null, -1); // Negative k
+            requests.putInt(6).putInt(3).put((byte) 4).put((byte) 0); // Removal with missing arguments
+            MapProtocol.writeInsert(requests, 4, new Place(1 << 20, 10, 10)); // Unknown service
+            send(channel, requests);
+            for (int i = 0; i < 4; i++) {
+                ByteBuffer response = receive(channel);
+                response.getInt();
+                assertEquals(MapProtocol.BAD_REQUEST, response.get());
+            }
+            assertEquals(0, map.countChildren());
+            MapProtocol.writeInsert(requests, 5, new Place(1, 10, 10));
+            send(channel, requests);
+            assertEquals(MapProtocol.OK, receive(channel).get(Integer.BYTES), "The connection should still work");
+            requests.putInt(MapProtocol.MAX_FRAME_BYTES + 1);
+            send(channel, requests);
+            assertNull(receive(channel), "A frame that cannot be framed should close the connection");
+        }
+    }
+}
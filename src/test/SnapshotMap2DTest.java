@@ -0,0 +1,129 @@
+package test;
+import enums.ServiceType;
+import maps.Map2D;
+import maps.SnapshotMap2D;
+import models.Place;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import utils.ArrayList;
+import utils.Rectangle;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotMap2DTest {
+    private static final Rectangle BOUNDS = new Rectangle(500, 500, 1000, 1000);
+
+    @Test
+    void testMatchesMap2D1() {
+        SnapshotMap2D snapshots = new SnapshotMap2D(BOUNDS, 8);
+        Map2D map = new Map2D(BOUNDS, 8);
+        Random rnd = new Random(21);
+        int[] xs = new int[4000], ys = new int[4000];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = rnd.nextInt(1001);
+            ys[i] = rnd.nextInt(1001);
+            Place place = new Place(1 << rnd.nextInt(6), xs[i], ys[i]);
+            assertEquals(map.insert(place), snapshots.insert(place));
+        }
+        for (int i = 0; i < xs.length; i += 3) {
+            assertEquals(map.removePlace(xs[i], ys[i]), snapshots.removePlace(xs[i], ys[i]));
+        }
+        for (int i = 1; i < xs.length; i += 5) {
+            assertEquals(map.updateServices(xs[i], ys[i], ServiceType.ATM.getBinaryValue()),
+                    snapshots.updateServices(xs[i], ys[i], ServiceType.ATM.getBinaryValue()));
+        }
+        assertEquals(map.countChildren(), snapshots.countChildren());
+        for (int i = 0; i < 50; i++) {
+            Rectangle range = new Rectangle(rnd.nextInt(1001), rnd.nextInt(1001), rnd.nextInt(400), rnd.nextInt(400));
+            assertEquals(map.count(range, ServiceType.ATM), snapshots.count(range, ServiceType.ATM));
+            assertEquals(map.search(range, null, null, 100000).size(),
+                    snapshots.search(range, null, null, 100000).size());
+            int x = rnd.nextInt(1001), y = rnd.nextInt(1001);
+            ArrayList<Place> expected = map.nearest(x, y, ServiceType.HOTEL, 4);
+            ArrayList<Place> actual = snapshots.nearest(x, y, ServiceType.HOTEL, 4);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(distance(expected.get(j), x, y), distance(actual.get(j), x, y));
+            }
+        }
+    }
+
+    @Test
+    void testSnapshotIgnoresLaterWrites1() {
+        SnapshotMap2D snapshots = new SnapshotMap2D(BOUNDS, 2);
+        for (int i = 0; i < 20; i++) {
+            snapshots.insert(new Place(ServiceType.HOTEL.getBinaryValue(), i * 40, i * 40));
+        }
+        SnapshotMap2D.Snapshot before = snapshots.snapshot();
+        assertTrue(snapshots.removePlace(0, 0));
+        assertTrue(snapshots.updateServices(40, 40, ServiceType.ATM.getBinaryValue()));
+        snapshots.insert(new Place(ServiceType.ATM.getBinaryValue(), 999, 1));
+
+        assertEquals(20, before.countChildren(), "An old snapshot should keep its places");
+        assertEquals(20, before.count(BOUNDS, ServiceType.HOTEL));
+        assertEquals(0, before.count(BOUNDS, ServiceType.ATM));
+        assertEquals(20, snapshots.countChildren());
+        assertEquals(2, snapshots.count(BOUNDS, ServiceType.ATM));
+        assertFalse(snapshots.removePlace(0, 0), "A removed place should not be found again");
+    }
+
+    @Test
+    void testReadersDuringWrites1() throws InterruptedException {
+        SnapshotMap2D snapshots = new SnapshotMap2D(BOUNDS, 4);
+        int writes = 5000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            Random rnd = new Random(3);
+            for (int i = 0; i < writes; i++) {
+                snapshots.insert(new Place(ServiceType.HOTEL.getBinaryValue(), rnd.nextInt(1001), rnd.nextInt(1001)));
+            }
+        });
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    while (writer.isAlive()) {
+                        SnapshotMap2D.Snapshot snapshot = snapshots.snapshot();
+                        int size = snapshot.countChildren();
+                        // Every query on one snapshot sees exactly the same places
+                        assertEquals(size, snapshot.count(BOUNDS, null));
+                        assertEquals(size, snapshot.search(BOUNDS, null, null, Integer.MAX_VALUE).size());
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get(), "No reader should see an inconsistent snapshot");
+        assertEquals(writes, snapshots.countChildren());
+    }
+
+    private static long distance(Place place, int x, int y) {
+        long dx = (long) place.x - x;
+        long dy = (long) place.y - y;
+        return dx * dx + dy * dy;
+    }
+
+    @Test
+    void testNearestFarFromHugeMap1() {
+        SnapshotMap2D map = new SnapshotMap2D(new Rectangle(0, 0, 2000000000, 2000000000), 4);
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), -1000000000, 0));
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 0, 0));
+        map.insert(new Place(ServiceType.ATM.getBinaryValue(), 1000000000, 0));
+        // The farthest place is more than 3e9 away, so its squared distance does not fit in a long
+        ArrayList<Place> nearest = map.nearest(Integer.MAX_VALUE, Integer.MAX_VALUE, null, 3);
+        assertEquals(3, nearest.size());
+        assertEquals(1000000000, nearest.get(0).x, "The nearest place should come first");
+        assertEquals(0, nearest.get(1).x);
+        assertEquals(-1000000000, nearest.get(2).x);
+        assertEquals(1000000000, map.nearest(Integer.MAX_VALUE, Integer.MAX_VALUE, null, 1).get(0).x);
+    }
+}
@@ -8,15 +8,16 @@ package utils;
  */
 public class ArrayList<T> implements List<T> {
 	private int size; // The number of elements currently in the list
-    private final T[] ITEMS; // Array to store the elements of the list
+    private T[] items; // Array to store the elements of the list, doubled when full
 
 	/**
      * Constructs an ArrayList with a specified initial capacity.
-     * @param capacity The initial capacity of the ArrayList.
+     * @param capacity The initial capacity of the ArrayList; it grows when needed.
      */
+	@SuppressWarnings("unchecked")
 	public ArrayList(int capacity) {
 		size = 0;
-		ITEMS = (T[]) new Object[capacity];
+		items = (T[]) new Object[Math.max(capacity, 0)];
 	}
 
 	/**
@@ -26,9 +27,9 @@ public class ArrayList<T> implements List<T> {
 	public ArrayList(ArrayList<T> other) {
 		this.size = other.size;
 		@SuppressWarnings("unchecked")
-		T[] temp = (T[]) new Object[other.ITEMS.length];
-		this.ITEMS = temp;
-        if (other.size >= 0) System.arraycopy(other.ITEMS, 0, this.ITEMS, 0, other.size);
+		T[] temp = (T[]) new Object[other.items.length];
+		this.items = temp;
+        if (other.size >= 0) System.arraycopy(other.items, 0, this.items, 0, other.size);
 	}
 
 	/**
@@ -37,9 +38,18 @@ public class ArrayList<T> implements List<T> {
      * Time Complexity: O(n), where n is the number of elements to shift.
      */
 	private void shiftLeft(int index) {
-		for (int i = index + 1; i < size; i++) {
-			ITEMS[i - 1] = ITEMS[i];
-		}
+		System.arraycopy(items, index + 1, items, index, size - index - 1);
+	}
+
+	/**
+     * Doubles the length of the backing array.
+     * Time Complexity: O(n), where n is the number of elements.
+     */
+	@SuppressWarnings("unchecked")
+	private void grow() {
+		T[] newItems = (T[]) new Object[Math.max(1, items.length * 2)];
+		System.arraycopy(items, 0, newItems, 0, size);
+		items = newItems;
 	}
 
 	/**	
@@ -63,20 +73,22 @@ public class ArrayList<T> implements List<T> {
 		if (index >= size) {
 			return null;
 		}
-		return ITEMS[index];
+		return items[index];
 	}
 
 	/**
-     * Inserts an element at the end of the ArrayList.
+     * Inserts an element at the end of the ArrayList, doubling the backing array
+     * when it is full.
      * @param value The element to add.
-	 * Time Complexity: O(1).
+     * @return true, as the list always has room for another element.
+	 * Time Complexity: O(1) amortized.
      */
 	@Override
 	public boolean insert(T value) {
-		if (size == ITEMS.length) {
-			return false;
+		if (size == items.length) {
+			grow();
 		}
-		ITEMS[size] = value;
+		items[size] = value;
 		size++;
 		return true;
 	}
@@ -89,13 +101,61 @@ public class ArrayList<T> implements List<T> {
      */
 	@Override
 	public boolean remove(T value) {
+		int index = indexOf(value);
+		if (index < 0) {
+			return false;
+		}
+		shiftLeft(index);
+		items[--size] = null;
+		return true;
+	}
+
+	/**
+     * Removes the first occurrence of the specified element by moving the last
+     * element into its place. The order of the remaining elements is not kept.
+     * @param value The element to remove.
+     * @return true if the element was removed, false if it was not found.
+     * Time Complexity: O(n) to find the element; the removal itself is O(1).
+     */
+	public boolean removeUnordered(T value) {
+		int index = indexOf(value);
+		if (index < 0) {
+			return false;
+		}
+		removeUnorderedAt(index);
+		return true;
+	}
+
+	/**
+     * Removes the element at the specified index by moving the last element into
+     * its place. The order of the remaining elements is not kept.
+     * @param index The index of the element to remove.
+     * @return The removed element, or null if the index is out of bounds.
+     * Time Complexity: O(1).
+     */
+	public T removeUnorderedAt(int index) {
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		T removed = items[index];
+		items[index] = items[--size];
+		items[size] = null;
+		return removed;
+	}
+
+	/**
+     * Finds the index of the first occurrence of the specified element, comparing
+     * by identity first and then with equals.
+     * @param value The element to look for.
+     * @return The index of the element, or -1 if it is not in the list.
+     * Time Complexity: O(n).
+     */
+	public int indexOf(T value) {
 		for (int i = 0; i < size; i++) {
-			if (ITEMS[i].equals(value)) {
-				shiftLeft(i);
-				size--;
-				return true;
+			if (items[i] == value || (items[i] != null && items[i].equals(value))) {
+				return i;
 			}
 		}
-		return false;
+		return -1;
 	}
 }
\ No newline at end of file
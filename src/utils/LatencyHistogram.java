@@ -0,0 +1,156 @@
+package utils;
+
+/**
+ * A histogram of non-negative long values, such as latencies in nanoseconds,
+ * that answers percentile queries in constant memory.
+ * Values below 32 get a bucket each; above that, every power of two is split
+ * into 32 equal buckets, so a reported percentile is never more than about 3%
+ * above the true value, whatever the range of the values. Recording a value is
+ * a few shifts and one array increment, with no allocation.
+ * A histogram is not thread-safe; merge per-thread histograms with add.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5; // Each power of two is split into 2^5 buckets
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Buckets per power of two
+    private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS]; // Values per bucket
+    private long count; // Number of recorded values
+    private long sum; // Sum of the recorded values
+    private long max; // Largest recorded value
+
+    /**
+     * Finds the bucket of a value.
+     *
+     * @param value The value, at least 0.
+     * @return The index of its bucket.
+     *         Time Complexity: O(1).
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the smallest value that falls in a bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return The smallest value of the bucket.
+     *         Time Complexity: O(1).
+     */
+    private static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Records one value. Negative values are recorded as 0.
+     *
+     * @param value The value to record.
+     *              Time Complexity: O(1).
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded
+     * values fall, rounded up to the end of its bucket.
+     *
+     * @param percentile The percentage, from 0 to 100, e.g. 99.9 for the p999.
+     * @return The percentile, or 0 if nothing was recorded.
+     *         Time Complexity: O(b), where b is the number of buckets.
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                long highest = bucket + 1 < counts.length ? lowestValueOf(bucket + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(highest, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return The number of values.
+     * Time Complexity: O(1).
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     * @return The largest value, or 0 if nothing was recorded.
+     * Time Complexity: O(1).
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * @return The mean, or 0 if nothing was recorded.
+     * Time Complexity: O(1).
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Adds every value recorded by another histogram to this one.
+     * @param other The histogram to merge in.
+     * Time Complexity: O(b), where b is the number of buckets.
+     */
+    public void add(LatencyHistogram other) {
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forgets every recorded value.
+     * Time Complexity: O(b), where b is the number of buckets.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            counts[bucket] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Returns a summary of the recorded values.
+     * @return String, the count, mean, p50, p99, p999 and maximum.
+     * Time Complexity: O(b), where b is the number of buckets.
+     */
+    @Override
+    public String toString() {
+        return String.format("count = %d, mean = %.1f, p50 = %d, p99 = %d, p999 = %d, max = %d", count, getMean(),
+                getPercentile(50), getPercentile(99), getPercentile(99.9), max);
+    }
+}
@@ -0,0 +1,145 @@
+package utils;
+
+/**
+ * A generic binary min-heap that orders its elements by a long priority.
+ * The element with the smallest priority is always at the top; storing negated
+ * priorities turns it into a max-heap.
+ *
+ * @param <T> The type of elements in this heap.
+ */
+public class MinHeap<T> {
+    private static final int DEFAULT_CAPACITY = 16; // Initial length of the backing arrays
+    private T[] items; // Elements of the heap, in heap order
+    private long[] priorities; // Priority of the element in the same slot
+    private int size; // The number of elements currently in the heap
+
+    /**
+     * Constructs an empty heap with a default initial capacity.
+     */
+    public MinHeap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty heap with a specified initial capacity.
+     * @param capacity The initial capacity of the heap; it grows when needed.
+     */
+    @SuppressWarnings("unchecked")
+    public MinHeap(int capacity) {
+        items = (T[]) new Object[Math.max(capacity, 1)];
+        priorities = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Returns the number of elements in this heap.
+     * @return The number of elements in the heap.
+     * Time Complexity: O(1).
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether this heap has no elements.
+     * @return true if the heap is empty, false otherwise.
+     * Time Complexity: O(1).
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Inserts an element with the given priority.
+     * @param value    The element to add.
+     * @param priority The priority of the element; smaller comes out first.
+     * Time Complexity: O(log n) amortized.
+     */
+    public void insert(T value, long priority) {
+        if (size == items.length) {
+            grow();
+        }
+        int index = size++;
+        // Sift the new element up until its parent is not larger
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            items[index] = items[parent];
+            priorities[index] = priorities[parent];
+            index = parent;
+        }
+        items[index] = value;
+        priorities[index] = priority;
+    }
+
+    /**
+     * Retrieves the element with the smallest priority without removing it.
+     * @return The top element, or null if the heap is empty.
+     * Time Complexity: O(1).
+     */
+    public T peek() {
+        return size == 0 ? null : items[0];
+    }
+
+    /**
+     * Retrieves the smallest priority in the heap.
+     * @return The priority of the top element, or Long.MAX_VALUE if the heap is empty.
+     * Time Complexity: O(1).
+     */
+    public long peekPriority() {
+        return size == 0 ? Long.MAX_VALUE : priorities[0];
+    }
+
+    /**
+     * Removes and returns the element with the smallest priority.
+     * @return The top element, or null if the heap is empty.
+     * Time Complexity: O(log n).
+     */
+    public T poll() {
+        if (size == 0) {
+            return null;
+        }
+        T top = items[0];
+        size--;
+        T last = items[size];
+        long lastPriority = priorities[size];
+        items[size] = null;
+        // Sift the last element down from the root until both children are not smaller
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+                child++;
+            }
+            if (priorities[child] >= lastPriority) {
+                break;
+            }
+            items[index] = items[child];
+            priorities[index] = priorities[child];
+            index = child;
+        }
+        if (size > 0) {
+            items[index] = last;
+            priorities[index] = lastPriority;
+        }
+        return top;
+    }
+
+    /**
+     * Doubles the length of the backing arrays.
+     * Time Complexity: O(n).
+     */
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        T[] newItems = (T[]) new Object[items.length * 2];
+        long[] newPriorities = new long[items.length * 2];
+        System.arraycopy(items, 0, newItems, 0, size);
+        System.arraycopy(priorities, 0, newPriorities, 0, size);
+        items = newItems;
+        priorities = newPriorities;
+    }
+}
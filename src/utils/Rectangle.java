@@ -31,19 +31,79 @@ public class Rectangle {
      * Time Complexity: O(1).
      */
     public boolean isContains(Place place) {
-        return (x - halfWidth <= place.x && place.x <= x + halfWidth
-                && y - halfHeight <= place.y && place.y <= y + halfHeight);
+        return isContains(place.x, place.y);
+    }
+
+    /**
+     * Checks if a given point is contained within this rectangle.
+     * @param px int, the x-coordinate of the point.
+     * @param py int, the y-coordinate of the point.
+     * @return boolean, true if the point is within the rectangle, false otherwise.
+     * Time Complexity: O(1).
+     */
+    public boolean isContains(int px, int py) {
+        return (x - halfWidth <= px && px <= x + halfWidth
+                && y - halfHeight <= py && py <= y + halfHeight);
+    }
+
+    /**
+     * Checks if another rectangle lies entirely within this rectangle.
+     * @param rectangle Rectangle, the rectangle to check for containment.
+     * @return boolean, true if every point of the other rectangle is within this one.
+     * Time Complexity: O(1).
+     */
+    public boolean isContains(Rectangle rectangle) {
+        return x - halfWidth <= rectangle.x - rectangle.halfWidth && rectangle.x + rectangle.halfWidth <= x + halfWidth
+                && y - halfHeight <= rectangle.y - rectangle.halfHeight
+                && rectangle.y + rectangle.halfHeight <= y + halfHeight;
+    }
+
+    /**
+     * Computes the squared Euclidean distance from a point to the nearest point of
+     * this rectangle.
+     * @param px int, the x-coordinate of the point.
+     * @param py int, the y-coordinate of the point.
+     * @return long, the squared distance as for squaredDistance, or 0 if the point
+     * is inside the rectangle.
+     * Time Complexity: O(1).
+     */
+    public long distanceSquared(int px, int py) {
+        long dx = Math.max(0, Math.max((long) x - halfWidth - px, (long) px - x - halfWidth));
+        long dy = Math.max(0, Math.max((long) y - halfHeight - py, (long) py - y - halfHeight));
+        return squaredDistance(dx, dy);
+    }
+
+    /**
+     * Computes dx * dx + dy * dy without overflowing. Two int coordinates can be
+     * almost 2^32 apart, so the exact sum can exceed a long; such distances are
+     * saturated to Long.MAX_VALUE, which keeps every comparison between them and
+     * nearer distances correct.
+     * @param dx long, the difference between the x-coordinates.
+     * @param dy long, the difference between the y-coordinates.
+     * @return long, the squared distance, or Long.MAX_VALUE if it does not fit.
+     * Time Complexity: O(1).
+     */
+    public static long squaredDistance(long dx, long dy) {
+        if (Math.abs(dx) <= Integer.MAX_VALUE && Math.abs(dy) <= Integer.MAX_VALUE) {
+            return dx * dx + dy * dy; // At most 2 * (2^31 - 1)^2 < 2^63
+        }
+        // Rounding to double is monotonic and 2^63 is exact, so this only saturates sums of at least about 2^63
+        return (double) dx * dx + (double) dy * dy >= Long.MAX_VALUE ? Long.MAX_VALUE : dx * dx + dy * dy;
     }
 
      /**
-     * Checks if this rectangle intersects with another rectangle.
+     * Checks if this rectangle intersects with another rectangle. Like isContains,
+     * it includes the edges, so rectangles that only touch along an edge or at a
+     * corner intersect.
      * @param rectangle Rectangle, the other rectangle to check for intersection.
-     * @return boolean, true if the rectangles intersect, false otherwise.
+     * @return boolean, true if the rectangles share at least one point, false otherwise.
      * Time Complexity: O(1).
      */
     public boolean isIntersects(Rectangle rectangle) {
-        return !(x - (width / 2) >= rectangle.x + (rectangle.width / 2) || rectangle.x - (rectangle.width / 2) >= x + (width / 2)
-                || y - (height / 2) >= rectangle.y + (rectangle.height / 2) || rectangle.y - (rectangle.height / 2) >= y + (height / 2));
+        return (long) x - halfWidth <= (long) rectangle.x + rectangle.halfWidth
+                && (long) rectangle.x - rectangle.halfWidth <= (long) x + halfWidth
+                && (long) y - halfHeight <= (long) rectangle.y + rectangle.halfHeight
+                && (long) rectangle.y - rectangle.halfHeight <= (long) y + halfHeight;
     }
 
     /**
@@ -55,28 +115,30 @@ public class Rectangle {
     public Rectangle subdivide(String quadrant) {
         int newX = x;
         int newY = y;
-        int newWidth = width / 2;
-        int newHeight = height / 2;
+        int quarterWidth = (halfWidth + 1) / 2; // Rounded up so the quadrants always cover this rectangle
+        int quarterHeight = (halfHeight + 1) / 2;
+        int newWidth = quarterWidth * 2;
+        int newHeight = quarterHeight * 2;
 
         switch (quadrant) {
             case "topLeft":
-                newX = x - newWidth / 2;
-                newY = y - newHeight / 2;
+                newX = x - quarterWidth;
+                newY = y - quarterHeight;
                 break;
 
             case "topRight":
-                newX = x + newWidth / 2;
-                newY = y - newHeight / 2;
+                newX = x + quarterWidth;
+                newY = y - quarterHeight;
                 break;
 
             case "lowerLeft":
-                newX = x - newWidth / 2;
-                newY = y + newHeight / 2;
+                newX = x - quarterWidth;
+                newY = y + quarterHeight;
                 break;
 
             case "lowerRight":
-                newX = x + newWidth / 2;
-                newY = y + newHeight / 2;
+                newX = x + quarterWidth;
+                newY = y + quarterHeight;
                 break;
 
             default: